@@ -0,0 +1,367 @@
+/** @file GeneradorXarxes.java
+    @brief Classe GeneradorXarxes
+*/
+
+/** @class GeneradorXarxes
+    @brief Genera xarxes sintètiques reproduïbles (a partir d'una llavor) per mesurar el rendiment: arbres, DAGs per capes,
+           graelles amb cicles i xarxes amb molts orígens. Una mateixa xarxa es pot construir directament com a Xarxa
+           o escriure com a fitxer d'entrada del simulador.
+    @author Andy Moreno Ramon
+*/
+
+import java.io.*;
+import java.util.*;
+
+public class GeneradorXarxes {
+    /** @brief Famílies de xarxes que es poden generar */
+    public enum Familia {
+        ARBRE, ///< Arbre amb un sol origen i terminals a les fulles
+        CAPES, ///< DAG per capes: orígens a la primera capa, terminals a l'última i cada node amb 1-3 pares a la capa anterior
+        GRAELLA, ///< Graella amb canonades cap a la dreta i cap avall, i algunes en diagonal cap enrere que formen cicles
+        MULTIORIGEN ///< Diversos arbres amb arrels diferents units per canonades que només van cap a nodes posteriors
+    }
+
+    private final Familia familia; ///< Família de la xarxa generada
+    private final Random aleatori; ///< Generador de nombres aleatoris, inicialitzat amb la llavor
+    private int nNodes; ///< Nombre de nodes generats
+    private byte[] tipus; ///< Tipus de cada node (GrafCompacte.ORIGEN, CONNEXIO o TERMINAL)
+    private double[] latituds; ///< Latitud de cada node
+    private double[] longituds; ///< Longitud de cada node
+    private int nCanonades; ///< Nombre de canonades generades
+    private int[] fonts; ///< Node d'inici de cada canonada
+    private int[] destins; ///< Node destí de cada canonada
+    private float[] capacitats; ///< Capacitat de cada canonada
+
+    /**
+     * @brief Genera una xarxa
+     * @pre \p nodes >= 2
+     * @post Genera una xarxa de la família \p familia amb aproximadament \p nodes nodes. Amb la mateixa llavor,
+     *       família i mida sempre es genera la mateixa xarxa.
+     */
+    public GeneradorXarxes(Familia familia, int nodes, long llavor){
+        this.familia=familia;
+        aleatori=new Random(llavor);
+        int mida=Math.max(nodes, 4); //la graella té com a mínim 2x2 nodes
+        tipus=new byte[mida];
+        latituds=new double[mida];
+        longituds=new double[mida];
+        fonts=new int[nodes*2];
+        destins=new int[nodes*2];
+        capacitats=new float[nodes*2];
+        switch(familia){
+            case ARBRE: arbre(nodes); break;
+            case CAPES: capes(nodes); break;
+            case GRAELLA: graella(nodes); break;
+            default: multiorigen(nodes);
+        }
+    }
+
+    /**
+     * @brief Genera un arbre
+     * @pre \p nodes >= 2
+     * @post El node 0 és l'origen, cada node penja d'un node anterior triat a l'atzar, les fulles són terminals
+     */
+    private void arbre(int nodes){
+        int[] fills=new int[nodes];
+        int[] pares=new int[nodes];
+        for(int v=1; v<nodes; v++){
+            pares[v]=aleatori.nextInt(v);
+            fills[pares[v]]++;
+        }
+        for(int v=0; v<nodes; v++){
+            afegirNode(v==0 ? GrafCompacte.ORIGEN : fills[v]==0 ? GrafCompacte.TERMINAL : GrafCompacte.CONNEXIO);
+        }
+        for(int v=1; v<nodes; v++){
+            afegirCanonada(pares[v], v);
+        }
+    }
+
+    /**
+     * @brief Genera un DAG per capes
+     * @pre \p nodes >= 2
+     * @post Hi ha unes arrel(nodes) capes d'amplada semblant; la primera són orígens, l'última terminals,
+     *       i cada node de les altres capes té entre 1 i 3 pares diferents a la capa anterior
+     */
+    private void capes(int nodes){
+        int amplada=Math.max(1, (int)Math.sqrt(nodes));
+        int nCapes=Math.max(2, nodes/amplada);
+        for(int capa=0; capa<nCapes; capa++){
+            for(int i=0; i<amplada && nNodes<nodes; i++){
+                afegirNode(capa==0 ? GrafCompacte.ORIGEN : capa==nCapes-1 ? GrafCompacte.TERMINAL : GrafCompacte.CONNEXIO);
+                if(capa>0){
+                    int v=nNodes-1;
+                    int inici=(capa-1)*amplada;
+                    int nPares=1+aleatori.nextInt(3);
+                    int primer=aleatori.nextInt(amplada);
+                    for(int k=0; k<nPares && k<amplada; k++){
+                        afegirCanonada(inici+(primer+k)%amplada, v);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Genera una graella amb cicles
+     * @pre \p nodes >= 2
+     * @post Graella d'arrel(nodes) columnes. El node de dalt a l'esquerra és l'origen, l'última fila són terminals,
+     *       cada node de les altres files té canonades cap a la dreta i cap avall, i un de cada deu quadrats té una canonada en diagonal cap
+     *       enrere que forma un cicle
+     */
+    private void graella(int nodes){
+        int columnes=Math.max(2, (int)Math.sqrt(nodes));
+        int files=Math.max(2, nodes/columnes);
+        for(int v=0; v<files*columnes; v++){
+            afegirNode(v==0 ? GrafCompacte.ORIGEN : v/columnes==files-1 ? GrafCompacte.TERMINAL : GrafCompacte.CONNEXIO);
+        }
+        for(int f=0; f<files; f++){
+            for(int c=0; c<columnes; c++){
+                int v=f*columnes+c;
+                if(f+1<files){ //dels terminals de l'última fila no en surt cap canonada
+                    if(c+1<columnes){
+                        afegirCanonada(v, v+1);
+                    }
+                    afegirCanonada(v, v+columnes);
+                    if(f+2<files && c+1<columnes && v!=0 && aleatori.nextInt(10)==0){ //tanca el cicle v, v+1, v+columnes+1
+                        afegirCanonada(v+columnes+1, v);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Genera una xarxa amb molts orígens
+     * @pre \p nodes >= 2
+     * @post Hi ha un origen per cada mil nodes; la resta pengen d'un node anterior i alguns reben una segona canonada
+     *       d'un altre node anterior, de manera que la xarxa no té cicles però les aigües de diferents orígens es barregen
+     */
+    private void multiorigen(int nodes){
+        int nOrigens=Math.max(1, nodes/1000);
+        int[] fills=new int[nodes];
+        int[] pares=new int[nodes];
+        int[] segonsPares=new int[nodes];
+        Arrays.fill(segonsPares, -1);
+        for(int v=nOrigens; v<nodes; v++){
+            pares[v]=aleatori.nextInt(v);
+            fills[pares[v]]++;
+            if(aleatori.nextInt(8)==0){
+                int segon=aleatori.nextInt(v);
+                if(segon!=pares[v]){
+                    segonsPares[v]=segon;
+                    fills[segon]++;
+                }
+            }
+        }
+        for(int v=0; v<nodes; v++){
+            afegirNode(v<nOrigens ? GrafCompacte.ORIGEN : fills[v]==0 ? GrafCompacte.TERMINAL : GrafCompacte.CONNEXIO);
+        }
+        for(int v=nOrigens; v<nodes; v++){
+            afegirCanonada(pares[v], v);
+            if(segonsPares[v]>=0){
+                afegirCanonada(segonsPares[v], v);
+            }
+        }
+    }
+
+    /**
+     * @brief Afegeix un node a una posició aleatòria
+     * @pre Hi ha lloc per a un node més
+     * @post S'ha afegit un node del tipus \p t
+     */
+    private void afegirNode(byte t){
+        tipus[nNodes]=t;
+        latituds[nNodes]=41+aleatori.nextDouble();
+        longituds[nNodes]=2+aleatori.nextDouble();
+        nNodes++;
+    }
+
+    /**
+     * @brief Afegeix una canonada amb una capacitat aleatòria
+     * @pre \p font i \p desti són nodes ja afegits i \p desti no és un origen
+     * @post S'ha afegit una canonada de \p font a \p desti
+     */
+    private void afegirCanonada(int font, int desti){
+        if(nCanonades==fonts.length){
+            fonts=Arrays.copyOf(fonts, nCanonades*2);
+            destins=Arrays.copyOf(destins, nCanonades*2);
+            capacitats=Arrays.copyOf(capacitats, nCanonades*2);
+        }
+        fonts[nCanonades]=font;
+        destins[nCanonades]=desti;
+        capacitats[nCanonades]=10+aleatori.nextInt(990);
+        nCanonades++;
+    }
+
+    /**
+     * @brief Nombre de nodes generats
+     * @pre cert
+     * @post Retorna el nombre de nodes de la xarxa generada
+     */
+    public int nombreNodes(){
+        return nNodes;
+    }
+
+    /**
+     * @brief Nombre de canonades generades
+     * @pre cert
+     * @post Retorna el nombre de canonades de la xarxa generada
+     */
+    public int nombreCanonades(){
+        return nCanonades;
+    }
+
+    /**
+     * @brief Identificador d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna O, C o T segons el tipus, seguit de \p v
+     */
+    public String id(int v){
+        return (tipus[v]==GrafCompacte.ORIGEN ? "O" : tipus[v]==GrafCompacte.TERMINAL ? "T" : "C") + v;
+    }
+
+    /**
+     * @brief Construeix la xarxa generada
+     * @pre cert
+     * @post Retorna una Xarxa amb els nodes i les canonades generats, un cabal a cada origen, una demanda a cada terminal
+     *       i dos abonats per terminal, identificats com A0, A1, ...
+     */
+    public Xarxa construir(){
+        Xarxa x=new Xarxa();
+        Nodo[] nodes=new Nodo[nNodes];
+        for(int v=0; v<nNodes; v++){
+            Coordenades c=new Coordenades(latituds[v], longituds[v]);
+            if(tipus[v]==GrafCompacte.ORIGEN){
+                Origen o=new Origen(id(v), c);
+                x.afegir(o);
+                nodes[v]=o;
+            }
+            else if(tipus[v]==GrafCompacte.TERMINAL){
+                Terminal t=new Terminal(id(v), c, demandaPunta(v));
+                x.afegir(t);
+                nodes[v]=t;
+            }
+            else{
+                Connexio con=new Connexio(id(v), c);
+                x.afegir(con);
+                nodes[v]=con;
+            }
+        }
+        for(int e=0; e<nCanonades; e++){
+            x.connectarAmbCanonada(x.node(id(fonts[e])), x.node(id(destins[e])), capacitats[e]);
+        }
+        List<String> abonats=new ArrayList<>();
+        List<String> terminals=new ArrayList<>();
+        for(int v=0; v<nNodes; v++){
+            if(tipus[v]==GrafCompacte.ORIGEN){
+                x.establirCabal((Origen)nodes[v], cabalOrigen(v));
+            }
+            else if(tipus[v]==GrafCompacte.TERMINAL){
+                x.establirDemanda((Terminal)nodes[v], demandaPunta(v)/2);
+                for(int k=0; k<2; k++){
+                    abonats.add("A"+abonats.size());
+                    terminals.add(id(v));
+                }
+            }
+        }
+        x.abonar(abonats, terminals);
+        return x;
+    }
+
+    /**
+     * @brief Escriu la xarxa generada com a fitxer d'entrada del simulador
+     * @pre cert
+     * @post S'han escrit a \p out les ordres per crear la mateixa xarxa que construir(), seguides de \p consultes
+     *       consultes de cada tipus sobre la component del node 0: cicles, arbre i, si la xarxa no té cicles,
+     *       cabalabonat i cabalminim
+     */
+    public void escriure(Writer out, int consultes) throws IOException {
+        for(int v=0; v<nNodes; v++){
+            if(tipus[v]==GrafCompacte.ORIGEN){
+                ordre(out, "origen", id(v), coordenades(v));
+            }
+            else if(tipus[v]==GrafCompacte.TERMINAL){
+                ordre(out, "terminal", id(v), coordenades(v), Float.toString(demandaPunta(v)));
+            }
+            else{
+                ordre(out, "connexio", id(v), coordenades(v));
+            }
+        }
+        for(int e=0; e<nCanonades; e++){
+            ordre(out, "connectar", id(fonts[e]), id(destins[e]), Float.toString(capacitats[e]));
+        }
+        int abonats=0;
+        for(int v=0; v<nNodes; v++){
+            if(tipus[v]==GrafCompacte.ORIGEN){
+                ordre(out, "cabal", id(v), Float.toString(cabalOrigen(v)));
+            }
+            else if(tipus[v]==GrafCompacte.TERMINAL){
+                ordre(out, "demanda", id(v), Float.toString(demandaPunta(v)/2));
+                for(int k=0; k<2; k++){
+                    ordre(out, "abonar", "A"+(abonats++), id(v));
+                }
+            }
+        }
+        for(int i=0; i<consultes; i++){
+            ordre(out, "cicles", id(0));
+            ordre(out, "arbre", id(0));
+            if(familia!=Familia.GRAELLA && abonats>0){
+                ordre(out, "cabalabonat", "A"+aleatori.nextInt(abonats));
+                ordre(out, "cabalminim", id(0), "50");
+            }
+        }
+    }
+
+    /**
+     * @brief Escriu una ordre
+     * @pre cert
+     * @post S'ha escrit cada part de l'ordre en una línia
+     */
+    private static void ordre(Writer out, String... parts) throws IOException {
+        for(String part : parts){
+            out.write(part);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * @brief Coordenades d'un node en el format del fitxer d'entrada
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna les coordenades com a graus:minuts:segons amb la direcció, latitud i longitud separades per una coma
+     */
+    private String coordenades(int v){
+        return sexagesimal(latituds[v], 'N', 'S') + "," + sexagesimal(longituds[v], 'E', 'W');
+    }
+
+    /**
+     * @brief Angle en graus, minuts i segons
+     * @pre cert
+     * @post Retorna \p graus com a graus:minuts:segons seguit de \p positiu o \p negatiu segons el signe
+     */
+    private static String sexagesimal(double graus, char positiu, char negatiu){
+        char direccio=graus<0 ? negatiu : positiu;
+        graus=Math.abs(graus);
+        int g=(int)graus;
+        int m=(int)((graus-g)*60);
+        double s=((graus-g)*60-m)*60;
+        return g + ":" + m + ":" + String.format(Locale.ROOT, "%.3f", s) + direccio;
+    }
+
+    /**
+     * @brief Demanda punta d'un terminal
+     * @pre \p v és un terminal
+     * @post Retorna una demanda punta entre 10 i 59 que només depèn de \p v
+     */
+    private static float demandaPunta(int v){
+        return 10+v%50;
+    }
+
+    /**
+     * @brief Cabal d'un origen
+     * @pre \p v és un origen
+     * @post Retorna un cabal gran, que només depèn de \p v
+     */
+    private static float cabalOrigen(int v){
+        return 100000+v%1000;
+    }
+}
@@ -0,0 +1,220 @@
+/** @file Rendiment.java
+    @brief Classe Rendiment
+*/
+
+/** @class Rendiment
+    @brief Mesura el temps de les operacions de Xarxa, GestorXarxes i SimuladorModeText sobre xarxes generades amb
+           GeneradorXarxes, per detectar i quantificar problemes d'escalabilitat.
+
+           Es compila i s'executa des de l'arrel del projecte, després de compilar src:
+           \code
+           javac -encoding UTF-8 -d classes -cp "lib/*" src/*.java
+           javac -encoding UTF-8 -d classes -cp "classes:lib/*" bench/*.java
+           java -Xmx8g -cp "classes:lib/*" Rendiment -f ARBRE,CAPES -n 100,10000,1000000 -o cabal,teCicles
+           \endcode
+
+           Paràmetres (tots opcionals):
+           - -f famílies separades per comes (ARBRE, CAPES, GRAELLA, MULTIORIGEN), per defecte totes
+           - -n mides en nombre de nodes separades per comes, per defecte 100,1000,10000,100000 (fins a 10^7 amb prou memòria)
+           - -o operacions separades per comes, per defecte totes
+           - -s llavor del generador, per defecte 42
+           - -e iteracions d'escalfament i -m iteracions mesurades, per defecte 5 i 20
+
+           Per cada família, mida i operació escriu una línia amb el temps mitjà per operació en nanosegons, separat
+           per tabuladors. Les operacions que no tenen sentit per a una família (per exemple el cabal en una xarxa amb
+           cicles, o aixetesTancar fora d'un arbre) se salten. Cada mesura fa primer les iteracions d'escalfament perquè
+           el compilador JIT optimitzi el codi, i el resultat de cada operació s'acumula perquè no es pugui eliminar.
+    @author Andy Moreno Ramon
+*/
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class Rendiment {
+    /** @brief Operació que es mesura */
+    private interface Operacio {
+        /**
+         * @brief Executa la i-èssima repetició de l'operació
+         * @pre i >= 0
+         * @post Retorna un valor que depèn del resultat de l'operació
+         */
+        double executar(int i) throws Exception;
+    }
+
+    private static final int ACICLICA = 1; ///< L'operació necessita una xarxa sense cicles
+    private static final int ARBRE = 2; ///< L'operació necessita que la xarxa sigui un arbre
+    private static final int MOSTRA = 1000; ///< Nombre màxim de terminals, abonats o nodes que fan servir les operacions
+
+    private static double acumulat; ///< Suma dels resultats de totes les operacions, perquè el JIT no les elimini
+
+    /**
+     * @brief Executa les mesures
+     * @pre Els paràmetres tenen el format descrit a la documentació de la classe
+     * @post S'han escrit per la sortida estàndard els temps de totes les combinacions demanades
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String,String> parametres=new HashMap<>();
+        for(int i=0; i+1<args.length; i+=2){
+            parametres.put(args[i], args[i+1]);
+        }
+        List<GeneradorXarxes.Familia> families=new ArrayList<>();
+        for(String f : parametres.getOrDefault("-f", "ARBRE,CAPES,GRAELLA,MULTIORIGEN").split(",")){
+            families.add(GeneradorXarxes.Familia.valueOf(f.trim().toUpperCase()));
+        }
+        List<Integer> mides=new ArrayList<>();
+        for(String n : parametres.getOrDefault("-n", "100,1000,10000,100000").split(",")){
+            mides.add(Integer.parseInt(n.trim()));
+        }
+        Set<String> operacions=parametres.containsKey("-o") ? new HashSet<>(Arrays.asList(parametres.get("-o").split(","))) : null;
+        long llavor=Long.parseLong(parametres.getOrDefault("-s", "42"));
+        int escalfament=Integer.parseInt(parametres.getOrDefault("-e", "5"));
+        int mesura=Integer.parseInt(parametres.getOrDefault("-m", "20"));
+
+        //els algorismes recursius necessiten una pila gran en les xarxes profundes
+        Thread fil=new Thread(null, () -> {
+            try{
+                System.out.println("familia\tnodes\tcanonades\toperacio\tns/op");
+                for(GeneradorXarxes.Familia familia : families){
+                    for(int mida : mides){
+                        mesurar(new GeneradorXarxes(familia, mida, llavor), familia, operacions, escalfament, mesura);
+                    }
+                }
+                System.out.println("# " + acumulat);
+            }
+            catch(Exception e){
+                e.printStackTrace();
+            }
+        }, "rendiment", 1L << 31);
+        fil.start();
+        fil.join();
+    }
+
+    /**
+     * @brief Mesura totes les operacions sobre una xarxa generada
+     * @pre cert
+     * @post S'ha escrit una línia per cada operació de \p operacions (o totes si és null) aplicable a la família
+     */
+    private static void mesurar(GeneradorXarxes generador, GeneradorXarxes.Familia familia, Set<String> operacions,
+                                int escalfament, int mesura) throws Exception {
+        Xarxa x=generador.construir();
+        GrafCompacte graf=x.grafCompacte();
+        Origen o=(Origen)x.node(generador.id(0));
+        int requisits=familia==GeneradorXarxes.Familia.GRAELLA ? 0 : familia==GeneradorXarxes.Familia.ARBRE ? ACICLICA|ARBRE : ACICLICA;
+
+        //mostres de la component de l'origen
+        List<Terminal> terminals=new ArrayList<>();
+        List<Nodo> nodes=new ArrayList<>();
+        Set<Canonada> canonades=new HashSet<>();
+        int v=graf.indexNode(o.id());
+        for(int i=graf.midaComponent(v); i>0; i--, v=graf.seguentMembre(v)){
+            if(graf.tipus(v)==GrafCompacte.TERMINAL && terminals.size()<MOSTRA){
+                terminals.add((Terminal)graf.node(v));
+            }
+            if(nodes.size()<MOSTRA){
+                nodes.add(graf.node(v));
+            }
+            for(int k=0; k<graf.grauSortida(v); k++){
+                canonades.add(graf.canonada(graf.sortida(v, k)));
+            }
+        }
+        String[] abonats=new String[Math.min(MOSTRA, 2*terminals.size())];
+        for(int i=0; i<abonats.length; i++){
+            abonats[i]="A"+i;
+        }
+        Map<Terminal,Boolean> aiguaArriba=new HashMap<>();
+        for(int i=0; i<terminals.size(); i++){
+            aiguaArriba.put(terminals.get(i), i%3!=0);
+        }
+        Set<Nodo> cjtNodes=new HashSet<>(nodes);
+        Coordenades centre=new Coordenades(41.5, 2.5);
+        float cabalOrigen=o.cabal();
+
+        Map<String,Operacio> mesures=new LinkedHashMap<>();
+        Map<String,Integer> necessita=new HashMap<>();
+        afegir(mesures, necessita, "cabal", ACICLICA, i -> {
+            x.establirCabal(o, cabalOrigen+(i&1)); //invalida tot el que depèn de l'origen
+            return x.cabal(terminals.get(i%terminals.size()));
+        });
+        afegir(mesures, necessita, "demanda", ACICLICA, i -> {
+            Terminal t=terminals.get(i%terminals.size());
+            x.establirDemanda(t, t.demandaPunta()/2+(i&1)); //invalida tot el que hi ha per sobre del terminal
+            return x.demanda(o);
+        });
+        afegir(mesures, necessita, "cabalAbonat", ACICLICA, i -> x.cabalAbonat(abonats[i%abonats.length]));
+        afegir(mesures, necessita, "teCicles", 0, i -> GestorXarxes.teCicles(x, o) ? 1 : 0);
+        afegir(mesures, necessita, "esArbre", 0, i -> GestorXarxes.esArbre(x, o) ? 1 : 0);
+        afegir(mesures, necessita, "cabalMinim", ACICLICA, i -> GestorXarxes.cabalMinim(x, o, 50));
+        afegir(mesures, necessita, "excesCabal", ACICLICA, i -> GestorXarxes.excesCabal(x, canonades).size());
+        afegir(mesures, necessita, "aixetesTancar", ARBRE, i -> GestorXarxes.aixetesTancar(x, aiguaArriba).size());
+        afegir(mesures, necessita, "nodesOrdenats", 0, i -> GestorXarxes.nodesOrdenats(centre, cjtNodes).size());
+        afegir(mesures, necessita, "fluxMaxim", 0, i -> GestorXarxes.resultatFluxMaxim(x, o).valor());
+        afegir(mesures, necessita, "impacteAixetes", 0, i -> x.impacteAixetes().nombreTerminals(graf.indexNode(o.id())));
+        afegir(mesures, necessita, "bifurcar", ACICLICA, i -> {
+            Xarxa escenari=x.bifurcar(); //tancar un terminal i doblar la demanda d'un altre, sense tocar x
+            escenari.tancarAixeta(escenari.node(terminals.get(i%terminals.size()).id()));
+            Terminal t=(Terminal)escenari.node(terminals.get((i+1)%terminals.size()).id());
+            escenari.establirDemanda(t, t.demandaPunta()*2);
+            return escenari.cabal(escenari.node(o.id()));
+        });
+        if(operacions==null || operacions.contains("desar") || operacions.contains("carregar")){
+            Path instantania=Files.createTempFile("rendiment", ".bwx");
+            x.desar(instantania);
+            afegir(mesures, necessita, "desar", 0, i -> {
+                x.desar(instantania);
+                return Files.size(instantania);
+            });
+            afegir(mesures, necessita, "carregar", 0, i -> Xarxa.carregar(instantania).grafCompacte().nombreCanonades());
+            instantania.toFile().deleteOnExit();
+        }
+        if(operacions==null || operacions.contains("script")){
+            Path entrada=Files.createTempFile("rendiment", ".txt");
+            Path sortida=Files.createTempFile("rendiment", ".out");
+            try(Writer out=Files.newBufferedWriter(entrada)){
+                generador.escriure(out, MOSTRA);
+            }
+            afegir(mesures, necessita, "script", 0, i -> {
+                new SimuladorModeText(true).simular(entrada.toString(), sortida.toString());
+                return Files.size(sortida);
+            });
+            entrada.toFile().deleteOnExit();
+            sortida.toFile().deleteOnExit();
+        }
+
+        for(Map.Entry<String,Operacio> operacio : mesures.entrySet()){
+            String nom=operacio.getKey();
+            if((operacions!=null && !operacions.contains(nom)) || (necessita.get(nom) & ~requisits)!=0){
+                continue;
+            }
+            double ns=temps(operacio.getValue(), escalfament, mesura);
+            System.out.println(familia + "\t" + generador.nombreNodes() + "\t" + generador.nombreCanonades() + "\t" + nom + "\t"
+                               + String.format(Locale.ROOT, "%.0f", ns));
+        }
+    }
+
+    /**
+     * @brief Registra una operació
+     * @pre cert
+     * @post \p operacio queda registrada amb el nom \p nom i els requisits \p requisits
+     */
+    private static void afegir(Map<String,Operacio> mesures, Map<String,Integer> necessita, String nom, int requisits, Operacio operacio){
+        mesures.put(nom, operacio);
+        necessita.put(nom, requisits);
+    }
+
+    /**
+     * @brief Temps mitjà d'una operació
+     * @pre \p mesura > 0
+     * @post Retorna el temps mitjà en nanosegons de les \p mesura execucions que segueixen a \p escalfament execucions
+     */
+    private static double temps(Operacio operacio, int escalfament, int mesura) throws Exception {
+        for(int i=0; i<escalfament; i++){
+            acumulat+=operacio.executar(i);
+        }
+        long inici=System.nanoTime();
+        for(int i=0; i<mesura; i++){
+            acumulat+=operacio.executar(escalfament+i);
+        }
+        return (System.nanoTime()-inici)/(double)mesura;
+    }
+}
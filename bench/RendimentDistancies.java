@@ -0,0 +1,113 @@
+/** @file RendimentDistancies.java
+    @brief Classe RendimentDistancies
+*/
+
+/** @class RendimentDistancies
+    @brief Mesura el rendiment del càlcul de distàncies des d'un punt a molts: una crida a Coordenades.distancia per
+           punt, o una sola crida a LotCoordenades.distancies per a tots. També comprova que la diferència entre els
+           dos resultats queda dins de la tolerància documentada.
+
+           Es compila i s'executa com Rendiment:
+           \code
+           java -cp "classes:lib/*" RendimentDistancies -n 1000,1000000 -e 5 -m 20
+           \endcode
+
+           Paràmetres (tots opcionals):
+           - -n nombres de punts separats per comes, per defecte 1000,100000,1000000
+           - -s llavor, per defecte 42
+           - -e iteracions d'escalfament i -m iteracions mesurades, per defecte 5 i 20
+
+           Per cada mida i mètode escriu el temps per milió de punts en mil·lisegons i el rendiment en milions de punts
+           per segon, separats per tabuladors.
+    @author Andy Moreno Ramon
+*/
+
+import java.util.*;
+
+public class RendimentDistancies {
+    private static double acumulat; ///< Suma de distàncies calculades, perquè el JIT no elimini els càlculs
+
+    /**
+     * @brief Executa les mesures
+     * @pre Els paràmetres tenen el format descrit a la documentació de la classe
+     * @post S'han escrit per la sortida estàndard els temps de cada mida i mètode
+     */
+    public static void main(String[] args){
+        Map<String,String> parametres=new HashMap<>();
+        for(int i=0; i+1<args.length; i+=2){
+            parametres.put(args[i], args[i+1]);
+        }
+        long llavor=Long.parseLong(parametres.getOrDefault("-s", "42"));
+        int escalfament=Integer.parseInt(parametres.getOrDefault("-e", "5"));
+        int mesura=Integer.parseInt(parametres.getOrDefault("-m", "20"));
+        System.out.println("punts\tmetode\tms/milio\tMpunts/s");
+        for(String n : parametres.getOrDefault("-n", "1000,100000,1000000").split(",")){
+            mesurar(Integer.parseInt(n.trim()), llavor, escalfament, mesura);
+        }
+        System.out.println("# " + acumulat);
+    }
+
+    /**
+     * @brief Mesura els dos mètodes amb un nombre de punts
+     * @pre \p punts > 0, \p mesura > 0
+     * @post S'ha escrit una línia per mètode
+     * @throws IllegalStateException si els dos mètodes difereixen més del que permet la tolerància
+     */
+    private static void mesurar(int punts, long llavor, int escalfament, int mesura){
+        Random aleatori=new Random(llavor);
+        Coordenades[] coordenades=new Coordenades[punts];
+        LotCoordenades lot=new LotCoordenades();
+        for(int i=0; i<punts; i++){
+            coordenades[i]=new Coordenades(-90+180*aleatori.nextDouble(), -180+360*aleatori.nextDouble());
+            lot.afegir(coordenades[i]);
+        }
+        Coordenades[] centres=new Coordenades[16];
+        for(int i=0; i<centres.length; i++){
+            centres[i]=new Coordenades(-90+180*aleatori.nextDouble(), -180+360*aleatori.nextDouble());
+        }
+        double[] resultat=new double[punts];
+
+        //comprovem la tolerància
+        lot.distancies(centres[0], resultat);
+        for(int i=0; i<punts; i++){
+            double d=coordenades[i].distancia(centres[0]);
+            double tolerancia=d<=LotCoordenades.DISTANCIA_TOLERANCIA ? LotCoordenades.TOLERANCIA : LotCoordenades.TOLERANCIA_ANTIPODES;
+            if(Math.abs(d-resultat[i])>tolerancia){
+                throw new IllegalStateException("Diferència de " + Math.abs(d-resultat[i]) + " km al punt " + i);
+            }
+        }
+
+        long inici=0;
+        for(int i=0; i<escalfament+mesura; i++){
+            if(i==escalfament){
+                inici=System.nanoTime();
+            }
+            Coordenades c=centres[i%centres.length];
+            for(int k=0; k<punts; k++){
+                resultat[k]=coordenades[k].distancia(c);
+            }
+            acumulat+=resultat[i%punts];
+        }
+        escriure(punts, "distancia", System.nanoTime()-inici, mesura);
+
+        for(int i=0; i<escalfament+mesura; i++){
+            if(i==escalfament){
+                inici=System.nanoTime();
+            }
+            lot.distancies(centres[i%centres.length], resultat);
+            acumulat+=resultat[i%punts];
+        }
+        escriure(punts, "lot", System.nanoTime()-inici, mesura);
+    }
+
+    /**
+     * @brief Escriu una mesura
+     * @pre \p mesura > 0
+     * @post S'ha escrit el temps per milió de punts i el rendiment de \p mesura càlculs de \p punts distàncies en \p ns nanosegons
+     */
+    private static void escriure(int punts, String metode, long ns, int mesura){
+        double nsPunt=ns/((double)punts*mesura);
+        System.out.println(punts + "\t" + metode + "\t" + String.format(Locale.ROOT, "%.2f", nsPunt) //un ns per punt és un ms per milió
+                           + "\t" + String.format(Locale.ROOT, "%.1f", 1e3/nsPunt));
+    }
+}
@@ -0,0 +1,187 @@
+/** @file Abast.java
+    @brief Classe Abast
+*/
+
+/** @class Abast
+    @brief Nodes d'una xarxa on arriba aigua, és a dir, als quals s'arriba des d'un origen obert passant només per
+           nodes oberts (sense entrar en cap altre origen). Es calcula amb un sol recorregut en amplada des de tots els
+           orígens oberts i després s'actualitza a mesura que canvien les aixetes, els nodes i les canonades.
+
+           Quan un node passa a rebre aigua només cal seguir les seves sortides fins als nodes que encara no en
+           rebien. Quan un node en pot deixar de rebre, es desmarquen ell i tots els nodes marcats on s'arriba des
+           d'ell, i es tornen a marcar els d'aquesta regió que encara tenen alguna entrada amb aigua. Cada
+           actualització només recorre la regió afectada.
+    @author Miquel Coll Barneto
+*/
+
+import java.util.*;
+
+public class Abast {
+    private final GrafCompacte graf; ///< Graf sobre el qual es calcula
+    private final BitSet arriba; ///< Nodes on arriba aigua
+    private final BitSet regio; ///< Nodes de la regió que s'està recalculant
+    private int[] cua; ///< Cua dels recorreguts
+    private int[] pila; ///< Pila per tornar a marcar una regió
+
+    /**
+     * @brief Calcula els nodes on arriba aigua
+     * @pre \p graf no és null
+     * @post S'han marcat tots els nodes de \p graf on arriba aigua
+     */
+    public Abast(GrafCompacte graf){
+        this.graf=graf;
+        int n=graf.nombreNodes();
+        arriba=new BitSet(n);
+        regio=new BitSet();
+        cua=new int[Math.max(n, 16)];
+        pila=new int[0];
+        int fi=0;
+        for(int v=0; v<n; v++){
+            if(graf.tipus(v)==GrafCompacte.ORIGEN && graf.aixetaOberta(v)){
+                arriba.set(v);
+                cua[fi++]=v;
+            }
+        }
+        propagar(fi);
+    }
+
+    /**
+     * @brief Copia els nodes on arriba aigua
+     * @pre \p graf té el mateix estat que el graf d'\p original
+     * @post Crea una còpia d'\p original que a partir d'ara s'actualitza sobre \p graf
+     */
+    public Abast(Abast original, GrafCompacte graf){
+        this.graf=graf;
+        arriba=(BitSet)original.arriba.clone();
+        regio=new BitSet();
+        cua=new int[16];
+        pila=new int[0];
+    }
+
+    /**
+     * @brief Diu si arriba aigua a un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna cert si arriba aigua al node \p v
+     */
+    public boolean arriba(int v){
+        return arriba.get(v);
+    }
+
+    /**
+     * @brief Actualitza un node que ha canviat
+     * @pre 0 <= \p v < graf.nombreNodes() i només han canviat l'aixeta o el tipus de \p v, o les entrades de \p v
+     *      (amb una canonada nova o un node nou)
+     * @post Els nodes marcats són exactament els nodes on arriba aigua
+     */
+    public void actualitzar(int v){
+        if(arriba.get(v)){
+            if(graf.tipus(v)!=GrafCompacte.ORIGEN || !graf.aixetaOberta(v)){
+                retirar(v);
+            }
+        }
+        else if(rep(v)){
+            arriba.set(v);
+            assegurarCua();
+            cua[0]=v;
+            propagar(1);
+        }
+    }
+
+    /**
+     * @brief Diu si un node rep aigua de les seves entrades
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna cert si \p v és obert i és un origen o té alguna entrada des d'un node marcat
+     */
+    private boolean rep(int v){
+        if(!graf.aixetaOberta(v)){
+            return false;
+        }
+        if(graf.tipus(v)==GrafCompacte.ORIGEN){
+            return true;
+        }
+        for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+            if(arriba.get(graf.font(graf.entrada(v, k)))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @brief Marca els nodes on arriba aigua des dels de la cua
+     * @pre Els \p fi primers nodes de cua estan marcats
+     * @post S'han marcat tots els nodes oberts (que no són orígens) als quals s'arriba des de la cua per nodes marcats
+     */
+    private void propagar(int fi){
+        for(int i=0; i<fi; i++){
+            int v=cua[i];
+            for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                int w=graf.desti(graf.sortida(v, k));
+                if(!arriba.get(w) && graf.tipus(w)!=GrafCompacte.ORIGEN && graf.aixetaOberta(w)){
+                    arriba.set(w);
+                    cua[fi++]=w;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Recalcula la regió que depèn d'un node
+     * @pre \p v està marcat
+     * @post S'han desmarcat \p v i els nodes marcats on s'arriba des de \p v, i s'han tornat a marcar els d'aquests on
+     *       encara arriba aigua
+     */
+    private void retirar(int v){
+        assegurarCua();
+        int mida=0;
+        cua[mida++]=v;
+        regio.set(v);
+        for(int i=0; i<mida; i++){
+            int u=cua[i];
+            for(int k=0, grau=graf.grauSortida(u); k<grau; k++){
+                int w=graf.desti(graf.sortida(u, k));
+                if(arriba.get(w) && !regio.get(w) && graf.tipus(w)!=GrafCompacte.ORIGEN){
+                    regio.set(w);
+                    cua[mida++]=w;
+                }
+            }
+        }
+        for(int i=0; i<mida; i++){
+            arriba.clear(cua[i]);
+        }
+        //fora de la regió no canvia res: tots els successors oberts d'un node marcat ja hi eren marcats
+        for(int i=0; i<mida; i++){
+            int u=cua[i];
+            regio.clear(u);
+            if(!arriba.get(u) && rep(u)){
+                arriba.set(u);
+                pila[0]=u;
+                for(int fi=1; fi>0; ){
+                    int x=pila[--fi];
+                    for(int k=0, grau=graf.grauSortida(x); k<grau; k++){
+                        int w=graf.desti(graf.sortida(x, k));
+                        if(!arriba.get(w) && graf.tipus(w)!=GrafCompacte.ORIGEN && graf.aixetaOberta(w)){
+                            arriba.set(w);
+                            pila[fi++]=w;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Amplia la cua i la pila
+     * @pre cert
+     * @post La cua i la pila tenen espai per a tots els nodes del graf
+     */
+    private void assegurarCua(){
+        int n=graf.nombreNodes();
+        if(cua.length<n){
+            cua=new int[Math.max(n, cua.length*2)];
+        }
+        if(pila.length<n){
+            pila=new int[cua.length];
+        }
+    }
+}
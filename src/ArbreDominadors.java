@@ -0,0 +1,378 @@
+/** @file ArbreDominadors.java
+    @brief Classe ArbreDominadors
+*/
+
+/** @class ArbreDominadors
+    @brief Arbre de dominadors de tots els nodes d'una xarxa respecte un origen virtual que alimenta les arrels de
+           cada component connexa.
+
+           Un node a domina un node b si tots els camins des de l'origen virtual fins a b passen per a. Si es talla a,
+           l'aigua ja no pot arribar a cap node dominat per a. L'arbre es calcula per cada component connexa amb
+           l'algorisme iteratiu de Cooper, Harvey i Kennedy sobre el postordre invers d'un recorregut en profunditat, i
+           els nodes de cada component es guarden en preordre de l'arbre, de manera que els dominats per un node
+           ocupen posicions consecutives a partir d'ell i saber si un node en domina un altre és una comparació
+           d'intervals. Les canonades que entren a un origen no es fan servir, perquè un origen no rep aigua.
+
+           Es pot calcular de dues maneres:
+           - Només amb les aixetes obertes: les arrels són els orígens oberts i només es recorren nodes oberts. Els
+             nodes als quals s'arriba són els que reben aigua.
+           - Amb tota la topologia: les arrels són tots els orígens i tots els nodes sense entrades, i es recorren
+             tots els nodes independentment de les aixetes.
+
+           Les components s'analitzen en paral·lel amb fork/join, en grups d'almenys LLINDAR nodes.
+    @author Miquel Coll Barneto
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+public class ArbreDominadors {
+    private static final int LLINDAR = 1 << 12; ///< Nombre de nodes per sota del qual un grup de components es tracta en un sol fil
+
+    private final GrafCompacte graf; ///< Graf analitzat
+    private final boolean nomesOberts; ///< Indica si només es tenen en compte els nodes amb l'aixeta oberta
+    private final int[] inicis; ///< Posició d'ordre on comença cada component, i el total al final
+    private final int[] arribats; ///< Nombre de nodes de cada component als quals s'arriba des de l'origen virtual
+    private final int[] ordre; ///< Nodes de cada component: primer els que s'hi arriba, en preordre de l'arbre
+    private final int[] posicions; ///< Posició de cada node a ordre
+    private final int[] dominadors; ///< Dominador immediat de cada node, -1 si és l'origen virtual o no s'hi arriba
+    private final int[] midesSubarbre; ///< Nombre de nodes dominats per cada node (ell inclòs), 0 si no s'hi arriba
+
+    /**
+     * @brief Calcula l'arbre de dominadors
+     * @pre cert
+     * @post S'ha calculat l'arbre de dominadors de tots els nodes de \p graf als quals s'arriba des de les arrels;
+     *       si \p nomesOberts és cert, tenint en compte només els nodes amb l'aixeta oberta
+     */
+    public ArbreDominadors(GrafCompacte graf, boolean nomesOberts){
+        this.graf=graf;
+        this.nomesOberts=nomesOberts;
+        int n=graf.nombreNodes();
+        ordre=new int[n];
+        posicions=new int[n];
+        dominadors=new int[n];
+        midesSubarbre=new int[n];
+
+        //components i posició de cadascuna a ordre
+        int nComponents=0;
+        int[] representants=new int[n];
+        for(int v=0; v<n; v++){
+            if(graf.component(v)==v){
+                representants[nComponents++]=v;
+            }
+        }
+        inicis=new int[nComponents+1];
+        for(int c=0; c<nComponents; c++){
+            int v=representants[c];
+            inicis[c+1]=inicis[c]+graf.midaComponent(v);
+            for(int i=inicis[c]; i<inicis[c+1]; i++, v=graf.seguentMembre(v)){
+                ordre[i]=v;
+            }
+        }
+        arribats=new int[nComponents];
+        perComponent(this::analitzar);
+    }
+
+    /** @brief Tractament d'un interval de components, que es divideix mentre sigui prou gran */
+    private class Tasca extends RecursiveAction {
+        private static final long serialVersionUID = 1L; ///< RecursiveAction és serialitzable, però la tasca no se serialitza mai
+        private final int primera; ///< Primera component de l'interval
+        private final int ultima; ///< Component següent a l'última de l'interval
+        private final IntConsumer accio; ///< Tractament de cada component
+
+        /**
+         * @brief Crea el tractament d'un interval de components
+         * @pre 0 <= \p primera <= \p ultima <= nombreComponents()
+         * @post Crea una tasca que aplica \p accio a les components de \p primera a \p ultima - 1
+         */
+        Tasca(int primera, int ultima, IntConsumer accio){
+            this.primera=primera;
+            this.ultima=ultima;
+            this.accio=accio;
+        }
+
+        @Override
+        protected void compute(){
+            if(ultima-primera>1 && inicis[ultima]-inicis[primera]>LLINDAR){
+                //partim per la meitat dels nodes, no de les components
+                int mig=Arrays.binarySearch(inicis, primera, ultima, (inicis[primera]+inicis[ultima])>>>1);
+                mig=Math.min(ultima-1, Math.max(primera+1, mig<0 ? -mig-1 : mig));
+                invokeAll(new Tasca(primera, mig, accio), new Tasca(mig, ultima, accio));
+                return;
+            }
+            for(int c=primera; c<ultima; c++){
+                accio.accept(c);
+            }
+        }
+    }
+
+    /**
+     * @brief Tracta totes les components en paral·lel
+     * @pre \p accio només modifica dades dels nodes de la component que rep
+     * @post S'ha cridat \p accio amb cada component, repartint-les entre els fils del fork/join comú
+     */
+    public void perComponent(IntConsumer accio){
+        ForkJoinPool.commonPool().invoke(new Tasca(0, nombreComponents(), accio));
+    }
+
+    /**
+     * @brief Diu si una arrel alimenta l'origen virtual
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna cert si \p v és una de les arrels de l'arbre
+     */
+    private boolean arrel(int v){
+        if(nomesOberts){
+            return graf.tipus(v)==GrafCompacte.ORIGEN && graf.aixetaOberta(v);
+        }
+        return graf.tipus(v)==GrafCompacte.ORIGEN || graf.grauEntrada(v)==0;
+    }
+
+    /**
+     * @brief Diu si es pot passar per un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna cert si el recorregut pot entrar a \p v des d'un altre node
+     */
+    private boolean transitable(int v){
+        return graf.tipus(v)!=GrafCompacte.ORIGEN && (!nomesOberts || graf.aixetaOberta(v));
+    }
+
+    /**
+     * @brief Analitza una component
+     * @pre ordre conté els nodes de la component \p c a partir de inicis[c]
+     * @post S'ha calculat l'arbre de dominadors dels nodes de la component \p c als quals s'arriba i s'han posat en
+     *       preordre a ordre, seguits dels altres
+     */
+    private void analitzar(int c){
+        int inici=inicis[c];
+        int mida=inicis[c+1]-inici;
+        int[] membres=Arrays.copyOfRange(ordre, inici, inici+mida);
+
+        //recorregut en profunditat des de l'origen virtual, per numerar els nodes en postordre invers.
+        //Mentrestant posicions fa de número de cada node: 0 si no s'hi arriba, -1 si ja s'ha visitat.
+        for(int v : membres){
+            posicions[v]=0;
+        }
+        int[] postordre=new int[mida];
+        int[] pila=new int[mida+1];
+        int[] seguents=new int[mida]; //següent sortida a explorar de cada node de la pila
+        int r=0;
+        for(int o : membres){
+            if(!arrel(o) || posicions[o]!=0){
+                continue;
+            }
+            int cim=0;
+            pila[0]=o;
+            seguents[0]=0;
+            posicions[o]=-1;
+            while(cim>=0){
+                int v=pila[cim];
+                if(seguents[cim]<graf.grauSortida(v)){
+                    int w=graf.desti(graf.sortida(v, seguents[cim]++));
+                    if(posicions[w]==0 && transitable(w)){
+                        posicions[w]=-1;
+                        pila[++cim]=w;
+                        seguents[cim]=0;
+                    }
+                }
+                else{
+                    postordre[r++]=pila[cim--];
+                }
+            }
+        }
+        int[] nodes=new int[r+1]; //node de cada número
+        for(int k=0; k<r; k++){
+            nodes[r-k]=postordre[k];
+            posicions[postordre[k]]=r-k;
+        }
+
+        //dominadors immediats, per número (0 és l'origen virtual)
+        int[] idom=new int[r+1];
+        Arrays.fill(idom, -1);
+        idom[0]=0;
+        boolean canviat=true;
+        while(canviat){
+            canviat=false;
+            for(int k=1; k<=r; k++){
+                int w=nodes[k];
+                int nou=-1;
+                if(arrel(w)){
+                    nou=0;
+                }
+                else{
+                    for(int e=0, grau=graf.grauEntrada(w); e<grau; e++){
+                        int p=posicions[graf.font(graf.entrada(w, e))];
+                        if(p==0 || p==k || idom[p]<0){ //no s'hi arriba, bucle o encara no processat
+                            continue;
+                        }
+                        nou=nou<0 ? p : interseccio(idom, nou, p);
+                    }
+                }
+                if(idom[k]!=nou){
+                    idom[k]=nou;
+                    canviat=true;
+                }
+            }
+        }
+
+        //fills de cada número a l'arbre de dominadors, agrupats
+        int[] iniciFills=new int[r+2];
+        for(int k=1; k<=r; k++){
+            iniciFills[idom[k]+1]++;
+        }
+        for(int k=0; k<=r; k++){
+            iniciFills[k+1]+=iniciFills[k];
+        }
+        int[] fills=new int[r];
+        int[] omplerts=Arrays.copyOf(iniciFills, r+1);
+        for(int k=1; k<=r; k++){
+            fills[omplerts[idom[k]]++]=k;
+        }
+
+        //preordre de l'arbre de dominadors a ordre, i després els nodes als quals no s'arriba
+        int p=inici;
+        int cim=0;
+        pila[0]=0;
+        while(cim>=0){
+            int k=pila[cim--];
+            if(k!=0){
+                int v=nodes[k];
+                ordre[p++]=v;
+                dominadors[v]=idom[k]==0 ? -1 : nodes[idom[k]];
+                midesSubarbre[v]=1;
+            }
+            for(int f=iniciFills[k+1]-1; f>=iniciFills[k]; f--){
+                pila[++cim]=fills[f];
+            }
+        }
+        for(int v : membres){
+            if(posicions[v]==0){
+                ordre[p++]=v;
+                dominadors[v]=-1;
+                midesSubarbre[v]=0;
+            }
+        }
+        for(int i=inici; i<inici+mida; i++){
+            posicions[ordre[i]]=i;
+        }
+        arribats[c]=r;
+
+        //mides dels subarbres, dels fills cap als pares
+        for(int i=inici+r-1; i>=inici; i--){
+            int v=ordre[i];
+            if(dominadors[v]>=0){
+                midesSubarbre[dominadors[v]]+=midesSubarbre[v];
+            }
+        }
+    }
+
+    /**
+     * @brief Avantpassat comú més proper a l'arbre de dominadors parcial
+     * @pre \p a i \p b són números amb dominador calculat a \p idom
+     * @post Retorna el número de l'avantpassat comú més proper de \p a i \p b
+     */
+    private static int interseccio(int[] idom, int a, int b){
+        while(a!=b){
+            while(a>b){
+                a=idom[a];
+            }
+            while(b>a){
+                b=idom[b];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * @brief Nombre de components
+     * @pre cert
+     * @post Retorna el nombre de components connexes del graf
+     */
+    public int nombreComponents(){
+        return arribats.length;
+    }
+
+    /**
+     * @brief Inici d'una component
+     * @pre 0 <= \p c < nombreComponents()
+     * @post Retorna la primera posició de la component \p c, on comencen els nodes als quals s'arriba en preordre
+     */
+    public int inici(int c){
+        return inicis[c];
+    }
+
+    /**
+     * @brief Final d'una component
+     * @pre 0 <= \p c < nombreComponents()
+     * @post Retorna la posició següent a l'última de la component \p c
+     */
+    public int fi(int c){
+        return inicis[c+1];
+    }
+
+    /**
+     * @brief Nombre de nodes d'una component als quals s'arriba
+     * @pre 0 <= \p c < nombreComponents()
+     * @post Retorna quants nodes de la component \p c hi ha a l'arbre; ocupen les posicions de inici(c) a
+     *       inici(c) + nombreArribats(c) - 1
+     */
+    public int nombreArribats(int c){
+        return arribats[c];
+    }
+
+    /**
+     * @brief Node d'una posició
+     * @pre 0 <= \p i < graf.nombreNodes()
+     * @post Retorna el node que ocupa la posició \p i
+     */
+    public int node(int i){
+        return ordre[i];
+    }
+
+    /**
+     * @brief Posició d'un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna la posició del node \p v; els nodes que domina ocupen les midaSubarbre(v) posicions a partir d'ella
+     */
+    public int posicio(int v){
+        return posicions[v];
+    }
+
+    /**
+     * @brief Indica si s'arriba a un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna cert si el node \p v és a l'arbre, és a dir, si s'hi arriba des d'alguna arrel
+     */
+    public boolean arribat(int v){
+        return midesSubarbre[v]>0;
+    }
+
+    /**
+     * @brief Dominador immediat d'un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna el node més proper a \p v per on passen tots els camins que hi arriben, o -1 si no n'hi ha cap
+     *       (hi arriben camins disjunts des de diverses arrels, és una arrel o no s'hi arriba)
+     */
+    public int dominador(int v){
+        return dominadors[v];
+    }
+
+    /**
+     * @brief Nombre de nodes dominats
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna el nombre de nodes dominats per \p v, ell inclòs, o 0 si no s'hi arriba
+     */
+    public int midaSubarbre(int v){
+        return midesSubarbre[v];
+    }
+
+    /**
+     * @brief Diu si un node en domina un altre
+     * @pre 0 <= \p a, \p b < graf.nombreNodes()
+     * @post Retorna cert si s'arriba a tots dos nodes i tots els camins que arriben a \p b passen per \p a (un node es
+     *       domina a si mateix)
+     */
+    public boolean domina(int a, int b){
+        return arribat(b) && posicions[a]<=posicions[b] && posicions[b]<posicions[a]+midesSubarbre[a];
+    }
+}
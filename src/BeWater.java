@@ -7,15 +7,151 @@
     @author Andy Moreno Ramon
 */
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.function.Supplier;
+
 public abstract class BeWater {
     
+    private static final String SENSE_FINESTRES = "--text"; ///< Paràmetre opcional per simular sense obrir cap finestra
+    private static final String BUIDAT = "--buidat="; ///< Prefix del paràmetre opcional que indica quan s'escriu la sortida
+    private static final String DIARI = "--diari="; ///< Prefix del paràmetre opcional amb el directori del diari de modificacions
+    private static final String DURABILITAT = "--durabilitat="; ///< Prefix del paràmetre opcional que indica quan es porta el diari a disc
+    private static final String HISTORIAL = "--historial="; ///< Prefix del paràmetre opcional amb el nombre màxim d'operacions que es poden desfer
+    private static final String SERVIDOR = "--servidor="; ///< Prefix del paràmetre que engega el servidor al port indicat
+    private static final String LOT = "--lot="; ///< Prefix del paràmetre que simula tots els fitxers d'un directori o d'un manifest
+    private static final String SORTIDES = "--sortides="; ///< Prefix del paràmetre del lot amb el directori on s'escriuen les sortides d'un directori d'entrades
+    private static final String FILS = "--fils="; ///< Prefix del paràmetre del lot amb el nombre màxim de simulacions alhora
+    private static final String XARXA = "--xarxa="; ///< Prefix del paràmetre del servidor amb el nom d'una xarxa i la instantània d'on es carrega, separats per =
+
     /** @brief Envia els paràmetres necessàris per començar la simulació
-	@pre fitxer d'entrada, fitxer de sortida
-	@post Simula una xarxa */
+	@pre fitxer d'entrada, fitxer de sortida i, opcionalment, --text, --buidat=mida|temps|final, --diari=directori
+	     --durabilitat=sincrona|diferida i --historial=profunditat
+	@post Simula una xarxa. Amb --text les opcions dibuix i max-flow escriuen el resultat al fitxer de sortida
+	      en lloc d'obrir finestres, i no es carrega cap classe d'interfície gràfica. Amb --buidat s'escolleix
+	      si la sortida es buida cada cop que s'omple un bloc, també cada cert temps (per defecte) o només al final.
+	      Amb --diari la xarxa es recupera del directori indicat i s'hi registren totes les modificacions, esperant
+	      que cadascuna sigui a disc (sincrona, per defecte) o portant-les a disc cada cert temps (diferida).
+	      Amb --historial s'escull quantes operacions es poden desfer com a molt.
+	      Amb --servidor=port [--xarxa=nom=instantania ...] no es simula cap fitxer: s'engega un ServidorXarxes a
+	      localhost que atén les sessions fins que s'atura el procés, amb les xarxes indicades ja carregades.
+	      Amb --lot=directori|manifest [--sortides=directori] [--fils=n] i les mateixes opcions (excepte --diari) se
+	      simulen tots els fitxers d'un directori, escrivint cada sortida amb el mateix nom al directori --sortides,
+	      o totes les parelles d'un manifest, amb com a molt n simulacions alhora (per defecte, tants com processadors),
+	      i s'escriu un resum amb els temps i els errors. */
     public static void main(String[] args) {
-        SimuladorModeText simulador = new SimuladorModeText();
+        if (args.length > 0 && args[0].startsWith(SERVIDOR)) {
+            servir(args);
+            return;
+        }
+        boolean lot = args.length > 0 && args[0].startsWith(LOT);
+        String sortides = null;
+        int fils = Runtime.getRuntime().availableProcessors();
+        boolean senseFinestres = false;
+        EscriptorResultats.Buidat buidat = EscriptorResultats.Buidat.TEMPS;
+        String diari = null;
+        Diari.Durabilitat durabilitat = Diari.Durabilitat.SINCRONA;
+        int profunditat = 0;
+        for (int i = lot ? 1 : 2; i < args.length; i++) {
+            if (args[i].equals(SENSE_FINESTRES)) {
+                senseFinestres = true;
+            } else if (args[i].startsWith(BUIDAT)) {
+                buidat = EscriptorResultats.Buidat.valueOf(args[i].substring(BUIDAT.length()).toUpperCase());
+            } else if (args[i].startsWith(DIARI)) {
+                diari = args[i].substring(DIARI.length());
+            } else if (args[i].startsWith(DURABILITAT)) {
+                durabilitat = Diari.Durabilitat.valueOf(args[i].substring(DURABILITAT.length()).toUpperCase());
+            } else if (args[i].startsWith(HISTORIAL)) {
+                profunditat = Integer.parseInt(args[i].substring(HISTORIAL.length()));
+                if (profunditat < 1) {
+                    throw new IllegalArgumentException("La profunditat de l'historial ha de ser com a mínim 1");
+                }
+            } else if (lot && args[i].startsWith(SORTIDES)) {
+                sortides = args[i].substring(SORTIDES.length());
+            } else if (lot && args[i].startsWith(FILS)) {
+                fils = Integer.parseInt(args[i].substring(FILS.length()));
+                if (fils < 1) {
+                    throw new IllegalArgumentException("Hi ha d'haver com a mínim 1 fil");
+                }
+            } else {
+                throw new IllegalArgumentException("Paràmetre desconegut " + args[i]);
+            }
+        }
+        if (lot) {
+            if (diari != null) {
+                throw new IllegalArgumentException("Les simulacions d'un lot no poden compartir el diari");
+            }
+            boolean text = senseFinestres;
+            EscriptorResultats.Buidat b = buidat;
+            int p = profunditat;
+            simularLot(args[0].substring(LOT.length()), sortides, fils, () -> {
+                SimuladorModeText s = new SimuladorModeText(text);
+                s.establirBuidat(b);
+                s.establirProfunditatHistorial(p);
+                return s;
+            });
+            return;
+        }
+        SimuladorModeText simulador = new SimuladorModeText(senseFinestres);
+        simulador.establirBuidat(buidat);
+        simulador.establirProfunditatHistorial(profunditat);
+        if (diari != null) {
+            simulador.establirDiari(Paths.get(diari), durabilitat);
+        }
         System.out.println("Be water, my friend");
         simulador.simular(args[0], args[1]);
     }
 
+    /** @brief Simula un lot
+	@pre \p lot és un directori (i llavors \p sortides no és null) o un manifest, i \p fils >= 1
+	@post S'han simulat tots els fitxers del lot amb com a molt \p fils alhora i s'ha escrit el resum per la
+	      sortida estàndard */
+    private static void simularLot(String lot, String sortides, int fils, Supplier<SimuladorModeText> simuladors) {
+        try {
+            Path cami = Paths.get(lot);
+            SimulacioLot simulacions;
+            if (Files.isDirectory(cami)) {
+                if (sortides == null) {
+                    throw new IllegalArgumentException("Falta el directori de sortides " + SORTIDES);
+                }
+                simulacions = SimulacioLot.directori(cami, Paths.get(sortides));
+            } else {
+                simulacions = SimulacioLot.manifest(cami);
+            }
+            long inici = System.nanoTime();
+            List<SimulacioLot.Resultat> resultats = simulacions.simular(fils, simuladors);
+            SimulacioLot.resum(resultats, System.nanoTime() - inici, System.out);
+        } catch (IOException e) {
+            System.out.println("Error amb el lot " + lot + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @brief Engega el servidor
+	@pre args[0] és --servidor=port i la resta són --xarxa=nom=instantania
+	@post S'han carregat les xarxes i el servidor atén les sessions fins que s'atura el procés */
+    private static void servir(String[] args) {
+        int port = Integer.parseInt(args[0].substring(SERVIDOR.length()));
+        try (ServidorXarxes servidor = new ServidorXarxes(port)) {
+            for (int i = 1; i < args.length; i++) {
+                if (!args[i].startsWith(XARXA)) {
+                    throw new IllegalArgumentException("Paràmetre desconegut " + args[i]);
+                }
+                String[] xarxa = args[i].substring(XARXA.length()).split("=", 2);
+                if (xarxa.length != 2) {
+                    throw new IllegalArgumentException("Paràmetre erroni " + args[i]);
+                }
+                servidor.afegir(xarxa[0], Xarxa.carregar(Paths.get(xarxa[1])));
+            }
+            System.out.println("Be water, my friend - servidor al port " + servidor.port());
+            servidor.servir();
+        } catch (IOException e) {
+            System.out.println("Error amb el servidor: " + e.getMessage());
+        }
+    }
+
 }
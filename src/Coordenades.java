@@ -15,7 +15,14 @@ public class Coordenades {
     /** @invariant  -180 <= a_longitud <= 180 */
     private double a_longitud;///< Longitud de les coordenades
 
-    private static final int radiTerra = 6371;///< Radi de la Terra en kilòmetres
+    private double a_latitudRadiants;///< Latitud en radiants, precalculada
+    private double a_longitudRadiants;///< Longitud en radiants, precalculada
+    private double a_cosLatitud;///< Cosinus de la latitud, precalculat
+    private double a_x;///< Coordenada x del punt corresponent de l'esfera de radi 1
+    private double a_y;///< Coordenada y del punt corresponent de l'esfera de radi 1
+    private double a_z;///< Coordenada z del punt corresponent de l'esfera de radi 1
+
+    static final int radiTerra = 6371;///< Radi de la Terra en kilòmetres
 
     /**
      * @brief Crea unes coordenades
@@ -45,6 +52,7 @@ public class Coordenades {
 
         a_latitud = latitudDecimal;
         a_longitud = longitudDecimal;
+        precalcular();
     }
 
     /**
@@ -62,6 +70,22 @@ public class Coordenades {
         }
         a_latitud=latitud;
         a_longitud=longitud;
+        precalcular();
+    }
+
+    /**
+     * @brief Precalcula la trigonometria
+     * @pre a_latitud i a_longitud ja tenen valor
+     * @post Els radiants, el cosinus de la latitud i el punt de l'esfera unitat queden calculats, perquè distancia
+     *       no els hagi de tornar a calcular a cada crida
+     */
+    private void precalcular(){
+        a_latitudRadiants=Math.toRadians(a_latitud);
+        a_longitudRadiants=Math.toRadians(a_longitud);
+        a_cosLatitud=Math.cos(a_latitudRadiants);
+        a_x=a_cosLatitud*Math.cos(a_longitudRadiants);
+        a_y=a_cosLatitud*Math.sin(a_longitudRadiants);
+        a_z=Math.sin(a_latitudRadiants);
     }
 
     /**
@@ -70,19 +94,15 @@ public class Coordenades {
      * @post Retorna la distància entre aquestes coordenades i c, expressada en km. Segons la fórmula de Haversine.
      */
     public double distancia(Coordenades c){
-        // Convertir les coordenades a radians
-        double lat1 = Math.toRadians(a_latitud);
-        double lon1 = Math.toRadians(a_longitud);
-        double lat2 = Math.toRadians(c.a_latitud);
-        double lon2 = Math.toRadians(c.a_longitud);
-
-        double deltaLat = lat2 - lat1;
-        double deltaLon = lon2 - lon1;
+        double deltaLat = c.a_latitudRadiants - a_latitudRadiants;
+        double deltaLon = c.a_longitudRadiants - a_longitudRadiants;
 
         // Calcular la distancia
-        double a = Math.pow(Math.sin(deltaLat / 2), 2) +
-                   Math.cos(lat1) * Math.cos(lat2) *
-                   Math.pow(Math.sin(deltaLon / 2), 2);
+        double sinLat = Math.sin(deltaLat / 2);
+        double sinLon = Math.sin(deltaLon / 2);
+        double a = (sinLat * sinLat) +
+                   a_cosLatitud * c.a_cosLatitud *
+                   (sinLon * sinLon);
         double cVal = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
         double distancia = radiTerra * cVal;
 
@@ -115,4 +135,31 @@ public class Coordenades {
     public double getLongitud() {
         return a_longitud;
     }
+
+    /**
+     * @brief Coordenada x del punt de l'esfera unitat
+     * @pre cert
+     * @post Retorna cos(latitud)·cos(longitud)
+     */
+    double x() {
+        return a_x;
+    }
+
+    /**
+     * @brief Coordenada y del punt de l'esfera unitat
+     * @pre cert
+     * @post Retorna cos(latitud)·sin(longitud)
+     */
+    double y() {
+        return a_y;
+    }
+
+    /**
+     * @brief Coordenada z del punt de l'esfera unitat
+     * @pre cert
+     * @post Retorna sin(latitud)
+     */
+    double z() {
+        return a_z;
+    }
 }
@@ -0,0 +1,161 @@
+/** @file DetectorCicles.java
+    @brief Classe DetectorCicles
+*/
+
+/** @class DetectorCicles
+    @brief Troba les components fortament connexes d'una component connexa d'una xarxa, amb l'algorisme de Tarjan iteratiu,
+           en temps lineal respecte el nombre de nodes i canonades de la component. Els nodes es numeren dins la component,
+           de manera que l'espai tampoc depèn de la mida de la resta de la xarxa.
+    @author Andy Moreno Ramon
+*/
+
+import java.util.*;
+
+public class DetectorCicles {
+    private final GrafCompacte graf; ///< Graf on es troba la component
+    private final Map<Integer, Integer> locals; ///< Índex dins la component de cada node de la component
+    private final int[] numeroComponent; ///< Número de component fortament connexa de cada índex local + 1, 0 si encara no en té
+    private final List<int[]> ambCicles; ///< Components fortament connexes que contenen algun cicle, en ordre de descobriment
+    private final BitSet ambBucle; ///< Índexs locals dels nodes amb una canonada cap a ells mateixos
+
+    /**
+     * @brief Analitza una component connexa
+     * @pre 0 <= \p node < graf.nombreNodes()
+     * @post S'han calculat les components fortament connexes dels nodes de la component connexa de \p node
+     */
+    public DetectorCicles(GrafCompacte graf, int node){
+        this.graf=graf;
+        int mida=graf.midaComponent(node);
+        locals=new HashMap<>(mida*2);
+        for(int i=0, v=node; i<mida; i++, v=graf.seguentMembre(v)){
+            locals.put(v, i);
+        }
+        numeroComponent=new int[mida];
+        ambCicles=new ArrayList<>();
+        ambBucle=new BitSet();
+
+        int[] ordre=new int[mida]; //ordre de descobriment + 1 de cada índex local, 0 si no s'ha visitat
+        int[] baix=new int[mida]; //ordre de descobriment més petit al qual s'arriba des del subarbre
+        int[] pilaTarjan=new int[mida];
+        int[] pilaCrides=new int[mida];
+        int[] posicio=new int[mida]; //següent sortida a explorar de cada node de pilaCrides
+        int cimTarjan=0;
+        int comptador=0;
+        int nComponents=0;
+        int arrel=node;
+        for(int i=0; i<mida; i++, arrel=graf.seguentMembre(arrel)){ //i és l'índex local d'arrel
+            if(ordre[i]!=0){
+                continue;
+            }
+            int cim=0;
+            pilaCrides[cim]=arrel;
+            posicio[cim]=0;
+            ordre[i]=baix[i]=++comptador;
+            pilaTarjan[cimTarjan++]=arrel;
+            while(cim>=0){
+                int v=pilaCrides[cim];
+                int lv=locals.get(v);
+                if(posicio[cim]<graf.grauSortida(v)){
+                    int w=graf.desti(graf.sortida(v, posicio[cim]++));
+                    int lw=locals.get(w);
+                    if(w==v){
+                        ambBucle.set(lv);
+                    }
+                    if(ordre[lw]==0){ //visitem w
+                        ordre[lw]=baix[lw]=++comptador;
+                        pilaTarjan[cimTarjan++]=w;
+                        cim++;
+                        pilaCrides[cim]=w;
+                        posicio[cim]=0;
+                    }
+                    else if(numeroComponent[lw]==0){ //w encara és a la pila de Tarjan
+                        baix[lv]=Math.min(baix[lv], ordre[lw]);
+                    }
+                }
+                else{ //hem acabat amb v
+                    cim--;
+                    if(cim>=0){
+                        int pare=locals.get(pilaCrides[cim]);
+                        baix[pare]=Math.min(baix[pare], baix[lv]);
+                    }
+                    if(baix[lv]==ordre[lv]){ //v és l'arrel d'una component fortament connexa
+                        nComponents++;
+                        int inici=cimTarjan;
+                        do{
+                            inici--;
+                            numeroComponent[locals.get(pilaTarjan[inici])]=nComponents;
+                        }while(pilaTarjan[inici]!=v);
+                        if(cimTarjan-inici>1 || ambBucle.get(lv)){
+                            ambCicles.add(Arrays.copyOfRange(pilaTarjan, inici, cimTarjan));
+                        }
+                        cimTarjan=inici;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Diu si la component té cicles
+     * @pre cert
+     * @post Retorna cert si alguna component fortament connexa té més d'un node o una canonada cap a ella mateixa
+     */
+    public boolean teCicles(){
+        return !ambCicles.isEmpty();
+    }
+
+    /**
+     * @brief Components fortament connexes amb cicles
+     * @pre cert
+     * @post Retorna els índexs dels nodes de cada component fortament connexa que conté algun cicle
+     */
+    public List<int[]> componentsAmbCicles(){
+        return Collections.unmodifiableList(ambCicles);
+    }
+
+    /**
+     * @brief Un cicle de la component
+     * @pre cert
+     * @post Si la component té cicles retorna els índexs dels nodes d'un d'ells, en l'ordre en què els recorre l'aigua
+     *       i començant pel primer node de la primera component fortament connexa amb cicles (l'últim node té una canonada
+     *       cap al primer). Altrament retorna un vector buit.
+     */
+    public int[] cicle(){
+        if(ambCicles.isEmpty()){
+            return new int[0];
+        }
+        int[] scc=ambCicles.get(0);
+        int inici=scc[0];
+        if(scc.length==1 && ambBucle.get(locals.get(inici))){
+            return new int[]{inici};
+        }
+        //recorregut en amplada des d'inici dins la component fins a trobar una canonada que hi torni
+        int numero=numeroComponent[locals.get(inici)];
+        Map<Integer, Integer> anterior=new HashMap<>();
+        Deque<Integer> pendents=new ArrayDeque<>();
+        pendents.add(inici);
+        anterior.put(inici, -1);
+        while(!pendents.isEmpty()){
+            int v=pendents.poll();
+            for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                int w=graf.desti(graf.sortida(v, k));
+                if(w==inici){
+                    List<Integer> cami=new ArrayList<>();
+                    for(int x=v; x!=-1; x=anterior.get(x)){
+                        cami.add(x);
+                    }
+                    int[] cicle=new int[cami.size()];
+                    for(int i=0; i<cicle.length; i++){
+                        cicle[i]=cami.get(cicle.length-1-i);
+                    }
+                    return cicle;
+                }
+                if(numeroComponent[locals.get(w)]==numero && !anterior.containsKey(w)){
+                    anterior.put(w, v);
+                    pendents.add(w);
+                }
+            }
+        }
+        return new int[0]; //no passa mai: una component fortament connexa amb més d'un node sempre té un cicle per cada node
+    }
+}
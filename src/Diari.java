@@ -0,0 +1,746 @@
+/** @file Diari.java
+    @brief Classe Diari
+*/
+
+/** @class Diari
+    @brief Diari binari, només d'afegir, de les modificacions d'una Xarxa, perquè es puguin recuperar si el procés
+           s'atura de cop.
+
+           Cada modificació és un registre amb la mida del contingut (4 bytes), el CRC32 del contingut (4 bytes) i el
+           contingut: el tipus de modificació (1 byte) i els seus paràmetres. Els registres s'acumulen en memòria i un fil
+           dedicat els escriu i fa fsync de tots els pendents de cop (group commit):
+           - SINCRONA: cada modificació espera que el seu registre sigui a disc, però les que arriben mentre es fa un
+             fsync comparteixen el següent.
+           - DIFERIDA: les modificacions no esperen, i els registres es porten a disc com a molt cada INTERVAL mil·lisegons.
+
+           Al directori del diari hi ha, per cada generació g, una instantània (instantania-g.bwx) amb l'estat de la
+           xarxa en començar la generació i el diari (diari-g.log) de les modificacions posteriors. Un punt de control
+           escriu la instantània de la generació següent i hi comença un diari nou, de manera que la recuperació només ha
+           de carregar l'última instantània i reproduir la cua del seu diari, fins al primer registre incomplet o malmès.
+    @author Miquel Coll Barneto
+*/
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+import java.util.zip.CRC32;
+
+public class Diari {
+    /** @brief Quan es considera que una modificació ja és a disc */
+    public enum Durabilitat {
+        SINCRONA, ///< Cada modificació espera el fsync del seu registre
+        DIFERIDA ///< Les modificacions no esperen, i es fa fsync com a molt cada INTERVAL mil·lisegons
+    }
+
+    public static final long INTERVAL = 50; ///< Temps màxim entre fsyncs amb durabilitat DIFERIDA, en mil·lisegons
+    public static final long MIDA_PUNT_CONTROL = 64L << 20; ///< Mida del diari a partir de la qual la xarxa fa un punt de control
+
+    private static final byte ORIGEN = 1; ///< Registre d'afegir un origen
+    private static final byte TERMINAL = 2; ///< Registre d'afegir un terminal
+    private static final byte CONNEXIO = 3; ///< Registre d'afegir una connexió
+    private static final byte CONNECTAR = 4; ///< Registre de connectar dos nodes
+    private static final byte ABONAR = 5; ///< Registre d'abonar clients a terminals
+    private static final byte OBRIR = 6; ///< Registre d'obrir una aixeta
+    private static final byte TANCAR = 7; ///< Registre de tancar una aixeta
+    private static final byte RECULAR = 8; ///< Registre de recular operacions de l'historial
+    private static final byte CABAL = 9; ///< Registre d'establir el cabal d'un origen
+    private static final byte DEMANDA = 10; ///< Registre d'establir la demanda d'un terminal
+    private static final byte REFER = 11; ///< Registre de refer operacions de l'historial
+    private static final byte PROFUNDITAT = 12; ///< Registre de canviar la profunditat de l'historial
+
+    private final Path directori; ///< Directori de les instantànies i els diaris
+    private final Durabilitat durabilitat; ///< Quan es considera que una modificació ja és a disc
+    private final ReentrantLock candau; ///< Exclusió mútua sobre els registres pendents i els comptadors
+    private final Condition pendents; ///< Avisa el fil escriptor que hi ha registres pendents
+    private final Condition escrits; ///< Avisa les modificacions que esperen que hi ha registres nous a disc
+    private ByteArrayOutputStream buffer; ///< Registres pendents d'escriure
+    private FileChannel canal; ///< Diari de la generació actual
+    private Thread escriptor; ///< Fil que escriu i fa fsync dels registres pendents
+    private int generacio; ///< Generació actual
+    private long acceptats; ///< Bytes de registres acceptats a la generació actual, escrits o no
+    private long durables; ///< Bytes de registres de la generació actual que ja són a disc
+    private IOException error; ///< Primer error del fil escriptor, o null
+    private boolean tancat; ///< Cert si el diari s'ha tancat
+
+    /**
+     * @brief Crea un diari
+     * @pre \p directori existeix
+     * @post Crea un diari sobre \p directori, sense cap generació oberta
+     */
+    private Diari(Path directori, Durabilitat durabilitat){
+        this.directori=directori;
+        this.durabilitat=durabilitat;
+        candau=new ReentrantLock();
+        pendents=candau.newCondition();
+        escrits=candau.newCondition();
+        buffer=new ByteArrayOutputStream();
+    }
+
+    /**
+     * @brief Recupera una xarxa
+     * @pre cert
+     * @post Retorna la xarxa amb l'estat de l'última modificació registrada a \p directori (buida si no n'hi ha cap),
+     *       que continua registrant les seves modificacions en el mateix directori. Si la recuperació ha descartat
+     *       registres incomplets o malmesos al final del diari, s'han tret del fitxer.
+     * @throws IOException si no es poden llegir o escriure els fitxers
+     * @throws IllegalStateException si el diari no es pot reproduir sobre la seva instantània
+     */
+    static Xarxa recuperar(Path directori, Durabilitat durabilitat) throws IOException {
+        Files.createDirectories(directori);
+        int generacio=-1;
+        try(DirectoryStream<Path> fitxers=Files.newDirectoryStream(directori, "instantania-*.bwx")){
+            for(Path fitxer : fitxers){
+                String nom=fitxer.getFileName().toString();
+                try{
+                    generacio=Math.max(generacio, Integer.parseInt(nom.substring(12, nom.length()-4)));
+                }
+                catch(NumberFormatException e){
+                    //no és una instantània del diari
+                }
+            }
+        }
+        Diari diari=new Diari(directori, durabilitat);
+        if(generacio<0){ //directori nou
+            Xarxa x=new Xarxa();
+            diari.puntDeControl(x, 0);
+            x.establirDiari(diari);
+            return x;
+        }
+        Xarxa x=Xarxa.carregar(instantania(directori, generacio));
+        Path fitxer=diari(directori, generacio);
+        long valids=Files.exists(fitxer) ? reproduir(fitxer, x) : 0;
+        diari.obrir(generacio, valids);
+        x.establirDiari(diari);
+        return x;
+    }
+
+    /**
+     * @brief Comença a registrar una xarxa
+     * @pre cert
+     * @post Retorna un diari sobre \p directori que comença amb una instantània de l'estat actual de \p x, en una
+     *       generació posterior a totes les que hi hagi al directori
+     * @throws IOException si no es poden escriure els fitxers
+     */
+    static Diari adjuntar(Xarxa x, Path directori, Durabilitat durabilitat) throws IOException {
+        Files.createDirectories(directori);
+        int generacio=0;
+        try(DirectoryStream<Path> fitxers=Files.newDirectoryStream(directori, "*-*.*")){
+            for(Path fitxer : fitxers){
+                String nom=fitxer.getFileName().toString();
+                int guio=nom.lastIndexOf('-');
+                int punt=nom.lastIndexOf('.');
+                try{
+                    if(guio>=0 && punt>guio){
+                        generacio=Math.max(generacio, Integer.parseInt(nom.substring(guio+1, punt))+1);
+                    }
+                }
+                catch(NumberFormatException e){
+                    //no és un fitxer del diari
+                }
+            }
+        }
+        Diari diari=new Diari(directori, durabilitat);
+        diari.puntDeControl(x, generacio);
+        return diari;
+    }
+
+    /**
+     * @brief Fitxer d'instantània d'una generació
+     * @pre cert
+     * @post Retorna el camí de la instantània de la generació \p generacio a \p directori
+     */
+    private static Path instantania(Path directori, int generacio){
+        return directori.resolve("instantania-" + generacio + ".bwx");
+    }
+
+    /**
+     * @brief Fitxer de diari d'una generació
+     * @pre cert
+     * @post Retorna el camí del diari de la generació \p generacio a \p directori
+     */
+    private static Path diari(Path directori, int generacio){
+        return directori.resolve("diari-" + generacio + ".log");
+    }
+
+    /**
+     * @brief Punt de control
+     * @pre Totes les modificacions de \p x fins ara ja s'han registrat
+     * @post S'ha escrit la instantània de \p x de la generació següent, s'hi ha començat un diari nou i s'han esborrat
+     *       els fitxers de les generacions anteriors
+     * @throws IOException si no es poden escriure els fitxers
+     */
+    void puntDeControl(Xarxa x) throws IOException {
+        puntDeControl(x, generacio+1);
+    }
+
+    /**
+     * @brief Punt de control a una generació
+     * @pre \p generacio és més gran que totes les del directori, o el directori no té cap generació
+     * @post S'ha escrit la instantània de \p x de la generació \p generacio, s'hi ha començat un diari buit i s'han
+     *       esborrat els fitxers de les generacions anteriors
+     */
+    private void puntDeControl(Xarxa x, int generacio) throws IOException {
+        if(canal!=null){
+            tancarGeneracio();
+        }
+        //la instantània es mou al seu lloc un cop escrita sencera: fins aleshores la recuperació usa l'anterior
+        x.desarInstantania(instantania(directori, generacio));
+        Files.deleteIfExists(diari(directori, generacio));
+        obrir(generacio, 0);
+        esborrarAnteriors(generacio);
+    }
+
+    /**
+     * @brief Esborra les generacions anteriors
+     * @pre La generació \p generacio ja té la instantània escrita
+     * @post S'han esborrat del directori les instantànies i els diaris de les generacions anteriors a \p generacio
+     */
+    private void esborrarAnteriors(int generacio) throws IOException {
+        try(DirectoryStream<Path> fitxers=Files.newDirectoryStream(directori, "{instantania,diari}-*.{bwx,log}")){
+            for(Path fitxer : fitxers){
+                String nom=fitxer.getFileName().toString();
+                try{
+                    if(Integer.parseInt(nom.substring(nom.indexOf('-')+1, nom.lastIndexOf('.')))<generacio){
+                        Files.delete(fitxer);
+                    }
+                }
+                catch(NumberFormatException e){
+                    //no és un fitxer del diari
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Obre el diari d'una generació
+     * @pre El diari de la generació \p generacio no existeix o els seus primers \p valids bytes són registres correctes
+     * @post El diari de la generació \p generacio està obert per afegir-hi registres després dels \p valids primers bytes,
+     *       i el fil escriptor està engegat
+     */
+    private void obrir(int generacio, long valids) throws IOException {
+        canal=FileChannel.open(diari(directori, generacio), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        canal.truncate(valids);
+        canal.position(valids);
+        canal.force(true);
+        this.generacio=generacio;
+        acceptats=valids;
+        durables=valids;
+        escriptor=new Thread(this::escriureRegistres, "diari-" + generacio);
+        escriptor.setDaemon(true);
+        escriptor.start();
+    }
+
+    /**
+     * @brief Tanca la generació actual
+     * @pre Hi ha una generació oberta
+     * @post Tots els registres acceptats són a disc, el fil escriptor ha acabat i el diari de la generació està tancat
+     * @throws IOException si el fil escriptor ha tingut un error
+     */
+    private void tancarGeneracio() throws IOException {
+        candau.lock();
+        try{
+            tancat=true;
+            pendents.signal();
+        }
+        finally{
+            candau.unlock();
+        }
+        boolean interromput=false;
+        while(escriptor.isAlive()){
+            try{
+                escriptor.join();
+            }
+            catch(InterruptedException e){
+                interromput=true;
+            }
+        }
+        if(interromput){
+            Thread.currentThread().interrupt();
+        }
+        canal.close();
+        canal=null;
+        tancat=false;
+        if(error!=null){
+            throw error;
+        }
+    }
+
+    /**
+     * @brief Tanca el diari
+     * @pre cert
+     * @post Tots els registres acceptats són a disc i el diari està tancat. Si ja ho estava no fa res.
+     * @throws IOException si el fil escriptor ha tingut un error
+     */
+    void tancar() throws IOException {
+        if(canal!=null){
+            tancarGeneracio();
+        }
+    }
+
+    /**
+     * @brief Mida del diari
+     * @pre cert
+     * @post Retorna el nombre de bytes de registres de la generació actual
+     */
+    long mida(){
+        candau.lock();
+        try{
+            return acceptats;
+        }
+        finally{
+            candau.unlock();
+        }
+    }
+
+    /**
+     * @brief Bucle del fil escriptor
+     * @pre cert
+     * @post Ha escrit i portat a disc tots els registres pendents fins que s'ha tancat la generació. Si hi ha un error
+     *       es guarda i el fil acaba.
+     */
+    private void escriureRegistres(){
+        long ultim=System.nanoTime()-TimeUnit.MILLISECONDS.toNanos(INTERVAL); //inici de l'últim fsync
+        while(true){
+            byte[] bloc;
+            long fins;
+            boolean acabar;
+            candau.lock();
+            try{
+                //amb durabilitat DIFERIDA, com a molt un fsync per interval; amb SINCRONA, tan aviat com hi ha registres
+                long limit=durabilitat==Durabilitat.DIFERIDA ? ultim+TimeUnit.MILLISECONDS.toNanos(INTERVAL) : ultim;
+                while(!tancat && (buffer.size()==0 || System.nanoTime()-limit<0)){
+                    try{
+                        if(buffer.size()==0){
+                            pendents.await();
+                        }
+                        else{
+                            pendents.awaitNanos(limit-System.nanoTime());
+                        }
+                    }
+                    catch(InterruptedException e){
+                        //només s'acaba quan es tanca, perquè no es perdin registres
+                    }
+                }
+                bloc=buffer.toByteArray();
+                buffer.reset();
+                fins=acceptats;
+                acabar=tancat;
+            }
+            finally{
+                candau.unlock();
+            }
+            if(bloc.length>0){
+                ultim=System.nanoTime();
+                try{
+                    ByteBuffer b=ByteBuffer.wrap(bloc);
+                    while(b.hasRemaining()){
+                        canal.write(b);
+                    }
+                    canal.force(false);
+                }
+                catch(IOException e){
+                    candau.lock();
+                    try{
+                        error=e;
+                        escrits.signalAll();
+                    }
+                    finally{
+                        candau.unlock();
+                    }
+                    return;
+                }
+                candau.lock();
+                try{
+                    durables=fins;
+                    escrits.signalAll();
+                }
+                finally{
+                    candau.unlock();
+                }
+            }
+            if(acabar){
+                return;
+            }
+        }
+    }
+
+    /**
+     * @brief Registra una modificació
+     * @pre \p contingut és el contingut d'un registre
+     * @post El registre s'ha afegit al diari. Amb durabilitat SINCRONA, ja és a disc.
+     * @throws UncheckedIOException si el diari no es pot escriure
+     */
+    private void registrar(ByteArrayOutputStream contingut){
+        CRC32 crc=new CRC32();
+        byte[] bytes=contingut.toByteArray();
+        crc.update(bytes);
+        candau.lock();
+        try{
+            if(error!=null){
+                throw new UncheckedIOException("No es pot escriure el diari", error);
+            }
+            escriureEnter(buffer, bytes.length);
+            escriureEnter(buffer, (int)crc.getValue());
+            buffer.write(bytes, 0, bytes.length);
+            acceptats+=8+bytes.length;
+            long meu=acceptats;
+            pendents.signal();
+            if(durabilitat==Durabilitat.SINCRONA){
+                boolean interromput=false;
+                while(durables<meu && error==null){
+                    try{
+                        escrits.await();
+                    }
+                    catch(InterruptedException e){
+                        interromput=true;
+                    }
+                }
+                if(interromput){
+                    Thread.currentThread().interrupt();
+                }
+                if(error!=null){
+                    throw new UncheckedIOException("No es pot escriure el diari", error);
+                }
+            }
+        }
+        finally{
+            candau.unlock();
+        }
+    }
+
+    /**
+     * @brief Escriu un enter de 4 bytes
+     * @pre cert
+     * @post S'ha escrit \p valor a \p out en big endian
+     */
+    private static void escriureEnter(ByteArrayOutputStream out, int valor){
+        out.write(valor>>>24);
+        out.write(valor>>>16);
+        out.write(valor>>>8);
+        out.write(valor);
+    }
+
+    /**
+     * @brief Comença un registre
+     * @pre cert
+     * @post Retorna un flux on s'escriu el contingut d'un registre, que comença amb \p tipus
+     */
+    private static DataOutputStream registre(ByteArrayOutputStream contingut, byte tipus){
+        DataOutputStream out=new DataOutputStream(contingut);
+        contingut.write(tipus);
+        return out;
+    }
+
+    /**
+     * @brief Escriu un text en un registre
+     * @pre cert
+     * @post S'ha escrit la mida en bytes de \p text en UTF-8 i els seus bytes
+     */
+    private static void escriureText(DataOutputStream out, String text) throws IOException {
+        byte[] bytes=text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * @brief Llegeix un text d'un registre
+     * @pre El següent camp de \p in és un text escrit amb escriureText
+     * @post Retorna el text
+     */
+    private static String llegirText(DataInputStream in) throws IOException {
+        byte[] bytes=new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @brief Registra que s'ha afegit un node
+     * @pre \p n s'acaba d'afegir a la xarxa
+     * @post S'ha registrat el node amb el seu tipus, coordenades i estat
+     */
+    void afegir(Nodo n){
+        ByteArrayOutputStream contingut=new ByteArrayOutputStream();
+        byte tipus=n instanceof Origen ? ORIGEN : n instanceof Terminal ? TERMINAL : CONNEXIO;
+        try(DataOutputStream out=registre(contingut, tipus)){
+            escriureText(out, n.id());
+            out.writeDouble(n.coordenades().getLatitud());
+            out.writeDouble(n.coordenades().getLongitud());
+            out.writeBoolean(n.aixetaOberta());
+            if(n instanceof Origen){
+                out.writeFloat(((Origen)n).cabal());
+            }
+            else if(n instanceof Terminal){
+                Terminal t=(Terminal)n;
+                out.writeFloat(t.demandaPunta());
+                out.writeFloat(t.demandaActual());
+                out.writeInt(t.abonats().size());
+                for(String client : t.abonats()){
+                    escriureText(out, client);
+                }
+            }
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e); //no passa mai escrivint a memòria
+        }
+        registrar(contingut);
+    }
+
+    /**
+     * @brief Registra que s'han connectat dos nodes
+     * @pre S'acaba de connectar \p font amb \p desti
+     * @post S'ha registrat la connexió amb la seva capacitat
+     */
+    void connectar(String font, String desti, float capacitat){
+        ByteArrayOutputStream contingut=new ByteArrayOutputStream();
+        try(DataOutputStream out=registre(contingut, CONNECTAR)){
+            escriureText(out, font);
+            escriureText(out, desti);
+            out.writeFloat(capacitat);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        registrar(contingut);
+    }
+
+    /**
+     * @brief Registra que s'han abonat clients
+     * @pre S'acaba d'abonar cada client de \p clients al terminal corresponent de \p terminals
+     * @post S'han registrat tots els abonaments en un sol registre
+     */
+    void abonar(List<String> clients, List<String> terminals){
+        ByteArrayOutputStream contingut=new ByteArrayOutputStream();
+        try(DataOutputStream out=registre(contingut, ABONAR)){
+            out.writeInt(clients.size());
+            for(int i=0; i<clients.size(); i++){
+                escriureText(out, clients.get(i));
+                escriureText(out, terminals.get(i));
+            }
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        registrar(contingut);
+    }
+
+    /**
+     * @brief Registra una operació sobre una aixeta
+     * @pre S'acaba d'obrir (si \p oberta) o tancar l'aixeta del node \p id
+     * @post S'ha registrat l'operació
+     */
+    void aixeta(String id, boolean oberta){
+        ByteArrayOutputStream contingut=new ByteArrayOutputStream();
+        try(DataOutputStream out=registre(contingut, oberta ? OBRIR : TANCAR)){
+            escriureText(out, id);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        registrar(contingut);
+    }
+
+    /**
+     * @brief Registra que s'ha reculat
+     * @pre S'acaba de recular \p nPassos passos
+     * @post S'ha registrat l'operació
+     */
+    void recular(int nPassos){
+        enter(RECULAR, nPassos);
+    }
+
+    /**
+     * @brief Registra que s'ha refet
+     * @pre S'acaba de refer \p nPassos passos
+     * @post S'ha registrat l'operació
+     */
+    void refer(int nPassos){
+        enter(REFER, nPassos);
+    }
+
+    /**
+     * @brief Registra que ha canviat la profunditat de l'historial
+     * @pre La profunditat de l'historial acaba de passar a ser \p profunditat
+     * @post S'ha registrat l'operació
+     */
+    void profunditat(int profunditat){
+        enter(PROFUNDITAT, profunditat);
+    }
+
+    /**
+     * @brief Registra una operació amb un enter
+     * @pre cert
+     * @post S'ha registrat un registre de tipus \p tipus amb \p valor com a únic paràmetre
+     */
+    private void enter(byte tipus, int valor){
+        ByteArrayOutputStream contingut=new ByteArrayOutputStream();
+        try(DataOutputStream out=registre(contingut, tipus)){
+            out.writeInt(valor);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        registrar(contingut);
+    }
+
+    /**
+     * @brief Registra un cabal o una demanda
+     * @pre S'acaba d'establir el cabal (si \p cabal) o la demanda del node \p id a \p valor
+     * @post S'ha registrat l'operació
+     */
+    void valor(String id, boolean cabal, float valor){
+        ByteArrayOutputStream contingut=new ByteArrayOutputStream();
+        try(DataOutputStream out=registre(contingut, cabal ? CABAL : DEMANDA)){
+            escriureText(out, id);
+            out.writeFloat(valor);
+        }
+        catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        registrar(contingut);
+    }
+
+    /**
+     * @brief Reprodueix un diari
+     * @pre \p x té l'estat de la instantània de la generació de \p fitxer i no té diari
+     * @post S'han aplicat a \p x els registres de \p fitxer en ordre, fins al final o fins al primer registre incomplet
+     *       o amb un CRC incorrecte. Retorna el nombre de bytes de registres aplicats.
+     * @throws IllegalStateException si un registre correcte no es pot aplicar
+     */
+    private static long reproduir(Path fitxer, Xarxa x) throws IOException {
+        long valids=0;
+        try(DataInputStream in=new DataInputStream(new BufferedInputStream(Files.newInputStream(fitxer), 1 << 16))){
+            while(true){
+                int mida;
+                int crcDesat;
+                byte[] bytes;
+                try{
+                    mida=in.readInt();
+                    crcDesat=in.readInt();
+                    if(mida<=0 || mida>MIDA_PUNT_CONTROL*2){
+                        break;
+                    }
+                    bytes=new byte[mida];
+                    in.readFully(bytes);
+                }
+                catch(EOFException e){
+                    break; //registre incomplet: el procés es va aturar mentre l'escrivia
+                }
+                CRC32 crc=new CRC32();
+                crc.update(bytes);
+                if((int)crc.getValue()!=crcDesat){
+                    break;
+                }
+                try{
+                    aplicar(new DataInputStream(new ByteArrayInputStream(bytes)), x);
+                }
+                catch(RuntimeException | IOException e){
+                    throw new IllegalStateException("El diari " + fitxer + " no es pot reproduir a partir del byte " + valids, e);
+                }
+                valids+=8+mida;
+            }
+        }
+        return valids;
+    }
+
+    /**
+     * @brief Aplica un registre
+     * @pre \p in és el contingut d'un registre correcte
+     * @post S'ha aplicat a \p x la modificació del registre
+     */
+    private static void aplicar(DataInputStream in, Xarxa x) throws IOException {
+        byte tipus=in.readByte();
+        switch(tipus){
+            case ORIGEN:
+            case TERMINAL:
+            case CONNEXIO:{
+                String id=llegirText(in);
+                Coordenades c=new Coordenades(in.readDouble(), in.readDouble());
+                boolean oberta=in.readBoolean();
+                Nodo n;
+                if(tipus==ORIGEN){
+                    Origen o=new Origen(id, c);
+                    o.establirCabal(in.readFloat());
+                    n=o;
+                }
+                else if(tipus==TERMINAL){
+                    Terminal t=new Terminal(id, c, in.readFloat());
+                    t.establirDemandaActual(in.readFloat());
+                    for(int i=in.readInt(); i>0; i--){
+                        t.nouAbonat(llegirText(in));
+                    }
+                    n=t;
+                }
+                else{
+                    n=new Connexio(id, c);
+                }
+                if(!oberta){
+                    n.tancarAixeta();
+                }
+                if(n instanceof Origen){
+                    x.afegir((Origen)n);
+                }
+                else if(n instanceof Terminal){
+                    x.afegir((Terminal)n);
+                }
+                else{
+                    x.afegir((Connexio)n);
+                }
+                break;
+            }
+            case CONNECTAR:
+                x.connectarAmbCanonada(x.node(llegirText(in)), x.node(llegirText(in)), in.readFloat());
+                break;
+            case ABONAR:{
+                int n=in.readInt();
+                List<String> clients=new ArrayList<>(n);
+                List<String> terminals=new ArrayList<>(n);
+                for(int i=0; i<n; i++){
+                    clients.add(llegirText(in));
+                    terminals.add(llegirText(in));
+                }
+                x.abonar(clients, terminals);
+                break;
+            }
+            case OBRIR:
+                x.obrirAixeta(x.node(llegirText(in)));
+                break;
+            case TANCAR:
+                x.tancarAixeta(x.node(llegirText(in)));
+                break;
+            case RECULAR:
+                x.recular(in.readInt());
+                break;
+            case REFER:
+                x.refer(in.readInt());
+                break;
+            case PROFUNDITAT:
+                x.establirProfunditatHistorial(in.readInt());
+                break;
+            case CABAL:{
+                String id=llegirText(in);
+                Nodo n=x.node(id);
+                if(!(n instanceof Origen)){ //establirCabal només registra cabals d'orígens
+                    throw new IllegalStateException("Registre de cabal d'un node que no és un origen " + id);
+                }
+                x.establirCabal((Origen)n, in.readFloat());
+                break;
+            }
+            case DEMANDA:{
+                String id=llegirText(in);
+                Nodo n=x.node(id);
+                if(!(n instanceof Terminal)){
+                    throw new IllegalStateException("Registre de demanda d'un node que no és un terminal " + id);
+                }
+                x.establirDemanda((Terminal)n, in.readFloat());
+                break;
+            }
+            default:
+                throw new IllegalStateException("Tipus de registre desconegut " + tipus);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/** @file EscriptorResultats.java
+    @brief Classe EscriptorResultats
+*/
+
+/** @class EscriptorResultats
+    @brief Writer que acumula el text en blocs i l'escriu al Writer de destí des d'un fil dedicat, alimentat per una cua
+           acotada, de manera que el càlcul no s'espera mai a disc (excepte si la cua és plena). El text s'escriu
+           en el mateix ordre en què s'ha rebut.
+
+           La política de buidat indica quan s'envia el text al destí:
+           - MIDA: cada cop que s'acumula un bloc sencer.
+           - TEMPS: també, com a molt, cada cert temps encara que el bloc no sigui ple.
+           - FINAL: només en tancar (els blocs plens es passen al destí però no se li demana que els buidi).
+    @author Miquel Coll Barneto
+*/
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class EscriptorResultats extends Writer {
+    /** @brief Quan s'envia el text al destí */
+    public enum Buidat {
+        MIDA, ///< Cada cop que s'omple un bloc
+        TEMPS, ///< Cada cop que s'omple un bloc o passa l'interval de temps
+        FINAL ///< Només en tancar
+    }
+
+    public static final int MIDA_BLOC = 1 << 16; ///< Mida per defecte d'un bloc, en caràcters
+    public static final long INTERVAL = 200; ///< Interval per defecte de la política TEMPS, en mil·lisegons
+    private static final int CAPACITAT_CUA = 16; ///< Nombre màxim de blocs pendents d'escriure
+
+    private static final StringBuilder BUIDAR = new StringBuilder(); ///< Marca de la cua que demana buidar el destí
+    private static final StringBuilder FI = new StringBuilder(); ///< Marca de la cua que indica que no hi haurà més text
+
+    private final Writer desti; ///< Writer on s'escriu el text
+    private final Buidat politica; ///< Política de buidat
+    private final int midaBloc; ///< Mida a partir de la qual un bloc s'envia al fil escriptor
+    private final long interval; ///< Interval màxim entre buidats amb la política TEMPS, en mil·lisegons
+    private final BlockingQueue<StringBuilder> cua; ///< Blocs pendents d'escriure, en ordre
+    private final Thread escriptor; ///< Fil que escriu els blocs al destí
+    private final Thread tancament; ///< Fil que tanca l'escriptor si la màquina virtual s'atura abans
+    private final ReentrantLock candau; ///< Exclusió mútua sobre el bloc que s'està omplint i l'ordre d'entrada a la cua
+    private StringBuilder bloc; ///< Bloc que s'està omplint
+    private volatile IOException error; ///< Primer error d'escriptura del fil escriptor, o null
+    private boolean tancat; ///< Cert si ja s'ha tancat
+
+    /**
+     * @brief Crea un escriptor amb la mida de bloc i l'interval per defecte
+     * @pre \p desti no és nul
+     * @post Crea un escriptor que escriu a \p desti amb la política \p politica, i engega el seu fil
+     */
+    public EscriptorResultats(Writer desti, Buidat politica){
+        this(desti, politica, MIDA_BLOC, INTERVAL);
+    }
+
+    /**
+     * @brief Crea un escriptor
+     * @pre \p desti no és nul, \p midaBloc > 0 i \p interval > 0
+     * @post Crea un escriptor que escriu a \p desti amb la política \p politica, blocs de \p midaBloc caràcters
+     *       i, amb la política TEMPS, un buidat com a mínim cada \p interval mil·lisegons. Engega el seu fil, i si la
+     *       màquina virtual s'atura abans de tancar-lo, es tanca igualment escrivint tot el text pendent.
+     */
+    public EscriptorResultats(Writer desti, Buidat politica, int midaBloc, long interval){
+        this.desti=desti;
+        this.politica=politica;
+        this.midaBloc=midaBloc;
+        this.interval=interval;
+        cua=new ArrayBlockingQueue<>(CAPACITAT_CUA);
+        candau=new ReentrantLock();
+        bloc=new StringBuilder();
+        escriptor=new Thread(this::escriureBlocs, "escriptor-resultats");
+        escriptor.setDaemon(true);
+        escriptor.start();
+        tancament=new Thread(() -> {
+            try{
+                close();
+            }
+            catch(IOException e){
+                e.printStackTrace();
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(tancament);
+    }
+
+    /**
+     * @brief Escriu caràcters
+     * @pre L'escriptor no està tancat
+     * @post Els caràcters s'han afegit al bloc actual, que s'ha enviat al fil escriptor si ha arribat a la mida de bloc
+     * @throws IOException si l'escriptor està tancat o el fil escriptor ha tingut un error
+     */
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        candau.lock();
+        try{
+            comprovar();
+            bloc.append(cbuf, off, len);
+            if(bloc.length()>=midaBloc){
+                enviar(bloc);
+                bloc=new StringBuilder();
+            }
+        }
+        finally{
+            candau.unlock();
+        }
+    }
+
+    /**
+     * @brief Escriu un text
+     * @pre L'escriptor no està tancat
+     * @post El text s'ha afegit al bloc actual, que s'ha enviat al fil escriptor si ha arribat a la mida de bloc
+     * @throws IOException si l'escriptor està tancat o el fil escriptor ha tingut un error
+     */
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        candau.lock();
+        try{
+            comprovar();
+            bloc.append(str, off, off+len);
+            if(bloc.length()>=midaBloc){
+                enviar(bloc);
+                bloc=new StringBuilder();
+            }
+        }
+        finally{
+            candau.unlock();
+        }
+    }
+
+    /**
+     * @brief Buida l'escriptor
+     * @pre L'escriptor no està tancat
+     * @post El bloc actual s'ha enviat al fil escriptor, que el passarà al destí i el buidarà, sense esperar que acabi
+     * @throws IOException si l'escriptor està tancat o el fil escriptor ha tingut un error
+     */
+    @Override
+    public void flush() throws IOException {
+        candau.lock();
+        try{
+            comprovar();
+            if(bloc.length()>0){
+                enviar(bloc);
+                bloc=new StringBuilder();
+            }
+            enviar(BUIDAR);
+        }
+        finally{
+            candau.unlock();
+        }
+    }
+
+    /**
+     * @brief Tanca l'escriptor
+     * @pre cert
+     * @post Tot el text rebut s'ha escrit al destí en ordre, el destí s'ha buidat i tancat i el fil escriptor ha acabat.
+     *       Si ja estava tancat no fa res.
+     * @throws IOException si el fil escriptor ha tingut un error
+     */
+    @Override
+    public void close() throws IOException {
+        candau.lock();
+        try{
+            if(tancat){
+                return;
+            }
+            tancat=true;
+            if(Thread.currentThread()!=tancament){
+                try{
+                    Runtime.getRuntime().removeShutdownHook(tancament);
+                }
+                catch(IllegalStateException e){
+                    //la màquina virtual ja s'està aturant: el fil de tancament trobarà l'escriptor tancat
+                }
+            }
+            if(bloc.length()>0){
+                enviar(bloc);
+                bloc=new StringBuilder();
+            }
+            enviar(FI);
+        }
+        finally{
+            candau.unlock();
+        }
+        boolean interromput=false;
+        while(escriptor.isAlive()){
+            try{
+                escriptor.join();
+            }
+            catch(InterruptedException e){
+                interromput=true;
+            }
+        }
+        if(interromput){
+            Thread.currentThread().interrupt();
+        }
+        if(error!=null){
+            throw error;
+        }
+    }
+
+    /**
+     * @brief Comprova que es pot escriure
+     * @pre cert
+     * @post Acaba sense fer res si l'escriptor està obert i no hi ha hagut cap error
+     * @throws IOException altrament
+     */
+    private void comprovar() throws IOException {
+        if(error!=null){
+            throw error;
+        }
+        if(tancat){
+            throw new IOException("L'escriptor de resultats està tancat");
+        }
+    }
+
+    /**
+     * @brief Envia un bloc al fil escriptor
+     * @pre Es té el candau
+     * @post \p b és a la cua, darrere de tots els blocs enviats abans. Si la cua és plena s'espera que hi hagi lloc.
+     */
+    private void enviar(StringBuilder b) throws IOException {
+        boolean interromput=false;
+        while(true){
+            try{
+                cua.put(b);
+                break;
+            }
+            catch(InterruptedException e){
+                interromput=true;
+            }
+        }
+        if(interromput){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @brief Bucle del fil escriptor
+     * @pre cert
+     * @post S'han escrit al destí tots els blocs de la cua fins a la marca FI, i s'ha buidat i tancat el destí.
+     *       Si hi ha un error es guarda, es descarta la resta del text i es continua consumint la cua fins a FI.
+     */
+    private void escriureBlocs(){
+        boolean acabat=false;
+        while(!acabat){
+            StringBuilder b;
+            try{
+                b=politica==Buidat.TEMPS ? cua.poll(interval, TimeUnit.MILLISECONDS) : cua.take();
+            }
+            catch(InterruptedException e){
+                continue; //només s'acaba en rebre FI, perquè no es perdi text
+            }
+            try{
+                if(b==null){ //ha passat l'interval: agafem el bloc que s'està omplint, si ningú hi està escrivint
+                    if(candau.tryLock()){
+                        try{
+                            if(cua.isEmpty() && bloc.length()>0){ //tots els blocs anteriors ja s'han escrit
+                                b=bloc;
+                                bloc=new StringBuilder();
+                            }
+                        }
+                        finally{
+                            candau.unlock();
+                        }
+                    }
+                    if(b!=null && error==null){
+                        desti.append(b);
+                        desti.flush();
+                    }
+                }
+                else if(b==FI){
+                    acabat=true;
+                    if(error==null){
+                        desti.flush();
+                    }
+                    desti.close();
+                }
+                else if(b==BUIDAR){
+                    if(error==null && politica!=Buidat.FINAL){
+                        desti.flush();
+                    }
+                }
+                else if(error==null){
+                    desti.append(b);
+                    if(politica!=Buidat.FINAL){
+                        desti.flush();
+                    }
+                }
+            }
+            catch(IOException e){
+                if(error==null){
+                    error=e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/** @file FluxMaxim.java
+    @brief Classe FluxMaxim
+*/
+
+/** @class FluxMaxim
+    @brief Flux màxim des dels orígens fins als terminals d'una component connexa, calculat amb l'algorisme de Dinic
+           sobre vectors primitius. Els orígens es connecten a un super origen i els terminals a un super terminal,
+           tots dos amb capacitat il·limitada, i per cada canonada de la component es guarda el flux que hi passa.
+    @author Andy Moreno Ramon
+*/
+
+import java.util.*;
+
+public class FluxMaxim {
+    private static final double EPSILON = 1e-9; ///< Capacitat residual relativa per sota de la qual es considera que una aresta està saturada
+
+    private final GrafCompacte graf; ///< Graf sobre el qual s'ha calculat el flux
+    private final int superOrigen; ///< Índex del super origen a la xarxa residual
+    private final int superTerminal; ///< Índex del super terminal a la xarxa residual
+    private final int[] destinsArc; ///< Node destí de cada arc de la xarxa residual (l'arc 2k+1 és l'invers del 2k)
+    private final double[] residus; ///< Capacitat residual de cada arc
+    private final int[] iniciArcs; ///< Posició a arcsNode on comencen els arcs de cada node
+    private final int[] arcsNode; ///< Arcs que surten de cada node, agrupats per node
+    private final int[] arcsCanonada; ///< Arc directe de cada canonada de la xarxa, -1 si no forma part del càlcul
+    private final int[] nivells; ///< Distància des del super origen en l'últim recorregut en amplada, -1 si no s'hi arriba
+    private final double llindar; ///< Capacitat residual mínima perquè un arc es consideri no saturat
+    private double valor; ///< Valor del flux màxim
+
+    /**
+     * @brief Calcula el flux màxim de la component connexa d'un node
+     * @pre 0 <= \p node < graf.nombreNodes()
+     * @post S'ha calculat el flux màxim des dels orígens fins als terminals de la component connexa de \p node, fent servir
+     *       totes les canonades que no surten d'un terminal ni entren a un origen, independentment de les aixetes.
+     */
+    public FluxMaxim(GrafCompacte graf, int node){
+        this.graf=graf;
+        int n=graf.nombreNodes();
+        superOrigen=n;
+        superTerminal=n+1;
+        arcsCanonada=new int[graf.nombreCanonades()];
+        Arrays.fill(arcsCanonada, -1);
+
+        //comptem els arcs de la component
+        int mida=graf.midaComponent(node);
+        int nArcs=0;
+        double capacitatMaxima=0;
+        int v=node;
+        for(int i=0; i<mida; i++, v=graf.seguentMembre(v)){
+            if(graf.tipus(v)!=GrafCompacte.CONNEXIO){
+                nArcs+=2;
+            }
+            if(graf.tipus(v)!=GrafCompacte.TERMINAL){
+                for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                    int e=graf.sortida(v, k);
+                    if(graf.tipus(graf.desti(e))!=GrafCompacte.ORIGEN){
+                        nArcs+=2;
+                        capacitatMaxima=Math.max(capacitatMaxima, graf.capacitat(e));
+                    }
+                }
+            }
+        }
+        llindar=EPSILON*Math.max(capacitatMaxima, 1);
+
+        //creem els arcs
+        int[] fontsArc=new int[nArcs];
+        destinsArc=new int[nArcs];
+        residus=new double[nArcs];
+        int a=0;
+        for(int i=0; i<mida; i++, v=graf.seguentMembre(v)){
+            if(graf.tipus(v)==GrafCompacte.ORIGEN){
+                a=afegirArc(fontsArc, a, superOrigen, v, Double.POSITIVE_INFINITY);
+            }
+            else if(graf.tipus(v)==GrafCompacte.TERMINAL){
+                a=afegirArc(fontsArc, a, v, superTerminal, Double.POSITIVE_INFINITY);
+            }
+            if(graf.tipus(v)!=GrafCompacte.TERMINAL){
+                for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                    int e=graf.sortida(v, k);
+                    if(graf.tipus(graf.desti(e))!=GrafCompacte.ORIGEN){
+                        arcsCanonada[e]=a;
+                        a=afegirArc(fontsArc, a, v, graf.desti(e), graf.capacitat(e));
+                    }
+                }
+            }
+        }
+
+        //agrupem els arcs per node d'inici
+        iniciArcs=new int[n+3];
+        for(int arc=0; arc<nArcs; arc++){
+            iniciArcs[fontsArc[arc]+1]++;
+        }
+        for(int w=0; w<n+2; w++){
+            iniciArcs[w+1]+=iniciArcs[w];
+        }
+        arcsNode=new int[nArcs];
+        int[] posicions=Arrays.copyOf(iniciArcs, n+2);
+        for(int arc=0; arc<nArcs; arc++){
+            arcsNode[posicions[fontsArc[arc]]++]=arc;
+        }
+
+        nivells=new int[n+2];
+        calcular();
+    }
+
+    /**
+     * @brief Afegeix un arc i el seu invers a la xarxa residual
+     * @pre Hi ha lloc per a dos arcs a partir de la posició \p a
+     * @post L'arc \p a va de \p font a \p desti amb capacitat \p capacitat, l'arc a+1 és l'invers amb capacitat 0,
+     *       i es retorna la posició del següent arc lliure
+     */
+    private int afegirArc(int[] fontsArc, int a, int font, int desti, double capacitat){
+        fontsArc[a]=font;
+        destinsArc[a]=desti;
+        residus[a]=capacitat;
+        fontsArc[a+1]=desti;
+        destinsArc[a+1]=font;
+        residus[a+1]=0;
+        return a+2;
+    }
+
+    /**
+     * @brief Algorisme de Dinic
+     * @pre La xarxa residual no té flux
+     * @post valor és el flux màxim, i nivells marca els nodes als quals s'arriba des del super origen en la xarxa residual final
+     */
+    private void calcular(){
+        int[] seguents=new int[nivells.length]; //següent arc a provar de cada node
+        int[] cami=new int[nivells.length]; //arcs del camí que s'està construint
+        while(nivellar()){
+            System.arraycopy(iniciArcs, 0, seguents, 0, nivells.length);
+            int v=superOrigen;
+            int profunditat=0;
+            while(true){
+                if(v==superTerminal){ //augmentem pel camí trobat i tornem a començar des del super origen
+                    double flux=Double.POSITIVE_INFINITY;
+                    for(int i=0; i<profunditat; i++){
+                        flux=Math.min(flux, residus[cami[i]]);
+                    }
+                    for(int i=0; i<profunditat; i++){
+                        residus[cami[i]]-=flux;
+                        residus[cami[i]^1]+=flux;
+                    }
+                    valor+=flux;
+                    v=superOrigen;
+                    profunditat=0;
+                    continue;
+                }
+                int fi=iniciArcs[v+1];
+                while(seguents[v]<fi){
+                    int arc=arcsNode[seguents[v]];
+                    if(residus[arc]>llindar && nivells[destinsArc[arc]]==nivells[v]+1){
+                        break;
+                    }
+                    seguents[v]++;
+                }
+                if(seguents[v]<fi){ //avancem
+                    int arc=arcsNode[seguents[v]];
+                    cami[profunditat++]=arc;
+                    v=destinsArc[arc];
+                }
+                else{ //v no porta enlloc en aquesta fase: el descartem i retrocedim
+                    nivells[v]=-1;
+                    if(profunditat==0){
+                        break;
+                    }
+                    v=destinsArc[cami[--profunditat]^1];
+                    seguents[v]++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Recorregut en amplada de la xarxa residual
+     * @pre cert
+     * @post nivells conté la distància des del super origen de cada node per arcs no saturats (-1 si no s'hi arriba),
+     *       i es retorna cert si s'arriba al super terminal
+     */
+    private boolean nivellar(){
+        Arrays.fill(nivells, -1);
+        int[] cua=new int[nivells.length];
+        int cap=0;
+        int mida=0;
+        nivells[superOrigen]=0;
+        cua[mida++]=superOrigen;
+        while(cap<mida){
+            int v=cua[cap++];
+            for(int i=iniciArcs[v], fi=iniciArcs[v+1]; i<fi; i++){
+                int arc=arcsNode[i];
+                int w=destinsArc[arc];
+                if(nivells[w]<0 && residus[arc]>llindar){
+                    nivells[w]=nivells[v]+1;
+                    cua[mida++]=w;
+                }
+            }
+        }
+        return nivells[superTerminal]>=0;
+    }
+
+    /**
+     * @brief Valor del flux màxim
+     * @pre cert
+     * @post Retorna el flux total que surt dels orígens i arriba als terminals
+     */
+    public float valor(){
+        return (float)valor;
+    }
+
+    /**
+     * @brief Flux d'una canonada
+     * @pre 0 <= \p e < nombre de canonades del graf quan s'ha calculat el flux
+     * @post Retorna el flux que passa per la canonada \p e, 0 si no forma part del càlcul
+     */
+    public float flux(int e){
+        int arc=arcsCanonada[e];
+        return arc<0 ? 0 : (float)residus[arc^1];
+    }
+
+    /**
+     * @brief Diu si una canonada forma part del càlcul
+     * @pre 0 <= \p e < nombre de canonades del graf quan s'ha calculat el flux
+     * @post Retorna cert si la canonada \p e és de la component i no surt d'un terminal ni entra a un origen
+     */
+    public boolean usaCanonada(int e){
+        return arcsCanonada[e]>=0;
+    }
+
+    /**
+     * @brief Diu si un node queda al costat dels orígens del tall mínim
+     * @pre 0 <= \p v < nombre de nodes del graf quan s'ha calculat el flux
+     * @post Retorna cert si des dels orígens encara es pot arribar a \p v per canonades no saturades
+     */
+    public boolean costatOrigen(int v){
+        return nivells[v]>=0;
+    }
+
+    /**
+     * @brief Tall mínim
+     * @pre cert
+     * @post Retorna els índexs de les canonades saturades que separen els nodes del costat dels orígens de la resta,
+     *       en ordre creixent. La suma de les seves capacitats és el valor del flux màxim.
+     */
+    public int[] tallMinim(){
+        int[] tall=new int[16];
+        int mida=0;
+        for(int e=0; e<arcsCanonada.length; e++){
+            if(arcsCanonada[e]>=0 && costatOrigen(graf.font(e)) && !costatOrigen(graf.desti(e))){
+                if(mida==tall.length){
+                    tall=Arrays.copyOf(tall, mida*2);
+                }
+                tall[mida++]=e;
+            }
+        }
+        return Arrays.copyOf(tall, mida);
+    }
+}
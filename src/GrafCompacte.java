@@ -0,0 +1,1079 @@
+/** @file GrafCompacte.java
+    @brief Classe GrafCompacte
+*/
+
+/** @class GrafCompacte
+    @brief Representació compacta d'una xarxa de distribució d'aigua sobre la qual treballen els algorismes.
+           Els nodes i les canonades s'identifiquen amb enters consecutius, les adjacències es guarden en format CSR
+           (vectors d'inici i d'arestes, tant de sortida com d'entrada) i l'estat de la xarxa en vectors primitius.
+           Les canonades afegides després de l'última compactació es guarden en unes llistes petites per node,
+           fins que són prou nombroses per tornar a construir el CSR.
+           Un graf carregat en bloc (per exemple des d'una Instantania) només té els vectors primitius, i els objectes
+           Nodo i Canonada es creen la primera vegada que es consulten.
+
+           Una bifurcació (bifurcar) comparteix tots els vectors amb el graf original i guarda en unes taules petites
+           només les aixetes, demandes i cabals que canvia, i els seus propis objectes Nodo i Canonada, que copia de
+           l'original quan es consulten. Els vectors compartits no es modifiquen mai: l'original, si torna a canviar,
+           primer en fa una còpia (copy-on-write), i una bifurcació no pot canviar la topologia.
+    @author Miquel Coll Barneto
+*/
+
+import java.util.*;
+
+public class GrafCompacte {
+    /** @brief Origen dels nodes d'un graf carregat en bloc, que es creen a mesura que es consulten */
+    interface FontNodes {
+        /**
+         * @brief Identificador d'un node
+         * @pre 0 <= \p v < nombre de nodes carregats
+         * @post Retorna l'identificador del node \p v
+         */
+        String id(int v);
+
+        /**
+         * @brief Coordenades d'un node
+         * @pre 0 <= \p v < nombre de nodes carregats
+         * @post Retorna les coordenades del node \p v
+         */
+        Coordenades coordenades(int v);
+
+        /**
+         * @brief Nombre d'abonats d'un node
+         * @pre 0 <= \p v < nombre de nodes carregats
+         * @post Retorna el nombre de clients abonats al node \p v (0 si no és un terminal)
+         */
+        int nombreAbonats(int v);
+
+        /**
+         * @brief Crea un node
+         * @pre 0 <= \p v < nombre de nodes carregats
+         * @post Retorna un node nou amb l'identificador, el tipus i l'estat que té ara el node \p v al graf
+         */
+        Nodo node(int v);
+    }
+
+    public static final byte ORIGEN = 0; ///< Tipus d'un node Origen
+    public static final byte CONNEXIO = 1; ///< Tipus d'un node Connexio
+    public static final byte TERMINAL = 2; ///< Tipus d'un node Terminal
+
+    private static final int MINIM_NOVES = 1024; ///< Nombre de canonades noves a partir del qual es pot compactar
+
+    private int nNodes; ///< Nombre de nodes
+    private Nodo[] nodes; ///< Node amb cada índex
+    private byte[] tipus; ///< Tipus de cada node (ORIGEN, CONNEXIO o TERMINAL)
+    private float[] demandes; ///< Demanda actual de cada node terminal, 0 per a la resta
+    private float[] cabalsOrigen; ///< Cabal de cada node origen, 0 per a la resta
+    private BitSet tancades; ///< Nodes amb l'aixeta tancada
+    private Map<String, Integer> indexNodes; ///< Índex de cada node segons el seu identificador
+
+    private int nCanonades; ///< Nombre de canonades
+    private Canonada[] canonades; ///< Canonada amb cada índex
+    private int[] fonts; ///< Índex del node d'inici de cada canonada
+    private int[] destins; ///< Índex del node destí de cada canonada
+    private float[] capacitats; ///< Capacitat de cada canonada
+    private Map<String, Integer> indexCanonades; ///< Índex de cada canonada segons el seu identificador
+    private int canonadesIndexades; ///< Nombre de canonades (les primeres) que ja són a indexCanonades
+    private FontNodes fontNodes; ///< D'on es creen els nodes que encara no s'han consultat, o null si no n'hi ha cap
+
+    private int nodesCompactats; ///< Nombre de nodes que cobreix el CSR
+    private int[] iniciSortides; ///< Posició a arestesSortida on comencen les sortides de cada node compactat
+    private int[] arestesSortida; ///< Canonades de sortida, agrupades per node d'inici
+    private int[] iniciEntrades; ///< Posició a arestesEntrada on comencen les entrades de cada node compactat
+    private int[] arestesEntrada; ///< Canonades d'entrada, agrupades per node destí
+    private int[][] sortidesNoves; ///< Sortides de cada node afegides després de l'última compactació
+    private int[][] entradesNoves; ///< Entrades de cada node afegides després de l'última compactació
+    private int[] nSortidesNoves; ///< Nombre de sortides noves de cada node
+    private int[] nEntradesNoves; ///< Nombre d'entrades noves de cada node
+    private int canonadesNoves; ///< Nombre total de canonades afegides després de l'última compactació
+
+    private int[] pares; ///< Pare de cada node a l'estructura d'unió i cerca de components connexes
+    private int[] mides; ///< Nombre de nodes de la component de cada arrel
+    private int[] canonadesComponent; ///< Nombre de canonades de la component de cada arrel
+    private int[] origensComponent; ///< Nombre de nodes origen de la component de cada arrel
+    private int[] seguentsMembre; ///< Següent node de la mateixa component, formant un cicle amb tots els seus nodes
+
+    private int versio; ///< Comptador que augmenta cada cop que canvien els nodes o les canonades
+    private boolean caminsComprimits; ///< Cert si cada node apunta directament a l'arrel de la seva component
+
+    private boolean estatCompartit; ///< Cert si els vectors d'estat es comparteixen amb una bifurcació
+    private boolean topologiaCompartida; ///< Cert si els vectors de nodes, canonades i components es comparteixen amb una bifurcació
+    private boolean objectesCompartits; ///< Cert si els vectors d'objectes Nodo i Canonada es comparteixen amb una bifurcació i no s'hi poden crear els que falten
+    private Map<Integer, Set<String>> abonatsFixats; ///< Abonats de cada terminal ja creat en l'última bifurcació, que es comparteixen amb les bifurcacions sense modificar-los
+    private boolean abonatsCanviats = true; ///< Cert si algun terminal ha canviat d'abonats des de l'última bifurcació
+    private final boolean bifurcacio; ///< Cert si el graf és una bifurcació d'un altre
+    private Canvis aixetesPropies; ///< Aixetes que ha canviat la bifurcació (1 oberta, 0 tancada), o null
+    private Canvis demandesPropies; ///< Bits de les demandes que ha canviat la bifurcació, o null
+    private Canvis cabalsPropis; ///< Bits dels cabals que ha canviat la bifurcació, o null
+    private Map<Integer, Nodo> nodesPropis; ///< Nodes de la bifurcació ja consultats, o null si no és una bifurcació
+    private Map<Integer, Canonada> canonadesPropies; ///< Canonades de la bifurcació ja consultades, o null si no és una bifurcació
+
+    /** @brief Taula d'enters no negatius a enters, amb adreçament obert, per als canvis d'una bifurcació */
+    private static final class Canvis {
+        private int[] claus; ///< Clau de cada posició, o -1 si és lliure
+        private int[] valors; ///< Valor de cada posició
+        private int n; ///< Nombre de claus
+
+        /**
+         * @brief Crea una taula buida
+         * @pre cert
+         * @post Crea una taula sense cap clau
+         */
+        Canvis(){
+            claus=new int[8];
+            Arrays.fill(claus, -1);
+            valors=new int[8];
+        }
+
+        /**
+         * @brief Crea una còpia
+         * @pre cert
+         * @post Crea una taula amb les mateixes claus i valors que \p c
+         */
+        Canvis(Canvis c){
+            claus=c.claus.clone();
+            valors=c.valors.clone();
+            n=c.n;
+        }
+
+        /**
+         * @brief Posició d'una clau
+         * @pre \p clau >= 0
+         * @post Retorna la posició on és \p clau, o la posició lliure on aniria
+         */
+        private int posicio(int clau){
+            int mascara=claus.length-1;
+            int h=clau*0x9E3779B9;
+            int p=(h^h>>>16)&mascara;
+            while(claus[p]!=clau && claus[p]!=-1){
+                p=(p+1)&mascara;
+            }
+            return p;
+        }
+
+        /**
+         * @brief Valor d'una clau
+         * @pre \p clau >= 0
+         * @post Retorna el valor de \p clau, o \p absent si no hi és
+         */
+        int valor(int clau, int absent){
+            int p=posicio(clau);
+            return claus[p]==clau ? valors[p] : absent;
+        }
+
+        /**
+         * @brief Estableix el valor d'una clau
+         * @pre \p clau >= 0
+         * @post El valor de \p clau és \p valor
+         */
+        void posar(int clau, int valor){
+            int p=posicio(clau);
+            if(claus[p]!=clau){
+                if((n+1)*2>claus.length){ //com a molt mig plena
+                    int[] antigues=claus;
+                    int[] antics=valors;
+                    claus=new int[antigues.length*2];
+                    Arrays.fill(claus, -1);
+                    valors=new int[claus.length];
+                    for(int i=0; i<antigues.length; i++){
+                        if(antigues[i]!=-1){
+                            int q=posicio(antigues[i]);
+                            claus[q]=antigues[i];
+                            valors[q]=antics[i];
+                        }
+                    }
+                    p=posicio(clau);
+                }
+                claus[p]=clau;
+                n++;
+            }
+            valors[p]=valor;
+        }
+    }
+
+    /**
+     * @brief Crea un graf compacte buit
+     * @pre cert
+     * @post Crea un graf sense nodes ni canonades
+     */
+    public GrafCompacte(){
+        nodes=new Nodo[16];
+        tipus=new byte[16];
+        demandes=new float[16];
+        cabalsOrigen=new float[16];
+        tancades=new BitSet();
+        indexNodes=new HashMap<>();
+        canonades=new Canonada[16];
+        fonts=new int[16];
+        destins=new int[16];
+        capacitats=new float[16];
+        indexCanonades=new HashMap<>();
+        iniciSortides=new int[]{0};
+        arestesSortida=new int[0];
+        iniciEntrades=new int[]{0};
+        arestesEntrada=new int[0];
+        sortidesNoves=new int[16][];
+        entradesNoves=new int[16][];
+        nSortidesNoves=new int[16];
+        nEntradesNoves=new int[16];
+        pares=new int[16];
+        mides=new int[16];
+        canonadesComponent=new int[16];
+        origensComponent=new int[16];
+        seguentsMembre=new int[16];
+        bifurcacio=false;
+    }
+
+    /**
+     * @brief Crea un graf en bloc
+     * @pre Tots els vectors de nodes tenen la mateixa mida, tots els de canonades també, els nodes de \p fonts i
+     *      \p destins són vàlids i \p fontNodes retorna identificadors diferents per a cada node
+     * @post Crea un graf amb els nodes i les canonades donats, en el mateix ordre, amb el CSR i les components ja
+     *       calculats. Els vectors passen a ser del graf. Els objectes Nodo es crearan amb \p fontNodes i els Canonada
+     *       a partir dels seus nodes la primera vegada que es consultin.
+     * @throws IllegalArgumentException si dos nodes tenen el mateix identificador
+     */
+    GrafCompacte(FontNodes fontNodes, byte[] tipus, float[] demandes, float[] cabalsOrigen, BitSet tancades,
+                 int[] fonts, int[] destins, float[] capacitats){
+        this.fontNodes=fontNodes;
+        nNodes=tipus.length;
+        nodes=new Nodo[nNodes];
+        this.tipus=tipus;
+        this.demandes=demandes;
+        this.cabalsOrigen=cabalsOrigen;
+        this.tancades=tancades;
+        indexNodes=new HashMap<>(nNodes*4/3+1);
+        for(int v=0; v<nNodes; v++){
+            if(indexNodes.put(fontNodes.id(v), v)!=null){
+                throw new IllegalArgumentException("Identificador de node repetit " + fontNodes.id(v));
+            }
+        }
+        nCanonades=fonts.length;
+        canonades=new Canonada[nCanonades];
+        this.fonts=fonts;
+        this.destins=destins;
+        this.capacitats=capacitats;
+        indexCanonades=new HashMap<>();
+        sortidesNoves=new int[nNodes][];
+        entradesNoves=new int[nNodes][];
+        nSortidesNoves=new int[nNodes];
+        nEntradesNoves=new int[nNodes];
+        pares=new int[nNodes];
+        mides=new int[nNodes];
+        canonadesComponent=new int[nNodes];
+        origensComponent=new int[nNodes];
+        seguentsMembre=new int[nNodes];
+        for(int v=0; v<nNodes; v++){
+            pares[v]=v;
+            mides[v]=1;
+            origensComponent[v]=tipus[v]==ORIGEN ? 1 : 0;
+            seguentsMembre[v]=v;
+        }
+        for(int e=0; e<nCanonades; e++){
+            unir(fonts[e], destins[e]);
+            canonadesComponent[component(fonts[e])]++;
+        }
+        compactar();
+        versio=1;
+        bifurcacio=false;
+    }
+
+    /**
+     * @brief Crea una bifurcació
+     * @pre \p original està compactat, té totes les canonades indexades i ja no modificarà els vectors que té
+     * @post Crea un graf que comparteix tots els vectors amb \p original, amb els seus mateixos canvis si també
+     *       és una bifurcació
+     */
+    private GrafCompacte(GrafCompacte original){
+        nNodes=original.nNodes;
+        nodes=original.nodes;
+        tipus=original.tipus;
+        demandes=original.demandes;
+        cabalsOrigen=original.cabalsOrigen;
+        tancades=original.tancades;
+        indexNodes=original.indexNodes;
+        nCanonades=original.nCanonades;
+        canonades=original.canonades;
+        fonts=original.fonts;
+        destins=original.destins;
+        capacitats=original.capacitats;
+        indexCanonades=original.indexCanonades;
+        canonadesIndexades=original.canonadesIndexades;
+        fontNodes=original.fontNodes;
+        abonatsFixats=original.abonatsFixats;
+        abonatsCanviats=false;
+        nodesCompactats=original.nodesCompactats;
+        iniciSortides=original.iniciSortides;
+        arestesSortida=original.arestesSortida;
+        iniciEntrades=original.iniciEntrades;
+        arestesEntrada=original.arestesEntrada;
+        sortidesNoves=original.sortidesNoves;
+        entradesNoves=original.entradesNoves;
+        nSortidesNoves=original.nSortidesNoves;
+        nEntradesNoves=original.nEntradesNoves;
+        pares=original.pares;
+        mides=original.mides;
+        canonadesComponent=original.canonadesComponent;
+        origensComponent=original.origensComponent;
+        seguentsMembre=original.seguentsMembre;
+        versio=original.versio;
+        bifurcacio=true;
+        aixetesPropies=original.aixetesPropies==null ? null : new Canvis(original.aixetesPropies);
+        demandesPropies=original.demandesPropies==null ? null : new Canvis(original.demandesPropies);
+        cabalsPropis=original.cabalsPropis==null ? null : new Canvis(original.cabalsPropis);
+        nodesPropis=new HashMap<>();
+        canonadesPropies=new HashMap<>();
+    }
+
+    /**
+     * @brief Bifurca el graf
+     * @pre cert
+     * @post Retorna un graf amb la mateixa topologia i el mateix estat, que comparteix els vectors amb aquest i només
+     *       guarda les aixetes, demandes i cabals que canviï. Els canvis posteriors de cadascun no afecten l'altre.
+     *       Cost proporcional als nodes i canonades afegits des de l'última bifurcació, més el nombre de nodes si
+     *       algun terminal ha canviat d'abonats.
+     */
+    public GrafCompacte bifurcar(){
+        if(canonadesNoves>0){
+            compactar();
+        }
+        indexCanonada(""); //la bifurcació no ha d'omplir l'índex compartit
+        if(!caminsComprimits){ //ni comprimir els camins compartits
+            for(int v=0; v<nNodes; v++){
+                component(v);
+            }
+            caminsComprimits=true;
+        }
+        if(!bifurcacio && abonatsCanviats){ //els terminals de l'original poden rebre abonats després de bifurcar
+            abonatsFixats=new HashMap<>();
+            for(int v=0; v<nNodes; v++){
+                if(nodes[v] instanceof Terminal && !((Terminal)nodes[v]).abonats().isEmpty()){
+                    abonatsFixats.put(v, Set.copyOf(((Terminal)nodes[v]).abonats()));
+                }
+            }
+            abonatsCanviats=false;
+        }
+        estatCompartit=true;
+        topologiaCompartida=true;
+        objectesCompartits=true;
+        return new GrafCompacte(this);
+    }
+
+    /**
+     * @brief Diu si és una bifurcació
+     * @pre cert
+     * @post Retorna cert si el graf s'ha creat amb bifurcar
+     */
+    public boolean esBifurcacio(){
+        return bifurcacio;
+    }
+
+    /**
+     * @brief Prepara un canvi de topologia
+     * @pre cert
+     * @post Els vectors de nodes, canonades i components són del graf i es poden modificar
+     * @throws UnsupportedOperationException si el graf és una bifurcació
+     */
+    private void modificarTopologia(){
+        if(bifurcacio){
+            throw new UnsupportedOperationException("Una bifurcació només pot canviar aixetes, demandes i cabals");
+        }
+        if(topologiaCompartida){
+            nodes=nodes.clone();
+            tipus=tipus.clone();
+            indexNodes=new HashMap<>(indexNodes);
+            canonades=canonades.clone();
+            fonts=fonts.clone();
+            destins=destins.clone();
+            capacitats=capacitats.clone();
+            indexCanonades=new HashMap<>(indexCanonades);
+            sortidesNoves=sortidesNoves.clone(); //les llistes són buides, perquè s'ha compactat en bifurcar
+            entradesNoves=entradesNoves.clone();
+            nSortidesNoves=nSortidesNoves.clone();
+            nEntradesNoves=nEntradesNoves.clone();
+            pares=pares.clone();
+            mides=mides.clone();
+            canonadesComponent=canonadesComponent.clone();
+            origensComponent=origensComponent.clone();
+            seguentsMembre=seguentsMembre.clone();
+            topologiaCompartida=false;
+            objectesCompartits=false;
+        }
+        modificarEstat();
+    }
+
+    /**
+     * @brief Prepara un canvi d'estat
+     * @pre El graf no és una bifurcació
+     * @post Els vectors d'aixetes, demandes i cabals són del graf i es poden modificar
+     */
+    private void modificarEstat(){
+        if(estatCompartit){
+            demandes=demandes.clone();
+            cabalsOrigen=cabalsOrigen.clone();
+            tancades=(BitSet)tancades.clone();
+            estatCompartit=false;
+        }
+    }
+
+    /**
+     * @brief Afegeix un node
+     * @pre No hi ha cap node amb el mateix identificador que \p n
+     * @post S'ha afegit \p n amb l'estat que té, i es retorna el seu índex
+     * @throws UnsupportedOperationException si el graf és una bifurcació
+     */
+    public int afegirNode(Nodo n){
+        modificarTopologia();
+        if(nNodes==nodes.length){
+            int mida=Math.max(16, nNodes*2);
+            nodes=Arrays.copyOf(nodes, mida);
+            tipus=Arrays.copyOf(tipus, mida);
+            demandes=Arrays.copyOf(demandes, mida);
+            cabalsOrigen=Arrays.copyOf(cabalsOrigen, mida);
+            sortidesNoves=Arrays.copyOf(sortidesNoves, mida);
+            entradesNoves=Arrays.copyOf(entradesNoves, mida);
+            nSortidesNoves=Arrays.copyOf(nSortidesNoves, mida);
+            nEntradesNoves=Arrays.copyOf(nEntradesNoves, mida);
+            pares=Arrays.copyOf(pares, mida);
+            mides=Arrays.copyOf(mides, mida);
+            canonadesComponent=Arrays.copyOf(canonadesComponent, mida);
+            origensComponent=Arrays.copyOf(origensComponent, mida);
+            seguentsMembre=Arrays.copyOf(seguentsMembre, mida);
+        }
+        int v=nNodes++;
+        indexNodes.put(n.id(), v);
+        posarNode(v, n);
+        pares[v]=v;
+        mides[v]=1;
+        origensComponent[v]=tipus[v]==ORIGEN ? 1 : 0;
+        seguentsMembre[v]=v;
+        versio++;
+        return v;
+    }
+
+    /**
+     * @brief Substitueix un node
+     * @pre \p v és l'índex d'un node i \p n té el mateix identificador
+     * @post El node amb índex \p v passa a ser \p n, amb l'estat que té \p n
+     * @throws UnsupportedOperationException si el graf és una bifurcació
+     */
+    public void substituirNode(int v, Nodo n){
+        modificarTopologia();
+        boolean eraOrigen=tipus[v]==ORIGEN;
+        posarNode(v, n);
+        if(eraOrigen!=(tipus[v]==ORIGEN)){
+            origensComponent[component(v)]+=eraOrigen ? -1 : 1;
+        }
+        versio++;
+    }
+
+    /**
+     * @brief Guarda un node i el seu estat
+     * @pre 0 <= \p v < nNodes
+     * @post nodes[v] = \p n i l'estat de la posició \p v és el de \p n
+     */
+    private void posarNode(int v, Nodo n){
+        nodes[v]=n;
+        if(n instanceof Terminal && !((Terminal)n).abonats().isEmpty()){
+            abonatsCanviats=true;
+        }
+        demandes[v]=0;
+        cabalsOrigen[v]=0;
+        if(n instanceof Origen){
+            tipus[v]=ORIGEN;
+            cabalsOrigen[v]=((Origen)n).cabal();
+        }
+        else if(n instanceof Terminal){
+            tipus[v]=TERMINAL;
+            demandes[v]=((Terminal)n).demandaActual();
+        }
+        else{
+            tipus[v]=CONNEXIO;
+        }
+        tancades.set(v, !n.aixetaOberta());
+    }
+
+    /**
+     * @brief Afegeix una canonada
+     * @pre \p font i \p desti són índexs de nodes, i \p c va del node \p font al node \p desti
+     * @post S'ha afegit \p c al final de les sortides de \p font i de les entrades de \p desti, i es retorna el seu índex
+     * @throws UnsupportedOperationException si el graf és una bifurcació
+     */
+    public int afegirCanonada(int font, int desti, Canonada c){
+        modificarTopologia();
+        if(nCanonades==canonades.length){
+            int mida=Math.max(16, nCanonades*2);
+            canonades=Arrays.copyOf(canonades, mida);
+            fonts=Arrays.copyOf(fonts, mida);
+            destins=Arrays.copyOf(destins, mida);
+            capacitats=Arrays.copyOf(capacitats, mida);
+        }
+        int e=nCanonades++;
+        canonades[e]=c;
+        fonts[e]=font;
+        destins[e]=desti;
+        capacitats[e]=c.capacitat();
+        if(canonadesIndexades==e){ //si n'hi ha de carregades sense indexar, s'indexarà quan es busqui
+            indexCanonades.put(c.id(), e);
+            canonadesIndexades++;
+        }
+        sortidesNoves[font]=afegirA(sortidesNoves[font], nSortidesNoves[font]++, e);
+        entradesNoves[desti]=afegirA(entradesNoves[desti], nEntradesNoves[desti]++, e);
+        canonadesNoves++;
+        unir(font, desti);
+        canonadesComponent[component(font)]++;
+        if(canonadesNoves>=MINIM_NOVES && canonadesNoves>=nCanonades/2){
+            compactar();
+        }
+        versio++;
+        return e;
+    }
+
+    /**
+     * @brief Afegeix un element a una llista d'enters
+     * @pre 0 <= \p n <= mida de \p llista
+     * @post Retorna la llista (possiblement ampliada) amb \p valor a la posició \p n
+     */
+    private static int[] afegirA(int[] llista, int n, int valor){
+        if(llista==null){
+            llista=new int[2];
+        }
+        else if(n==llista.length){
+            llista=Arrays.copyOf(llista, n*2);
+        }
+        llista[n]=valor;
+        return llista;
+    }
+
+    /**
+     * @brief Torna a construir el CSR
+     * @pre cert
+     * @post Totes les canonades són al CSR, en ordre d'inserció dins de cada node, i no queda cap canonada nova
+     * @throws UnsupportedOperationException si el graf és una bifurcació
+     */
+    public void compactar(){
+        modificarTopologia();
+        iniciSortides=new int[nNodes+1];
+        iniciEntrades=new int[nNodes+1];
+        for(int e=0; e<nCanonades; e++){
+            iniciSortides[fonts[e]+1]++;
+            iniciEntrades[destins[e]+1]++;
+        }
+        for(int v=0; v<nNodes; v++){
+            iniciSortides[v+1]+=iniciSortides[v];
+            iniciEntrades[v+1]+=iniciEntrades[v];
+        }
+        arestesSortida=new int[nCanonades];
+        arestesEntrada=new int[nCanonades];
+        int[] posSortida=Arrays.copyOf(iniciSortides, nNodes);
+        int[] posEntrada=Arrays.copyOf(iniciEntrades, nNodes);
+        for(int e=0; e<nCanonades; e++){
+            arestesSortida[posSortida[fonts[e]]++]=e;
+            arestesEntrada[posEntrada[destins[e]]++]=e;
+        }
+        nodesCompactats=nNodes;
+        Arrays.fill(sortidesNoves, 0, nNodes, null);
+        Arrays.fill(entradesNoves, 0, nNodes, null);
+        Arrays.fill(nSortidesNoves, 0, nNodes, 0);
+        Arrays.fill(nEntradesNoves, 0, nNodes, 0);
+        canonadesNoves=0;
+    }
+
+    /**
+     * @brief Nombre de nodes
+     * @pre cert
+     * @post Retorna el nombre de nodes del graf
+     */
+    public int nombreNodes(){
+        return nNodes;
+    }
+
+    /**
+     * @brief Nombre de canonades
+     * @pre cert
+     * @post Retorna el nombre de canonades del graf
+     */
+    public int nombreCanonades(){
+        return nCanonades;
+    }
+
+    /**
+     * @brief Versió de la topologia
+     * @pre cert
+     * @post Retorna un valor que canvia cada cop que s'afegeix o se substitueix un node o s'afegeix una canonada
+     */
+    public int versio(){
+        return versio;
+    }
+
+    /**
+     * @brief Índex d'un node
+     * @pre cert
+     * @post Retorna l'índex del node amb identificador \p id, o -1 si no existeix
+     */
+    public int indexNode(String id){
+        Integer v=indexNodes.get(id);
+        return v==null ? -1 : v;
+    }
+
+    /**
+     * @brief Índex d'una canonada
+     * @pre cert
+     * @post Retorna l'índex de la canonada amb identificador \p id, o -1 si no existeix
+     */
+    public int indexCanonada(String id){
+        for(; canonadesIndexades<nCanonades; canonadesIndexades++){
+            int e=canonadesIndexades;
+            indexCanonades.put(id(fonts[e])+"-"+id(destins[e]), e);
+        }
+        Integer e=indexCanonades.get(id);
+        return e==null ? -1 : e;
+    }
+
+    /**
+     * @brief Retorna un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el node amb índex \p v
+     */
+    public Nodo node(int v){
+        if(bifurcacio){
+            return nodesPropis.computeIfAbsent(v, this::copiarNode);
+        }
+        Nodo n=nodes[v];
+        if(n==null){ //node carregat en bloc que encara no s'havia consultat
+            crearObjectes();
+            n=nodes[v]=fontNodes.node(v);
+            if(n instanceof Terminal && !((Terminal)n).abonats().isEmpty()){
+                abonatsCanviats=true;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @brief Prepara la creació d'un objecte Nodo o Canonada
+     * @pre El graf no és una bifurcació
+     * @post Els vectors d'objectes Nodo i Canonada són del graf i s'hi poden guardar els que es creïn
+     */
+    private void crearObjectes(){
+        if(objectesCompartits){ //les bifurcacions llegeixen aquests vectors sense cap bloqueig
+            nodes=nodes.clone();
+            canonades=canonades.clone();
+            objectesCompartits=false;
+        }
+    }
+
+    /**
+     * @brief Registra un abonament
+     * @pre El graf no és una bifurcació i el node d'índex \p v és un terminal
+     * @post \p idClient està abonat al terminal \p v, i les bifurcacions ja creades no ho veuen
+     */
+    public void abonar(int v, String idClient){
+        ((Terminal)node(v)).nouAbonat(idClient);
+        abonatsCanviats=true;
+    }
+
+    /**
+     * @brief Copia un node de l'original
+     * @pre El graf és una bifurcació i 0 <= \p v < nombreNodes()
+     * @post Retorna un node nou amb l'identificador, les coordenades, la demanda punta i els abonats que tenia el node
+     *       \p v de l'original en bifurcar, i el tipus, l'aixeta, la demanda i el cabal que té a la bifurcació
+     */
+    private Nodo copiarNode(int v){
+        Nodo original=nodes[v]!=null ? nodes[v] : fontNodes.node(v); //fontNodes no modifica els vectors compartits
+        Collection<String> abonats;
+        if(nodes[v]==null){ //l'original no l'havia creat, i per tant tampoc abonat ningú
+            abonats=original instanceof Terminal ? ((Terminal)original).abonats() : List.of();
+        }
+        else{ //el Terminal de l'original pot haver rebut abonats després de bifurcar
+            abonats=abonatsFixats==null ? List.of() : abonatsFixats.getOrDefault(v, Set.of());
+        }
+        Nodo n;
+        if(tipus[v]==ORIGEN){
+            Origen o=new Origen(original.id(), original.coordenades());
+            o.establirCabal(cabalOrigen(v));
+            n=o;
+        }
+        else if(tipus[v]==TERMINAL){
+            Terminal t=(Terminal)original;
+            Terminal copia=new Terminal(t.id(), t.coordenades(), t.demandaPunta());
+            copia.establirDemandaActual(demanda(v));
+            for(String client : abonats){
+                copia.nouAbonat(client);
+            }
+            n=copia;
+        }
+        else{
+            n=new Connexio(original.id(), original.coordenades());
+        }
+        if(!aixetaOberta(v)){
+            n.tancarAixeta();
+        }
+        return n;
+    }
+
+    /**
+     * @brief Node ja creat
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el node amb índex \p v si ja existeix l'objecte, o null si és un node carregat en bloc (o d'una
+     *       bifurcació) que encara no s'ha consultat
+     */
+    Nodo nodeCreat(int v){
+        return bifurcacio ? nodesPropis.get(v) : nodes[v];
+    }
+
+    /**
+     * @brief Origen dels nodes carregats en bloc
+     * @pre cert
+     * @post Retorna d'on es creen els nodes que encara no s'han consultat, o null si el graf no s'ha carregat en bloc
+     */
+    FontNodes fontNodes(){
+        return fontNodes;
+    }
+
+    /**
+     * @brief Identificador d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna l'identificador del node amb índex \p v, sense crear-lo si encara no s'havia consultat
+     */
+    public String id(int v){
+        Nodo n=nodes[v];
+        return n!=null ? n.id() : fontNodes.id(v);
+    }
+
+    /**
+     * @brief Coordenades d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna les coordenades del node amb índex \p v, sense crear-lo si encara no s'havia consultat
+     */
+    public Coordenades coordenades(int v){
+        Nodo n=nodes[v];
+        return n!=null ? n.coordenades() : fontNodes.coordenades(v);
+    }
+
+    /**
+     * @brief Nombre d'abonats d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el nombre de clients abonats al node amb índex \p v (0 si no és un terminal), sense crear-lo si
+     *       encara no s'havia consultat
+     */
+    public int nombreAbonats(int v){
+        if(tipus[v]!=TERMINAL){
+            return 0;
+        }
+        Nodo n=nodes[v];
+        if(n==null){
+            return fontNodes.nombreAbonats(v);
+        }
+        if(bifurcacio){ //el Terminal de l'original pot haver rebut abonats després de bifurcar
+            return abonatsFixats==null ? 0 : abonatsFixats.getOrDefault(v, Set.of()).size();
+        }
+        return ((Terminal)n).abonats().size();
+    }
+
+    /**
+     * @brief Retorna una canonada
+     * @pre 0 <= \p e < nombreCanonades()
+     * @post Retorna la canonada amb índex \p e
+     */
+    public Canonada canonada(int e){
+        if(bifurcacio){
+            return canonadesPropies.computeIfAbsent(e, k -> new Canonada(node(fonts[k]), node(destins[k]), capacitats[k]));
+        }
+        Canonada c=canonades[e];
+        if(c==null){ //canonada carregada en bloc que encara no s'havia consultat
+            crearObjectes();
+            c=canonades[e]=new Canonada(node(fonts[e]), node(destins[e]), capacitats[e]);
+        }
+        return c;
+    }
+
+    /**
+     * @brief Tipus d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna ORIGEN, CONNEXIO o TERMINAL segons el tipus del node \p v
+     */
+    public byte tipus(int v){
+        return tipus[v];
+    }
+
+    /**
+     * @brief Node d'inici d'una canonada
+     * @pre 0 <= \p e < nombreCanonades()
+     * @post Retorna l'índex del node d'inici de la canonada \p e
+     */
+    public int font(int e){
+        return fonts[e];
+    }
+
+    /**
+     * @brief Node destí d'una canonada
+     * @pre 0 <= \p e < nombreCanonades()
+     * @post Retorna l'índex del node destí de la canonada \p e
+     */
+    public int desti(int e){
+        return destins[e];
+    }
+
+    /**
+     * @brief Capacitat d'una canonada
+     * @pre 0 <= \p e < nombreCanonades()
+     * @post Retorna la capacitat de la canonada \p e
+     */
+    public float capacitat(int e){
+        return capacitats[e];
+    }
+
+    /**
+     * @brief Nombre de sortides d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el nombre de canonades que surten del node \p v
+     */
+    public int grauSortida(int v){
+        int grau=nSortidesNoves[v];
+        if(v<nodesCompactats){
+            grau+=iniciSortides[v+1]-iniciSortides[v];
+        }
+        return grau;
+    }
+
+    /**
+     * @brief Sortida d'un node
+     * @pre 0 <= \p v < nombreNodes() i 0 <= \p k < grauSortida(v)
+     * @post Retorna l'índex de la \p k-èsima canonada que surt del node \p v, en ordre d'inserció
+     */
+    public int sortida(int v, int k){
+        if(v<nodesCompactats){
+            int compactades=iniciSortides[v+1]-iniciSortides[v];
+            if(k<compactades){
+                return arestesSortida[iniciSortides[v]+k];
+            }
+            k-=compactades;
+        }
+        return sortidesNoves[v][k];
+    }
+
+    /**
+     * @brief Nombre d'entrades d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el nombre de canonades que entren al node \p v
+     */
+    public int grauEntrada(int v){
+        int grau=nEntradesNoves[v];
+        if(v<nodesCompactats){
+            grau+=iniciEntrades[v+1]-iniciEntrades[v];
+        }
+        return grau;
+    }
+
+    /**
+     * @brief Entrada d'un node
+     * @pre 0 <= \p v < nombreNodes() i 0 <= \p k < grauEntrada(v)
+     * @post Retorna l'índex de la \p k-èsima canonada que entra al node \p v, en ordre d'inserció
+     */
+    public int entrada(int v, int k){
+        if(v<nodesCompactats){
+            int compactades=iniciEntrades[v+1]-iniciEntrades[v];
+            if(k<compactades){
+                return arestesEntrada[iniciEntrades[v]+k];
+            }
+            k-=compactades;
+        }
+        return entradesNoves[v][k];
+    }
+
+    /**
+     * @brief Diu si dos nodes estan connectats
+     * @pre \p a i \p b són índexs de nodes
+     * @post Retorna cert si hi ha una canonada de \p a a \p b o de \p b a \p a
+     */
+    public boolean connectats(int a, int b){
+        for(int k=0, grau=grauSortida(a); k<grau; k++){
+            if(destins[sortida(a, k)]==b){
+                return true;
+            }
+        }
+        for(int k=0, grau=grauSortida(b); k<grau; k++){
+            if(destins[sortida(b, k)]==a){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @brief Component connexa d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el node que representa la component connexa de \p v (recorrent les canonades en tots dos sentits).
+     *       Dos nodes són de la mateixa component si i només si tenen el mateix representant.
+     */
+    public int component(int v){
+        while(pares[v]!=v){
+            pares[v]=pares[pares[v]]; //compressió del camí a la meitat
+            v=pares[v];
+        }
+        return v;
+    }
+
+    /**
+     * @brief Uneix dues components
+     * @pre 0 <= \p a, \p b < nombreNodes()
+     * @post \p a i \p b són de la mateixa component, que suma els nodes, les canonades i els orígens de totes dues
+     */
+    private void unir(int a, int b){
+        int ra=component(a);
+        int rb=component(b);
+        if(ra==rb){
+            return;
+        }
+        caminsComprimits=false;
+        if(mides[ra]<mides[rb]){
+            int aux=ra;
+            ra=rb;
+            rb=aux;
+        }
+        pares[rb]=ra;
+        mides[ra]+=mides[rb];
+        canonadesComponent[ra]+=canonadesComponent[rb];
+        origensComponent[ra]+=origensComponent[rb];
+        //enllacem els dos cicles de membres en un de sol
+        int aux=seguentsMembre[ra];
+        seguentsMembre[ra]=seguentsMembre[rb];
+        seguentsMembre[rb]=aux;
+    }
+
+    /**
+     * @brief Nombre de nodes de la component connexa d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el nombre de nodes de la component de \p v
+     */
+    public int midaComponent(int v){
+        return mides[component(v)];
+    }
+
+    /**
+     * @brief Nombre de canonades de la component connexa d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el nombre de canonades de la component de \p v
+     */
+    public int canonadesComponent(int v){
+        return canonadesComponent[component(v)];
+    }
+
+    /**
+     * @brief Nombre d'orígens de la component connexa d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el nombre de nodes origen de la component de \p v
+     */
+    public int origensComponent(int v){
+        return origensComponent[component(v)];
+    }
+
+    /**
+     * @brief Següent membre de la component connexa d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna un node de la component de \p v. Començant per qualsevol node de la component i aplicant aquesta
+     *       funció midaComponent(v) vegades es visiten tots els seus nodes una sola vegada, sense copiar-los enlloc.
+     */
+    public int seguentMembre(int v){
+        return seguentsMembre[v];
+    }
+
+    /**
+     * @brief Estat de l'aixeta d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna cert si l'aixeta del node \p v és oberta
+     */
+    public boolean aixetaOberta(int v){
+        if(aixetesPropies!=null){
+            int oberta=aixetesPropies.valor(v, -1);
+            if(oberta>=0){
+                return oberta==1;
+            }
+        }
+        return !tancades.get(v);
+    }
+
+    /**
+     * @brief Estableix l'estat de l'aixeta d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post L'aixeta del node \p v és oberta si \p oberta és cert, tancada altrament
+     */
+    public void establirAixeta(int v, boolean oberta){
+        if(bifurcacio){
+            if(aixetesPropies==null){
+                aixetesPropies=new Canvis();
+            }
+            aixetesPropies.posar(v, oberta ? 1 : 0);
+        }
+        else{
+            modificarEstat();
+            tancades.set(v, !oberta);
+        }
+    }
+
+    /**
+     * @brief Demanda actual d'un node
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna la demanda actual del node \p v si és un terminal, 0 altrament
+     */
+    public float demanda(int v){
+        if(demandesPropies!=null){
+            int i=demandesPropies.valor(v, -1);
+            if(i!=-1){ //cap demanda vàlida té aquests bits (seria un NaN)
+                return Float.intBitsToFloat(i);
+            }
+        }
+        return demandes[v];
+    }
+
+    /**
+     * @brief Estableix la demanda actual d'un terminal
+     * @pre \p v és l'índex d'un terminal i \p demanda >= 0
+     * @post La demanda actual del node \p v és \p demanda
+     */
+    public void establirDemanda(int v, float demanda){
+        if(bifurcacio){
+            if(demandesPropies==null){
+                demandesPropies=new Canvis();
+            }
+            demandesPropies.posar(v, Float.floatToIntBits(demanda));
+        }
+        else{
+            modificarEstat();
+            demandes[v]=demanda;
+        }
+    }
+
+    /**
+     * @brief Cabal d'un origen
+     * @pre 0 <= \p v < nombreNodes()
+     * @post Retorna el cabal del node \p v si és un origen, 0 altrament
+     */
+    public float cabalOrigen(int v){
+        if(cabalsPropis!=null){
+            int i=cabalsPropis.valor(v, -1);
+            if(i!=-1){
+                return Float.intBitsToFloat(i);
+            }
+        }
+        return cabalsOrigen[v];
+    }
+
+    /**
+     * @brief Estableix el cabal d'un origen
+     * @pre \p v és l'índex d'un origen i \p cabal >= 0
+     * @post El cabal del node \p v és \p cabal
+     */
+    public void establirCabalOrigen(int v, float cabal){
+        if(bifurcacio){
+            if(cabalsPropis==null){
+                cabalsPropis=new Canvis();
+            }
+            cabalsPropis.posar(v, Float.floatToIntBits(cabal));
+        }
+        else{
+            modificarEstat();
+            cabalsOrigen[v]=cabal;
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/** @file Historial.java
+    @brief Classe Historial
+*/
+
+/** @class Historial
+    @brief Historial acotat de les operacions que es poden desfer i refer sobre una Xarxa: obrir i tancar aixetes,
+           establir demandes i establir cabals d'orígens.
+
+           Cada operació ocupa dos enters: el tipus i l'índex del node empaquetats (node*4+tipus) i un valor. Per a una
+           demanda o un cabal, el valor són els bits del float que hi havia abans; en desfer-la s'intercanvia amb el
+           valor actual, de manera que després guarda el que cal per refer-la. Una aixeta només canvia d'estat, i les
+           operacions que no van canviar res es guarden com a BUIT perquè també compten com a pas.
+
+           Les operacions es guarden en un buffer circular que creix fins a la profunditat màxima. Quan és ple, una
+           operació nova descarta la més antiga. Les operacions desfetes es poden refer fins que se n'afegeix una de nova.
+    @author Miquel Coll Barneto
+*/
+
+public class Historial {
+    public static final int BUIT = 0; ///< Operació que no va canviar res
+    public static final int AIXETA = 1; ///< Operació d'obrir o tancar una aixeta
+    public static final int DEMANDA = 2; ///< Operació d'establir la demanda d'un terminal
+    public static final int CABAL = 3; ///< Operació d'establir el cabal d'un origen
+    public static final int PROFUNDITAT = 1 << 20; ///< Profunditat màxima per defecte
+    private static final int MIDA_INICIAL = 16; ///< Capacitat inicial del buffer
+
+    private int[] operacions; ///< Tipus i node de cada operació, empaquetats
+    private int[] valors; ///< Valor de cada operació
+    private int inici; ///< Posició del buffer on hi ha l'operació més antiga
+    private int mida; ///< Nombre d'operacions que es poden desfer
+    private int refer; ///< Nombre d'operacions desfetes que es poden refer, a continuació de les anteriors
+    private int profunditat; ///< Nombre màxim d'operacions guardades
+
+    /**
+     * @brief Crea un historial buit
+     * @pre \p profunditat >= 1
+     * @post Crea un historial sense operacions que en guarda com a molt \p profunditat
+     * @throws IllegalArgumentException si \p profunditat és més petita que 1
+     */
+    public Historial(int profunditat){
+        if(profunditat<1){
+            throw new IllegalArgumentException("La profunditat ha de ser com a mínim 1");
+        }
+        this.profunditat=profunditat;
+        operacions=new int[Math.min(MIDA_INICIAL, profunditat)];
+        valors=new int[operacions.length];
+    }
+
+    /**
+     * @brief Crea un historial a partir del seu estat
+     * @pre \p operacions i \p valors tenen la mateixa mida, com a molt \p profunditat, els seus elements estan
+     *      codificats com els d'operacio(i) i valor(i), i 0 <= \p refer <= operacions.length
+     * @post Crea un historial amb les operacions donades, de la més antiga a la més nova, on les \p refer últimes són
+     *       desfetes. Els vectors passen a ser seus.
+     */
+    Historial(int profunditat, int[] operacions, int[] valors, int refer){
+        this.profunditat=profunditat;
+        this.operacions=operacions.length>0 ? operacions : new int[1];
+        this.valors=valors.length>0 ? valors : new int[1];
+        mida=operacions.length-refer;
+        this.refer=refer;
+    }
+
+    /**
+     * @brief Afegeix una operació
+     * @pre 0 <= \p node < 2^30 i \p tipus és BUIT, AIXETA, DEMANDA o CABAL
+     * @post S'ha afegit l'operació com la més nova i ja no es pot refer cap operació desfeta. Si l'historial era ple,
+     *       s'ha descartat la més antiga.
+     */
+    public void afegir(int tipus, int node, int valor){
+        refer=0;
+        if(mida==operacions.length){
+            if(mida<profunditat){
+                redimensionar(Math.min(profunditat, Math.max(1, mida)*2));
+            }
+            else{
+                inici=posicio(1);
+                mida--;
+            }
+        }
+        int p=posicio(mida);
+        operacions[p]=node<<2|tipus;
+        valors[p]=valor;
+        mida++;
+    }
+
+    /**
+     * @brief Desfà una operació
+     * @pre cert
+     * @post Si hi ha operacions per desfer, la més nova passa a ser desfeta i se'n retorna la posició; altrament -1
+     */
+    public int desfer(){
+        if(mida==0){
+            return -1;
+        }
+        mida--;
+        refer++;
+        return mida;
+    }
+
+    /**
+     * @brief Refà una operació
+     * @pre cert
+     * @post Si hi ha operacions desfetes, la primera que es va desfer deixa de ser-ho i se'n retorna la posició;
+     *       altrament -1
+     */
+    public int refer(){
+        if(refer==0){
+            return -1;
+        }
+        refer--;
+        return mida++;
+    }
+
+    /**
+     * @brief Tipus d'una operació
+     * @pre 0 <= \p i < mida() + nombreRefer()
+     * @post Retorna el tipus de l'operació de posició \p i (0 és la més antiga)
+     */
+    public int tipus(int i){
+        return operacions[posicio(i)]&3;
+    }
+
+    /**
+     * @brief Node d'una operació
+     * @pre 0 <= \p i < mida() + nombreRefer()
+     * @post Retorna l'índex del node de l'operació de posició \p i
+     */
+    public int node(int i){
+        return operacions[posicio(i)]>>>2;
+    }
+
+    /**
+     * @brief Operació codificada
+     * @pre 0 <= \p i < mida() + nombreRefer()
+     * @post Retorna el tipus i el node de l'operació de posició \p i empaquetats com node*4+tipus
+     */
+    int operacio(int i){
+        return operacions[posicio(i)];
+    }
+
+    /**
+     * @brief Valor d'una operació
+     * @pre 0 <= \p i < mida() + nombreRefer()
+     * @post Retorna el valor guardat de l'operació de posició \p i
+     */
+    public int valor(int i){
+        return valors[posicio(i)];
+    }
+
+    /**
+     * @brief Canvia el valor d'una operació
+     * @pre 0 <= \p i < mida() + nombreRefer()
+     * @post El valor guardat de l'operació de posició \p i és \p valor
+     */
+    public void establirValor(int i, int valor){
+        valors[posicio(i)]=valor;
+    }
+
+    /**
+     * @brief Nombre d'operacions que es poden desfer
+     * @pre cert
+     * @post Retorna el nombre d'operacions que es poden desfer
+     */
+    public int mida(){
+        return mida;
+    }
+
+    /**
+     * @brief Nombre d'operacions que es poden refer
+     * @pre cert
+     * @post Retorna el nombre d'operacions desfetes que es poden refer
+     */
+    public int nombreRefer(){
+        return refer;
+    }
+
+    /**
+     * @brief Profunditat màxima
+     * @pre cert
+     * @post Retorna el nombre màxim d'operacions que guarda l'historial
+     */
+    public int profunditat(){
+        return profunditat;
+    }
+
+    /**
+     * @brief Canvia la profunditat màxima
+     * @pre \p profunditat >= 1
+     * @post L'historial guarda com a molt \p profunditat operacions. Si en tenia més, s'han descartat primer les més
+     *       antigues que es podien desfer i després les últimes que es podien refer.
+     * @throws IllegalArgumentException si \p profunditat és més petita que 1
+     */
+    public void establirProfunditat(int profunditat){
+        if(profunditat<1){
+            throw new IllegalArgumentException("La profunditat ha de ser com a mínim 1");
+        }
+        int sobren=Math.min(mida, mida+refer-profunditat);
+        if(sobren>0){
+            inici=posicio(sobren);
+            mida-=sobren;
+        }
+        refer=Math.min(refer, profunditat-mida);
+        this.profunditat=profunditat;
+        if(operacions.length>profunditat){
+            redimensionar(profunditat);
+        }
+    }
+
+    /**
+     * @brief Posició al buffer
+     * @pre 0 <= \p i < operacions.length
+     * @post Retorna la posició del buffer on hi ha l'operació \p i-èssima a partir de la més antiga
+     */
+    private int posicio(int i){
+        int p=inici+i;
+        return p<operacions.length ? p : p-operacions.length;
+    }
+
+    /**
+     * @brief Canvia la capacitat del buffer
+     * @pre mida + refer <= \p capacitat
+     * @post El buffer té capacitat \p capacitat i les operacions hi són en ordre a partir de la posició 0
+     */
+    private void redimensionar(int capacitat){
+        int n=mida+refer;
+        int[] nousOperacions=new int[capacitat];
+        int[] nousValors=new int[capacitat];
+        int primers=Math.min(n, operacions.length-inici);
+        System.arraycopy(operacions, inici, nousOperacions, 0, primers);
+        System.arraycopy(operacions, 0, nousOperacions, primers, n-primers);
+        System.arraycopy(valors, inici, nousValors, 0, primers);
+        System.arraycopy(valors, 0, nousValors, primers, n-primers);
+        operacions=nousOperacions;
+        valors=nousValors;
+        inici=0;
+    }
+}
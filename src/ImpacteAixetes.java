@@ -0,0 +1,228 @@
+/** @file ImpacteAixetes.java
+    @brief Classe ImpacteAixetes
+*/
+
+/** @class ImpacteAixetes
+    @brief Impacte de tancar l'aixeta de cada node d'una xarxa: els terminals i abonats que es quedarien sense aigua i
+           el cabal que deixarien de rebre.
+
+           L'aigua arriba a un node si s'hi pot arribar des d'un origen obert passant només per nodes oberts. Tancar
+           l'aixeta d'un node v deixa sense aigua exactament els nodes dominats per v, és a dir, el subarbre de v a
+           l'ArbreDominadors dels nodes oberts. Com que cada subarbre ocupa posicions consecutives en preordre, els
+           terminals, els abonats i el cabal de cada subarbre se sumen en una sola passada dels fills cap als pares; un
+           client abonat a diversos terminals del subarbre hi compta un cop per terminal.
+           El cabal perdut és el que reben ara els terminals que es quedarien sense aigua, amb una sola consulta al
+           motor de cabals per terminal; si la component té cicles no està definit (NaN).
+
+           Les components es tracten en paral·lel amb fork/join.
+    @author Miquel Coll Barneto
+*/
+
+import java.util.*;
+
+public class ImpacteAixetes {
+    private final GrafCompacte graf; ///< Graf analitzat
+    private final ArbreDominadors arbre; ///< Arbre de dominadors dels nodes oberts
+    private final int[] abonatsNode; ///< Nombre d'abonats de cada terminal
+    private final boolean[] aciclics; ///< Indica si cada component no té cicles
+    private final int[] terminals; ///< Nombre de terminals que es quedarien sense aigua tancant cada node
+    private final int[] abonats; ///< Nombre d'abonats que es quedarien sense aigua tancant cada node
+    private final double[] cabals; ///< Cabal que es deixaria de rebre tancant cada node
+
+    /**
+     * @brief Calcula l'impacte de tancar cada aixeta
+     * @pre \p motor calcula els cabals de \p graf i abonatsNode.length >= graf.nombreNodes()
+     * @post S'ha calculat, per cada node obert al qual arriba aigua, els terminals, els abonats (segons \p abonatsNode)
+     *       i el cabal que es perdrien tancant-ne l'aixeta
+     */
+    public ImpacteAixetes(GrafCompacte graf, MotorCabal motor, int[] abonatsNode){
+        this.graf=graf;
+        this.abonatsNode=abonatsNode;
+        int n=graf.nombreNodes();
+        terminals=new int[n];
+        abonats=new int[n];
+        cabals=new double[n];
+        arbre=new ArbreDominadors(graf, true);
+        aciclics=new boolean[arbre.nombreComponents()];
+
+        arbre.perComponent(this::sumar);
+        //el motor no es pot fer servir des de diversos fils
+        for(int c=0; c<arbre.nombreComponents(); c++){
+            for(int i=arbre.inici(c); i<arbre.inici(c)+arbre.nombreArribats(c); i++){
+                int v=arbre.node(i);
+                if(graf.tipus(v)==GrafCompacte.TERMINAL){
+                    cabals[v]=aciclics[c] ? motor.cabal(v) : Double.NaN;
+                }
+            }
+        }
+        arbre.perComponent(this::sumarCabals);
+    }
+
+    /**
+     * @brief Suma els terminals i abonats dels subarbres d'una component
+     * @pre 0 <= \p c < arbre.nombreComponents()
+     * @post S'ha calculat si la component \p c té cicles i, per cada node seu al qual arriba aigua, el nombre de
+     *       terminals i d'abonats del seu subarbre
+     */
+    private void sumar(int c){
+        aciclics[c]=aciclica(c);
+        int inici=arbre.inici(c);
+        for(int i=inici; i<arbre.fi(c); i++){
+            int v=arbre.node(i);
+            boolean terminal=graf.tipus(v)==GrafCompacte.TERMINAL && arbre.arribat(v);
+            terminals[v]=terminal ? 1 : 0;
+            abonats[v]=terminal ? abonatsNode[v] : 0;
+        }
+        for(int i=inici+arbre.nombreArribats(c)-1; i>=inici; i--){
+            int v=arbre.node(i);
+            int pare=arbre.dominador(v);
+            if(pare>=0){
+                terminals[pare]+=terminals[v];
+                abonats[pare]+=abonats[v];
+            }
+        }
+    }
+
+    /**
+     * @brief Suma els cabals dels subarbres d'una component
+     * @pre S'ha cridat sumar(\p c) i cabals conté el cabal actual de cada terminal de la component que rep aigua
+     * @post cabals conté, per cada node de la component \p c que rep aigua, la suma dels cabals del seu subarbre
+     */
+    private void sumarCabals(int c){
+        int inici=arbre.inici(c);
+        if(!aciclics[c]){
+            for(int i=inici; i<inici+arbre.nombreArribats(c); i++){
+                cabals[arbre.node(i)]=Double.NaN;
+            }
+            return;
+        }
+        for(int i=inici+arbre.nombreArribats(c)-1; i>=inici; i--){
+            int v=arbre.node(i);
+            if(arbre.dominador(v)>=0){
+                cabals[arbre.dominador(v)]+=cabals[v];
+            }
+        }
+    }
+
+    /**
+     * @brief Diu si una component no té cicles
+     * @pre 0 <= \p c < arbre.nombreComponents()
+     * @post Retorna cert si la component \p c no té cap cicle dirigit, comptant tots els nodes i canonades
+     */
+    private boolean aciclica(int c){
+        //terminals encara no s'ha calculat i fa de comptador d'entrades pendents
+        int mida=arbre.fi(c)-arbre.inici(c);
+        int[] cua=new int[mida];
+        int fi=0;
+        for(int i=arbre.inici(c); i<arbre.fi(c); i++){
+            int v=arbre.node(i);
+            terminals[v]=graf.grauEntrada(v);
+            if(terminals[v]==0){
+                cua[fi++]=v;
+            }
+        }
+        for(int i=0; i<fi; i++){
+            int v=cua[i];
+            for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                int w=graf.desti(graf.sortida(v, k));
+                if(--terminals[w]==0){
+                    cua[fi++]=w;
+                }
+            }
+        }
+        return fi==mida;
+    }
+
+    /**
+     * @brief Indica si s'ha analitzat un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna cert si el node \p v té l'aixeta oberta i li arriba aigua, és a dir, si tancar-la canvia alguna cosa
+     */
+    public boolean analitzat(int v){
+        return arbre.arribat(v);
+    }
+
+    /**
+     * @brief Dominador immediat d'un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna el node més proper a \p v per on passa tota l'aigua que arriba a \p v, o -1 si no n'hi ha cap
+     *       (l'aigua hi arriba des de més d'un origen per camins disjunts, és un origen o no hi arriba aigua)
+     */
+    public int dominador(int v){
+        return arbre.dominador(v);
+    }
+
+    /**
+     * @brief Nombre de terminals afectats
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna el nombre de terminals que es quedarien sense aigua tancant l'aixeta de \p v
+     */
+    public int nombreTerminals(int v){
+        return terminals[v];
+    }
+
+    /**
+     * @brief Nombre d'abonats afectats
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna el nombre d'abonats que es quedarien sense aigua tancant l'aixeta de \p v
+     */
+    public int nombreAbonats(int v){
+        return abonats[v];
+    }
+
+    /**
+     * @brief Cabal perdut
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna la suma del cabal que reben ara els terminals que es quedarien sense aigua tancant l'aixeta de
+     *       \p v, o NaN si la component de \p v té cicles
+     */
+    public float cabalPerdut(int v){
+        return (float)cabals[v];
+    }
+
+    /**
+     * @brief Terminals afectats
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna els índexs dels terminals que es quedarien sense aigua tancant l'aixeta de \p v, en preordre de
+     *       l'arbre de dominadors
+     */
+    public int[] terminals(int v){
+        int[] resultat=new int[terminals[v]];
+        int t=0;
+        for(int i=arbre.posicio(v), fi=i+arbre.midaSubarbre(v); i<fi; i++){
+            if(graf.tipus(arbre.node(i))==GrafCompacte.TERMINAL){
+                resultat[t++]=arbre.node(i);
+            }
+        }
+        return resultat;
+    }
+
+    /**
+     * @brief Nodes analitzats ordenats per impacte
+     * @pre cert
+     * @post Retorna els índexs dels nodes analitzats, de més a menys cabal perdut (els de components amb cicles al
+     *       final), en cas d'empat de més a menys terminals afectats i, si encara empaten, alfabèticament
+     */
+    public int[] ordenats(){
+        int total=0;
+        for(int c=0; c<arbre.nombreComponents(); c++){
+            total+=arbre.nombreArribats(c);
+        }
+        Integer[] nodes=new Integer[total];
+        String[] ids=new String[graf.nombreNodes()]; //l'id només es construeix una vegada per node
+        int i=0;
+        for(int c=0; c<arbre.nombreComponents(); c++){
+            for(int p=arbre.inici(c); p<arbre.inici(c)+arbre.nombreArribats(c); p++){
+                nodes[i++]=arbre.node(p);
+            }
+        }
+        Arrays.sort(nodes, Comparator.<Integer>comparingDouble(v -> Double.isNaN(cabals[v]) ? Double.POSITIVE_INFINITY : -cabals[v])
+                           .thenComparingInt(v -> -terminals[v])
+                           .thenComparing(v -> ids[v]!=null ? ids[v] : (ids[v]=graf.id(v))));
+        int[] resultat=new int[total];
+        for(i=0; i<total; i++){
+            resultat[i]=nodes[i];
+        }
+        return resultat;
+    }
+}
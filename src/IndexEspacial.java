@@ -0,0 +1,361 @@
+/** @file IndexEspacial.java
+    @brief Classe IndexEspacial
+*/
+
+/** @class IndexEspacial
+    @brief Arbre k-d sobre les posicions dels nodes d'un graf compacte, com a vectors unitaris de l'esfera, per trobar
+           els nodes més propers a un punt o els que hi ha dins d'un radi en temps logarítmic.
+
+           La distància de corda entre vectors unitaris creix amb la distància sobre l'esfera, de manera que l'arbre
+           selecciona els candidats per corda (amb un marge petit per als errors d'arrodoniment) i el resultat final
+           s'ordena amb Coordenades.distancia i, en cas d'empat, per identificador, igual que GestorXarxes.nodesOrdenats.
+           Els nodes afegits després de construir l'arbre es recorren linealment fins que n'hi ha prou per reconstruir-lo.
+
+           Les consultes només llegeixen l'índex, i per tant se'n poden fer moltes alhora, sempre que estigui al dia.
+           L'índex es posa al dia el primer cop que es fa servir i, a partir d'aleshores, cada cop que s'afegeixen nodes.
+           Les coordenades es llegeixen del graf sense crear els nodes carregats en bloc.
+    @author Andy Moreno Ramon
+*/
+
+import java.util.*;
+
+public class IndexEspacial {
+    private static final double RADI_TERRA = 6371; ///< Radi de la Terra en kilòmetres, el mateix que fa servir Coordenades
+    private static final double MARGE_RELATIU = 1e-9; ///< Marge relatiu sobre la corda al quadrat per no perdre candidats per arrodoniment
+    private static final double MARGE_ABSOLUT = 1e-21; ///< Marge absolut sobre la corda al quadrat, per a distàncies molt petites
+    private static final int MINIM_PENDENTS = 64; ///< Nombre de nodes sense indexar a partir del qual es pot reconstruir l'arbre
+
+    private final GrafCompacte graf; ///< Graf del qual s'indexen els nodes
+    private double[] xs; ///< Coordenada x del vector unitari de cada node
+    private double[] ys; ///< Coordenada y del vector unitari de cada node
+    private double[] zs; ///< Coordenada z del vector unitari de cada node
+    private int[] arbre; ///< Nodes indexats; cada interval té el node de tall a la posició del mig
+    private int indexats; ///< Nombre de nodes (els primers del graf) que són a l'arbre
+    private int calculats; ///< Nombre de nodes dels quals ja s'ha calculat el vector unitari
+    private boolean enUs; ///< Cert si l'índex ja s'ha posat al dia alguna vegada, i per tant segueix els nodes afegits
+
+    /**
+     * @brief Crea un índex buit
+     * @pre cert
+     * @post L'índex indexarà els nodes de \p graf a mesura que es consulti
+     */
+    public IndexEspacial(GrafCompacte graf){
+        this.graf=graf;
+        xs=new double[16];
+        ys=new double[16];
+        zs=new double[16];
+        arbre=new int[0];
+    }
+
+    /**
+     * @brief Nodes més propers
+     * @pre \p k >= 0 i l'índex és al dia
+     * @post Retorna els índexs dels \p k nodes més propers a \p c (o tots si n'hi ha menys), ordenats per distància
+     *       i, en cas d'empat, per identificador
+     */
+    public int[] mesPropers(Coordenades c, int k){
+        if(k==0 || graf.nombreNodes()==0){
+            return new int[0];
+        }
+        double[] p=vector(c);
+        //primer trobem la k-èssima corda més petita, i després tots els nodes que hi cauen a dins amb el marge
+        double[] millors=new double[k]; //max-heap de cordes al quadrat
+        int[] mida={0};
+        buscarPropers(0, indexats, 0, p, millors, mida);
+        for(int v=indexats; v<graf.nombreNodes(); v++){
+            afegirMillor(millors, mida, corda2(v, p));
+        }
+        double limit=mida[0]<k ? Double.POSITIVE_INFINITY : millors[0];
+        int[] candidats=candidats(p, limit*(1+MARGE_RELATIU)+MARGE_ABSOLUT);
+        ordenar(candidats, c);
+        return candidats.length>k ? Arrays.copyOf(candidats, k) : candidats;
+    }
+
+    /**
+     * @brief Nodes dins d'un radi
+     * @pre \p radi >= 0 i l'índex és al dia
+     * @post Retorna els índexs dels nodes a distància com a molt \p radi km de \p c, ordenats per distància
+     *       i, en cas d'empat, per identificador
+     */
+    public int[] dinsRadi(Coordenades c, double radi){
+        double[] p=vector(c);
+        double corda=radi>=Math.PI*RADI_TERRA ? 2 : 2*Math.sin(radi/(2*RADI_TERRA));
+        int[] candidats=candidats(p, corda*corda*(1+MARGE_RELATIU)+MARGE_ABSOLUT);
+        int n=0;
+        for(int v : candidats){
+            if(graf.coordenades(v).distancia(c)<=radi){
+                candidats[n++]=v;
+            }
+        }
+        candidats=Arrays.copyOf(candidats, n);
+        ordenar(candidats, c);
+        return candidats;
+    }
+
+    /**
+     * @brief Ordena nodes per distància
+     * @pre Els elements de \p nodes són índexs de nodes
+     * @post \p nodes està ordenat per distància a \p c i, en cas d'empat, per identificador
+     */
+    private void ordenar(int[] nodes, Coordenades c){
+        Integer[] ordre=new Integer[nodes.length];
+        double[] distancies=new double[nodes.length];
+        for(int i=0; i<nodes.length; i++){
+            ordre[i]=i;
+            distancies[i]=graf.coordenades(nodes[i]).distancia(c);
+        }
+        Arrays.sort(ordre, (a, b) -> {
+            int comparacio=Double.compare(distancies[a], distancies[b]);
+            return comparacio!=0 ? comparacio : graf.id(nodes[a]).compareTo(graf.id(nodes[b]));
+        });
+        int[] ordenats=new int[nodes.length];
+        for(int i=0; i<nodes.length; i++){
+            ordenats[i]=nodes[ordre[i]];
+        }
+        System.arraycopy(ordenats, 0, nodes, 0, nodes.length);
+    }
+
+    /**
+     * @brief Nodes a corda petita
+     * @pre cert
+     * @post Retorna els índexs de tots els nodes amb corda al quadrat fins a \p p com a molt \p limit
+     */
+    private int[] candidats(double[] p, double limit){
+        int[] trobats=new int[16];
+        int[] mida={0};
+        trobats=buscarDins(0, indexats, 0, p, limit, trobats, mida);
+        for(int v=indexats; v<graf.nombreNodes(); v++){
+            if(corda2(v, p)<=limit){
+                if(mida[0]==trobats.length){
+                    trobats=Arrays.copyOf(trobats, mida[0]*2);
+                }
+                trobats[mida[0]++]=v;
+            }
+        }
+        return Arrays.copyOf(trobats, mida[0]);
+    }
+
+    /**
+     * @brief Cerca dels k més propers en un subarbre
+     * @pre [\p inici, \p fi) és un subarbre de profunditat \p nivell
+     * @post \p millors conté les cordes al quadrat més petites entre les que tenia i les del subarbre
+     */
+    private void buscarPropers(int inici, int fi, int nivell, double[] p, double[] millors, int[] mida){
+        if(inici>=fi){
+            return;
+        }
+        int mig=(inici+fi)>>>1;
+        int v=arbre[mig];
+        afegirMillor(millors, mida, corda2(v, p));
+        double diferencia=p[nivell%3]-coordenada(v, nivell%3);
+        //primer la banda on és el punt, i l'altra només si el pla de tall és més a prop que el pitjor dels millors
+        if(diferencia<0){
+            buscarPropers(inici, mig, nivell+1, p, millors, mida);
+            if(mida[0]<millors.length || diferencia*diferencia<=millors[0]){
+                buscarPropers(mig+1, fi, nivell+1, p, millors, mida);
+            }
+        }
+        else{
+            buscarPropers(mig+1, fi, nivell+1, p, millors, mida);
+            if(mida[0]<millors.length || diferencia*diferencia<=millors[0]){
+                buscarPropers(inici, mig, nivell+1, p, millors, mida);
+            }
+        }
+    }
+
+    /**
+     * @brief Afegeix una corda als millors
+     * @pre millors[0..mida) és un max-heap
+     * @post millors[0..mida) és un max-heap amb les millors.length cordes més petites entre les que hi havia i \p d
+     */
+    private static void afegirMillor(double[] millors, int[] mida, double d){
+        int i;
+        if(mida[0]<millors.length){
+            i=mida[0]++;
+            while(i>0 && millors[(i-1)/2]<d){ //pugem
+                millors[i]=millors[(i-1)/2];
+                i=(i-1)/2;
+            }
+            millors[i]=d;
+        }
+        else if(d<millors[0]){
+            i=0;
+            while(true){ //baixem
+                int fill=2*i+1;
+                if(fill>=mida[0]){
+                    break;
+                }
+                if(fill+1<mida[0] && millors[fill+1]>millors[fill]){
+                    fill++;
+                }
+                if(millors[fill]<=d){
+                    break;
+                }
+                millors[i]=millors[fill];
+                i=fill;
+            }
+            millors[i]=d;
+        }
+    }
+
+    /**
+     * @brief Cerca dins d'un límit en un subarbre
+     * @pre [\p inici, \p fi) és un subarbre de profunditat \p nivell
+     * @post S'han afegit a \p trobats (possiblement ampliat) els nodes del subarbre amb corda al quadrat com a molt \p limit
+     */
+    private int[] buscarDins(int inici, int fi, int nivell, double[] p, double limit, int[] trobats, int[] mida){
+        if(inici>=fi){
+            return trobats;
+        }
+        int mig=(inici+fi)>>>1;
+        int v=arbre[mig];
+        if(corda2(v, p)<=limit){
+            if(mida[0]==trobats.length){
+                trobats=Arrays.copyOf(trobats, mida[0]*2);
+            }
+            trobats[mida[0]++]=v;
+        }
+        double diferencia=p[nivell%3]-coordenada(v, nivell%3);
+        if(diferencia<=0 || diferencia*diferencia<=limit){
+            trobats=buscarDins(inici, mig, nivell+1, p, limit, trobats, mida);
+        }
+        if(diferencia>=0 || diferencia*diferencia<=limit){
+            trobats=buscarDins(mig+1, fi, nivell+1, p, limit, trobats, mida);
+        }
+        return trobats;
+    }
+
+    /**
+     * @brief Diu si l'índex és al dia
+     * @pre Cap fil no modifica el graf mentrestant
+     * @post Retorna cert si l'índex cobreix tots els nodes del graf, i per tant es pot consultar
+     */
+    public synchronized boolean alDia(){
+        return enUs && calculats==graf.nombreNodes();
+    }
+
+    /**
+     * @brief Segueix els nodes afegits
+     * @pre Qui crida modifica el graf en exclusiva i hi acaba d'afegir nodes
+     * @post Si l'índex ja s'ha fet servir, torna a ser al dia; si no, es posarà al dia quan es faci servir
+     */
+    public synchronized void afegits(){
+        if(enUs){
+            actualitzar();
+        }
+    }
+
+    /**
+     * @brief Posa l'índex al dia
+     * @pre Cap fil no modifica el graf mentrestant (però diversos fils que només el consulten poden cridar-lo alhora)
+     * @post S'han calculat els vectors de tots els nodes, i si hi ha prou nodes sense indexar s'ha reconstruït l'arbre
+     */
+    public synchronized void actualitzar(){
+        enUs=true;
+        int n=graf.nombreNodes();
+        if(n>xs.length){
+            int mida=Math.max(n, xs.length*2);
+            xs=Arrays.copyOf(xs, mida);
+            ys=Arrays.copyOf(ys, mida);
+            zs=Arrays.copyOf(zs, mida);
+        }
+        for(; calculats<n; calculats++){
+            double[] p=vector(graf.coordenades(calculats));
+            xs[calculats]=p[0];
+            ys[calculats]=p[1];
+            zs[calculats]=p[2];
+        }
+        if(n-indexats>Math.max(MINIM_PENDENTS, indexats/8)){
+            arbre=new int[n];
+            for(int v=0; v<n; v++){
+                arbre[v]=v;
+            }
+            construir(0, n, 0);
+            indexats=n;
+        }
+    }
+
+    /**
+     * @brief Construeix un subarbre
+     * @pre arbre[\p inici, \p fi) conté nodes
+     * @post arbre[\p inici, \p fi) està reordenat de manera que el node del mig separa, segons la coordenada nivell%3,
+     *       els de l'esquerra (menors o iguals) dels de la dreta (majors o iguals), i així recursivament
+     */
+    private void construir(int inici, int fi, int nivell){
+        if(fi-inici<=1){
+            return;
+        }
+        int mig=(inici+fi)>>>1;
+        seleccionar(inici, fi-1, mig, nivell%3);
+        construir(inici, mig, nivell+1);
+        construir(mig+1, fi, nivell+1);
+    }
+
+    /**
+     * @brief Selecció del k-èssim element (quickselect)
+     * @pre \p esquerra <= \p k <= \p dreta
+     * @post arbre[\p k] és el que hi hauria si arbre[\p esquerra, \p dreta] s'ordenés per la coordenada \p eix,
+     *       amb els menors o iguals a l'esquerra i els majors o iguals a la dreta
+     */
+    private void seleccionar(int esquerra, int dreta, int k, int eix){
+        while(esquerra<dreta){
+            double pivot=coordenada(arbre[(esquerra+dreta)>>>1], eix);
+            int i=esquerra;
+            int j=dreta;
+            while(i<=j){
+                while(coordenada(arbre[i], eix)<pivot){
+                    i++;
+                }
+                while(coordenada(arbre[j], eix)>pivot){
+                    j--;
+                }
+                if(i<=j){
+                    int aux=arbre[i];
+                    arbre[i]=arbre[j];
+                    arbre[j]=aux;
+                    i++;
+                    j--;
+                }
+            }
+            if(k<=j){
+                dreta=j;
+            }
+            else if(k>=i){
+                esquerra=i;
+            }
+            else{
+                return;
+            }
+        }
+    }
+
+    /**
+     * @brief Coordenada d'un node
+     * @pre 0 <= \p v < calculats, 0 <= \p eix < 3
+     * @post Retorna la coordenada x, y o z del vector unitari del node \p v
+     */
+    private double coordenada(int v, int eix){
+        return eix==0 ? xs[v] : eix==1 ? ys[v] : zs[v];
+    }
+
+    /**
+     * @brief Corda al quadrat
+     * @pre 0 <= \p v < calculats
+     * @post Retorna el quadrat de la distància en línia recta entre el vector del node \p v i \p p
+     */
+    private double corda2(int v, double[] p){
+        double dx=xs[v]-p[0];
+        double dy=ys[v]-p[1];
+        double dz=zs[v]-p[2];
+        return dx*dx+dy*dy+dz*dz;
+    }
+
+    /**
+     * @brief Vector unitari
+     * @pre cert
+     * @post Retorna el punt de l'esfera de radi 1 corresponent a \p c
+     */
+    private static double[] vector(Coordenades c){
+        return new double[]{c.x(), c.y(), c.z()};
+    }
+}
@@ -0,0 +1,630 @@
+/** @file Instantania.java
+    @brief Classe Instantania
+*/
+
+/** @class Instantania
+    @brief Format binari versionat per desar l'estat complet d'una Xarxa i tornar-la a carregar sense reproduir les
+           ordres del fitxer d'entrada.
+
+           El fitxer té una capçalera amb el número màgic, la versió i les mides, seguida de seccions de vectors
+           primitius en little endian, cadascuna alineada a 8 bytes:
+           - nodes: identificadors (posicions d'inici i bytes UTF-8), tipus, latituds, longituds, aixetes tancades
+             (bits), demandes actuals, demandes punta i cabals dels orígens;
+           - canonades: node d'inici, node destí i capacitat;
+           - abonats: identificadors dels clients i, per cada terminal, els clients que hi estan abonats;
+           - historial: cada operació codificada com a Historial::operacio (node*4+tipus) i el seu valor; les
+             nRefer últimes són les desfetes que es poden refer.
+
+           En carregar, cada secció es projecta a memòria amb FileChannel.map i es copia en bloc als vectors del
+           GrafCompacte, que construeix el CSR i les components d'una sola passada. Els objectes Nodo i Canonada no es
+           creen fins que es consulten: aquesta classe fa de GrafCompacte.FontNodes per als nodes carregats.
+    @author Miquel Coll Barneto
+*/
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+public class Instantania implements GrafCompacte.FontNodes {
+    private static final int MAGIC = 0x42575853; ///< Número màgic del format ("BWXS")
+    public static final int VERSIO = 1; ///< Versió del format que s'escriu
+    private static final int MIDA_CAPCALERA = 56; ///< Mida de la capçalera en bytes
+
+    private final String[] ids; ///< Identificador de cada node
+    private final double[] latituds; ///< Latitud de cada node
+    private final double[] longituds; ///< Longitud de cada node
+    private final float[] demandesPunta; ///< Demanda punta de cada terminal, 0 per a la resta
+    private final String[] clients; ///< Identificador de cada client
+    private final int[] iniciAbonats; ///< Posició a abonaments on comencen els clients de cada node
+    private final int[] abonaments; ///< Clients abonats, agrupats per terminal
+    private GrafCompacte graf; ///< Graf carregat, d'on es llegeix l'estat actual dels nodes en crear-los
+
+    /**
+     * @brief Crea l'origen dels nodes d'una instantània carregada
+     * @pre Els vectors de nodes tenen la mateixa mida, i iniciAbonats una més
+     * @post Els vectors passen a ser de la instantània
+     */
+    private Instantania(String[] ids, double[] latituds, double[] longituds, float[] demandesPunta, String[] clients,
+                        int[] iniciAbonats, int[] abonaments){
+        this.ids=ids;
+        this.latituds=latituds;
+        this.longituds=longituds;
+        this.demandesPunta=demandesPunta;
+        this.clients=clients;
+        this.iniciAbonats=iniciAbonats;
+        this.abonaments=abonaments;
+    }
+
+    /**
+     * @brief Identificador d'un node
+     * @pre 0 <= \p v < nombre de nodes carregats
+     * @post Retorna l'identificador del node \p v
+     */
+    @Override
+    public String id(int v){
+        return ids[v];
+    }
+
+    /**
+     * @brief Coordenades d'un node
+     * @pre 0 <= \p v < nombre de nodes carregats
+     * @post Retorna les coordenades desades del node \p v
+     */
+    @Override
+    public Coordenades coordenades(int v){
+        return new Coordenades(latituds[v], longituds[v]);
+    }
+
+    /**
+     * @brief Nombre d'abonats d'un node
+     * @pre 0 <= \p v < nombre de nodes carregats
+     * @post Retorna el nombre de clients desats com a abonats del node \p v
+     */
+    @Override
+    public int nombreAbonats(int v){
+        return iniciAbonats[v+1]-iniciAbonats[v];
+    }
+
+    /**
+     * @brief Crea un node
+     * @pre 0 <= \p v < nombre de nodes carregats
+     * @post Retorna un node nou amb l'identificador, les coordenades i els abonats desats, i el tipus, l'aixeta,
+     *       el cabal i la demanda que té ara el node \p v al graf
+     */
+    @Override
+    public Nodo node(int v){
+        Coordenades c=new Coordenades(latituds[v], longituds[v]);
+        Nodo n;
+        if(graf.tipus(v)==GrafCompacte.ORIGEN){
+            Origen o=new Origen(ids[v], c);
+            o.establirCabal(graf.cabalOrigen(v));
+            n=o;
+        }
+        else if(graf.tipus(v)==GrafCompacte.TERMINAL){
+            Terminal t=new Terminal(ids[v], c, demandesPunta[v]);
+            t.establirDemandaActual(graf.demanda(v));
+            for(int i=iniciAbonats[v]; i<iniciAbonats[v+1]; i++){
+                t.nouAbonat(clients[abonaments[i]]);
+            }
+            n=t;
+        }
+        else{
+            n=new Connexio(ids[v], c);
+        }
+        if(!graf.aixetaOberta(v)){
+            n.tancarAixeta();
+        }
+        return n;
+    }
+
+    /**
+     * @brief Desa una xarxa
+     * @pre \p graf i \p historial són el graf i l'historial d'una xarxa
+     * @post S'ha escrit a \p fitxer una instantània de la xarxa. S'escriu primer en un fitxer temporal al mateix
+     *       directori que després substitueix \p fitxer, de manera que mai queda una instantània a mitges.
+     * @throws IOException si no es pot escriure el fitxer
+     */
+    static void desar(GrafCompacte graf, Historial historial, Path fitxer) throws IOException {
+        int n=graf.nombreNodes();
+        int m=graf.nombreCanonades();
+        Instantania font=graf.fontNodes() instanceof Instantania ? (Instantania)graf.fontNodes() : null;
+
+        //identificadors i clients, que tenen mida variable
+        byte[][] bytesIds=new byte[n][];
+        long midaIds=0;
+        for(int v=0; v<n; v++){
+            bytesIds[v]=graf.id(v).getBytes(StandardCharsets.UTF_8);
+            midaIds+=bytesIds[v].length;
+        }
+        Map<String,Integer> indexClients=new LinkedHashMap<>();
+        int[] iniciAbonats=new int[n+1];
+        int[] abonaments=new int[16];
+        for(int v=0; v<n; v++){
+            iniciAbonats[v+1]=iniciAbonats[v];
+            if(graf.tipus(v)!=GrafCompacte.TERMINAL){
+                continue;
+            }
+            Collection<String> abonatsNode;
+            //en una bifurcació, el terminal de l'original pot tenir abonats que no són a font
+            Nodo node=graf.esBifurcacio() ? graf.node(v) : nodeDesat(graf, font, v);
+            if(node!=null){
+                abonatsNode=((Terminal)node).abonats();
+            }
+            else{
+                abonatsNode=new ArrayList<>();
+                for(int i=font.iniciAbonats[v]; i<font.iniciAbonats[v+1]; i++){
+                    abonatsNode.add(font.clients[font.abonaments[i]]);
+                }
+            }
+            for(String client : abonatsNode){
+                if(iniciAbonats[v+1]==abonaments.length){
+                    abonaments=Arrays.copyOf(abonaments, abonaments.length*2);
+                }
+                Integer k=indexClients.putIfAbsent(client, indexClients.size());
+                abonaments[iniciAbonats[v+1]++]=k==null ? indexClients.size()-1 : k;
+            }
+        }
+        byte[][] bytesClients=new byte[indexClients.size()][];
+        long midaClients=0;
+        int k=0;
+        for(String client : indexClients.keySet()){
+            bytesClients[k]=client.getBytes(StandardCharsets.UTF_8);
+            midaClients+=bytesClients[k++].length;
+        }
+        if(midaIds>Integer.MAX_VALUE || midaClients>Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Els identificadors no caben en una instantània");
+        }
+
+        Path temporal=fitxer.resolveSibling(fitxer.getFileName() + ".tmp");
+        try(FileChannel canal=FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)){
+            Escriptor out=new Escriptor(canal);
+            out.enter(MAGIC);
+            out.enter(VERSIO);
+            out.enter(n);
+            out.enter(m);
+            out.enter(bytesClients.length);
+            out.enter(iniciAbonats[n]);
+            int nOperacions=historial.mida()+historial.nombreRefer();
+            out.enter(nOperacions);
+            out.enter(historial.nombreRefer());
+            out.enter(historial.profunditat());
+            out.enter(0);
+            out.llarg(midaIds);
+            out.llarg(midaClients);
+
+            escriureTextos(out, bytesIds);
+            for(int v=0; v<n; v++){
+                out.octet(graf.tipus(v));
+            }
+            out.alinear();
+            for(int v=0; v<n; v++){
+                Nodo node=nodeDesat(graf, font, v);
+                out.real(node!=null ? node.coordenades().getLatitud() : font.latituds[v]);
+            }
+            for(int v=0; v<n; v++){
+                Nodo node=nodeDesat(graf, font, v);
+                out.real(node!=null ? node.coordenades().getLongitud() : font.longituds[v]);
+            }
+            long paraula=0;
+            for(int v=0; v<n; v++){
+                if(!graf.aixetaOberta(v)){
+                    paraula|=1L<<v;
+                }
+                if((v&63)==63 || v==n-1){
+                    out.llarg(paraula);
+                    paraula=0;
+                }
+            }
+            for(int v=0; v<n; v++){
+                out.flotant(graf.demanda(v));
+            }
+            out.alinear();
+            for(int v=0; v<n; v++){
+                Nodo node=nodeDesat(graf, font, v);
+                out.flotant(graf.tipus(v)!=GrafCompacte.TERMINAL ? 0 : node!=null ? ((Terminal)node).demandaPunta() : font.demandesPunta[v]);
+            }
+            out.alinear();
+            for(int v=0; v<n; v++){
+                out.flotant(graf.cabalOrigen(v));
+            }
+            out.alinear();
+
+            for(int e=0; e<m; e++){
+                out.enter(graf.font(e));
+            }
+            out.alinear();
+            for(int e=0; e<m; e++){
+                out.enter(graf.desti(e));
+            }
+            out.alinear();
+            for(int e=0; e<m; e++){
+                out.flotant(graf.capacitat(e));
+            }
+            out.alinear();
+
+            escriureTextos(out, bytesClients);
+            for(int v=0; v<=n; v++){
+                out.enter(iniciAbonats[v]);
+            }
+            out.alinear();
+            for(int i=0; i<iniciAbonats[n]; i++){
+                out.enter(abonaments[i]);
+            }
+            out.alinear();
+            for(int i=0; i<nOperacions; i++){
+                out.enter(historial.operacio(i));
+            }
+            out.alinear();
+            for(int i=0; i<nOperacions; i++){
+                out.enter(historial.valor(i));
+            }
+            out.alinear();
+            out.buidar();
+            canal.force(true);
+        }
+        try{
+            Files.move(temporal, fitxer, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(AtomicMoveNotSupportedException e){
+            Files.move(temporal, fitxer, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @brief Node d'on es desen les dades que no són al graf
+     * @pre 0 <= \p v < graf.nombreNodes() i \p font és l'origen dels nodes de \p graf si és una Instantania, o null
+     * @post Retorna el node \p v si ja s'ha creat o no hi ha cap Instantania d'on llegir-ne les dades (una bifurcació
+     *       d'un graf que no s'ha carregat en bloc), o null si s'han de llegir de \p font
+     */
+    private static Nodo nodeDesat(GrafCompacte graf, Instantania font, int v){
+        Nodo node=graf.nodeCreat(v);
+        return node==null && font==null ? graf.node(v) : node;
+    }
+
+    /**
+     * @brief Escriu una secció de textos
+     * @pre cert
+     * @post S'han escrit les posicions d'inici de cada text (una més que textos) i els bytes de tots els textos seguits,
+     *       cada part alineada a 8 bytes
+     */
+    private static void escriureTextos(Escriptor out, byte[][] textos) throws IOException {
+        int posicio=0;
+        out.enter(0);
+        for(byte[] text : textos){
+            posicio+=text.length;
+            out.enter(posicio);
+        }
+        out.alinear();
+        for(byte[] text : textos){
+            out.octets(text);
+        }
+        out.alinear();
+    }
+
+    /**
+     * @brief Carrega una xarxa
+     * @pre cert
+     * @post Retorna la xarxa desada a \p fitxer
+     * @throws IOException si no es pot llegir el fitxer
+     * @throws IllegalArgumentException si el fitxer no és una instantània, n'és d'una versió no suportada o està malmès
+     */
+    static Xarxa carregar(Path fitxer) throws IOException {
+        try(FileChannel canal=FileChannel.open(fitxer, StandardOpenOption.READ)){
+            Lector in=new Lector(canal);
+            ByteBuffer capcalera=in.seccio(8);
+            if(capcalera.getInt()!=MAGIC){
+                throw new IllegalArgumentException("El fitxer no és una instantània de xarxa");
+            }
+            int versio=capcalera.getInt();
+            if(versio!=VERSIO){
+                throw new IllegalArgumentException("Versió d'instantània no suportada: " + versio);
+            }
+            capcalera=in.seccio(MIDA_CAPCALERA-8);
+            int n=capcalera.getInt();
+            int m=capcalera.getInt();
+            int nClients=capcalera.getInt();
+            int nAbonaments=capcalera.getInt();
+            int nOperacions=capcalera.getInt();
+            int nRefer=capcalera.getInt();
+            int profunditat=capcalera.getInt();
+            capcalera.getInt();
+            long midaIds=capcalera.getLong();
+            long midaClients=capcalera.getLong();
+            if(n<0 || m<0 || nClients<0 || nAbonaments<0 || nOperacions<0 || midaIds<0 || midaClients<0
+               || nRefer<0 || nRefer>nOperacions || profunditat<1 || profunditat<nOperacions){
+                throw new IllegalArgumentException("Instantània malmesa");
+            }
+
+            String[] ids=in.textos(n, midaIds);
+            byte[] tipus=in.octets(n);
+            double[] latituds=in.reals(n);
+            double[] longituds=in.reals(n);
+            BitSet tancades=BitSet.valueOf(in.llargs((n+63)/64));
+            float[] demandes=in.flotants(n);
+            float[] demandesPunta=in.flotants(n);
+            float[] cabals=in.flotants(n);
+            int[] fonts=in.enters(m);
+            int[] destins=in.enters(m);
+            float[] capacitats=in.flotants(m);
+            String[] clients=in.textos(nClients, midaClients);
+            int[] iniciAbonats=in.enters(n+1);
+            int[] abonaments=in.enters(nAbonaments);
+            int[] operacions=in.enters(nOperacions);
+            int[] valors=in.enters(nOperacions);
+
+            for(int v=0; v<n; v++){
+                if(tipus[v]<GrafCompacte.ORIGEN || tipus[v]>GrafCompacte.TERMINAL || iniciAbonats[v]>iniciAbonats[v+1]){
+                    throw new IllegalArgumentException("Instantània malmesa");
+                }
+            }
+            for(int e=0; e<m; e++){
+                if(fonts[e]<0 || fonts[e]>=n || destins[e]<0 || destins[e]>=n){
+                    throw new IllegalArgumentException("Instantània malmesa");
+                }
+            }
+            if(iniciAbonats[0]!=0 || iniciAbonats[n]!=nAbonaments){
+                throw new IllegalArgumentException("Instantània malmesa");
+            }
+            for(int i=0; i<nAbonaments; i++){
+                if(abonaments[i]<0 || abonaments[i]>=nClients){
+                    throw new IllegalArgumentException("Instantània malmesa");
+                }
+            }
+
+            Instantania font=new Instantania(ids, latituds, longituds, demandesPunta, clients, iniciAbonats, abonaments);
+            GrafCompacte graf=new GrafCompacte(font, tipus, demandes, cabals, tancades, fonts, destins, capacitats);
+            font.graf=graf;
+
+            //cada client va al terminal de menor índex, i els terminals estan en ordre
+            Map<String,Integer> abonats=new HashMap<>(nClients*4/3+1);
+            for(int v=0; v<n; v++){
+                for(int i=iniciAbonats[v]; i<iniciAbonats[v+1]; i++){
+                    abonats.putIfAbsent(clients[abonaments[i]], v);
+                }
+            }
+            for(int i=0; i<nOperacions; i++){
+                if(operacions[i]>>>2>=n){
+                    throw new IllegalArgumentException("Instantània malmesa");
+                }
+            }
+            return new Xarxa(graf, abonats, new Historial(profunditat, operacions, valors, nRefer));
+        }
+    }
+
+    /** @brief Escriptura de valors primitius en little endian a un canal, amb un buffer intermedi */
+    private static class Escriptor {
+        private final FileChannel canal; ///< Canal on s'escriu
+        private final ByteBuffer buffer; ///< Bytes pendents d'escriure
+        private long escrits; ///< Nombre total de bytes escrits, inclosos els pendents
+
+        /**
+         * @brief Crea un escriptor
+         * @pre \p canal és obert per escriure
+         * @post Crea un escriptor que escriu al principi de \p canal
+         */
+        Escriptor(FileChannel canal){
+            this.canal=canal;
+            buffer=ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * @brief Fa lloc al buffer
+         * @pre \p bytes <= mida del buffer
+         * @post Hi ha com a mínim \p bytes bytes lliures al buffer
+         */
+        private void reservar(int bytes) throws IOException {
+            if(buffer.remaining()<bytes){
+                buidar();
+            }
+            escrits+=bytes;
+        }
+
+        /**
+         * @brief Escriu un enter de 4 bytes
+         * @pre cert
+         * @post S'ha escrit \p valor en 4 bytes
+         */
+        void enter(int valor) throws IOException {
+            reservar(4);
+            buffer.putInt(valor);
+        }
+
+        /**
+         * @brief Escriu un enter de 8 bytes
+         * @pre cert
+         * @post S'ha escrit \p valor en 8 bytes
+         */
+        void llarg(long valor) throws IOException {
+            reservar(8);
+            buffer.putLong(valor);
+        }
+
+        /**
+         * @brief Escriu un real de 4 bytes
+         * @pre cert
+         * @post S'ha escrit \p valor en 4 bytes
+         */
+        void flotant(float valor) throws IOException {
+            reservar(4);
+            buffer.putFloat(valor);
+        }
+
+        /**
+         * @brief Escriu un real de 8 bytes
+         * @pre cert
+         * @post S'ha escrit \p valor en 8 bytes
+         */
+        void real(double valor) throws IOException {
+            reservar(8);
+            buffer.putDouble(valor);
+        }
+
+        /**
+         * @brief Escriu un byte
+         * @pre cert
+         * @post S'ha escrit \p valor
+         */
+        void octet(byte valor) throws IOException {
+            reservar(1);
+            buffer.put(valor);
+        }
+
+        /**
+         * @brief Escriu uns bytes
+         * @pre cert
+         * @post S'han escrit tots els bytes de \p valors
+         */
+        void octets(byte[] valors) throws IOException {
+            for(int i=0; i<valors.length; ){
+                if(!buffer.hasRemaining()){
+                    buidar();
+                }
+                int mida=Math.min(valors.length-i, buffer.remaining());
+                buffer.put(valors, i, mida);
+                escrits+=mida;
+                i+=mida;
+            }
+        }
+
+        /**
+         * @brief Alinea la posició
+         * @pre cert
+         * @post S'han escrit zeros fins que el nombre de bytes escrits és múltiple de 8
+         */
+        void alinear() throws IOException {
+            while((escrits&7)!=0){
+                octet((byte)0);
+            }
+        }
+
+        /**
+         * @brief Buida el buffer
+         * @pre cert
+         * @post Tots els bytes pendents s'han escrit al canal
+         */
+        void buidar() throws IOException {
+            buffer.flip();
+            while(buffer.hasRemaining()){
+                canal.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /** @brief Lectura de les seccions d'una instantània projectant-les a memòria */
+    private static class Lector {
+        private final FileChannel canal; ///< Canal d'on es llegeix
+        private long posicio; ///< Posició de la següent secció
+
+        /**
+         * @brief Crea un lector
+         * @pre \p canal és obert per llegir
+         * @post Crea un lector que llegeix des del principi de \p canal
+         */
+        Lector(FileChannel canal){
+            this.canal=canal;
+        }
+
+        /**
+         * @brief Projecta la secció següent
+         * @pre \p bytes >= 0
+         * @post Retorna els \p bytes bytes següents del fitxer en little endian, i avança fins a la següent posició
+         *       alineada a 8 bytes
+         * @throws IllegalArgumentException si el fitxer s'acaba abans
+         */
+        ByteBuffer seccio(long bytes) throws IOException {
+            if(bytes>Integer.MAX_VALUE || posicio+bytes>canal.size()){
+                throw new IllegalArgumentException("Instantània incompleta o malmesa");
+            }
+            ByteBuffer b=bytes==0 ? ByteBuffer.allocate(0) : canal.map(FileChannel.MapMode.READ_ONLY, posicio, bytes);
+            posicio+=(bytes+7)&~7L;
+            return b.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /**
+         * @brief Llegeix una secció d'enters de 4 bytes
+         * @pre \p n >= 0
+         * @post Retorna els \p n enters de la secció següent
+         * @throws IllegalArgumentException si el fitxer s'acaba abans
+         */
+        int[] enters(int n) throws IOException {
+            int[] valors=new int[n];
+            seccio(4L*n).asIntBuffer().get(valors);
+            return valors;
+        }
+
+        /**
+         * @brief Llegeix una secció d'enters de 8 bytes
+         * @pre \p n >= 0
+         * @post Retorna els \p n enters de la secció següent
+         * @throws IllegalArgumentException si el fitxer s'acaba abans
+         */
+        long[] llargs(int n) throws IOException {
+            long[] valors=new long[n];
+            seccio(8L*n).asLongBuffer().get(valors);
+            return valors;
+        }
+
+        /**
+         * @brief Llegeix una secció de reals de 4 bytes
+         * @pre \p n >= 0
+         * @post Retorna els \p n reals de la secció següent
+         * @throws IllegalArgumentException si el fitxer s'acaba abans
+         */
+        float[] flotants(int n) throws IOException {
+            float[] valors=new float[n];
+            seccio(4L*n).asFloatBuffer().get(valors);
+            return valors;
+        }
+
+        /**
+         * @brief Llegeix una secció de reals de 8 bytes
+         * @pre \p n >= 0
+         * @post Retorna els \p n reals de la secció següent
+         * @throws IllegalArgumentException si el fitxer s'acaba abans
+         */
+        double[] reals(int n) throws IOException {
+            double[] valors=new double[n];
+            seccio(8L*n).asDoubleBuffer().get(valors);
+            return valors;
+        }
+
+        /**
+         * @brief Llegeix una secció de bytes
+         * @pre \p n >= 0
+         * @post Retorna els \p n bytes de la secció següent
+         * @throws IllegalArgumentException si el fitxer s'acaba abans
+         */
+        byte[] octets(int n) throws IOException {
+            byte[] valors=new byte[n];
+            seccio(n).get(valors);
+            return valors;
+        }
+
+        /**
+         * @brief Llegeix una secció de textos
+         * @pre \p n >= 0
+         * @post Retorna els \p n textos d'una secció escrita amb escriureTextos, amb \p bytes bytes en total
+         * @throws IllegalArgumentException si les posicions no són coherents
+         */
+        String[] textos(int n, long bytes) throws IOException {
+            int[] inicis=enters(n+1);
+            if(bytes>Integer.MAX_VALUE){
+                throw new IllegalArgumentException("Instantània malmesa");
+            }
+            byte[] dades=octets((int)bytes);
+            String[] textos=new String[n];
+            for(int i=0; i<n; i++){
+                if(inicis[i]<0 || inicis[i]>inicis[i+1] || inicis[i+1]>dades.length){
+                    throw new IllegalArgumentException("Instantània malmesa");
+                }
+                textos[i]=new String(dades, inicis[i], inicis[i+1]-inicis[i], StandardCharsets.UTF_8);
+            }
+            return textos;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/** @file LotCoordenades.java
+    @brief Classe LotCoordenades
+*/
+
+/** @class LotCoordenades
+    @brief Conjunt de coordenades empaquetades en vectors primitius (els punts de l'esfera unitat, un vector per eix),
+           per calcular d'una sola vegada les distàncies d'un punt a totes.
+
+           El càlcul es fa en dues passades: la primera obté la corda entre els punts de l'esfera només amb sumes i
+           productes sobre vectors contigus, que el compilador JIT pot vectoritzar, i la segona la converteix en distància
+           sobre l'esfera amb un sol atan2 per punt, en lloc dels dos sinus i l'atan2 de Coordenades.distancia.
+           La fórmula és equivalent a la de Haversine, i el resultat difereix del de Coordenades.distancia com a molt
+           TOLERANCIA km per errors d'arrodoniment fins a DISTANCIA_TOLERANCIA km. Prop dels antípodes les dues fórmules
+           perden precisió i la diferència pot arribar a TOLERANCIA_ANTIPODES km.
+    @author Miquel Coll Barneto
+*/
+
+import java.util.*;
+
+public class LotCoordenades {
+    public static final double TOLERANCIA = 1e-9; ///< Diferència màxima, en km, amb el resultat de Coordenades.distancia
+    public static final double DISTANCIA_TOLERANCIA = 19000; ///< Distància, en km, fins a la qual es garanteix TOLERANCIA
+    public static final double TOLERANCIA_ANTIPODES = 1e-3; ///< Diferència màxima, en km, per a distàncies més grans
+
+    private double[] xs; ///< Coordenada x de cada punt de l'esfera unitat
+    private double[] ys; ///< Coordenada y de cada punt de l'esfera unitat
+    private double[] zs; ///< Coordenada z de cada punt de l'esfera unitat
+    private int mida; ///< Nombre de coordenades del lot
+
+    /**
+     * @brief Crea un lot buit
+     * @pre cert
+     * @post Crea un lot sense cap coordenada
+     */
+    public LotCoordenades(){
+        xs=new double[16];
+        ys=new double[16];
+        zs=new double[16];
+    }
+
+    /**
+     * @brief Crea un lot amb unes coordenades
+     * @pre cert
+     * @post Crea un lot amb les coordenades de \p coordenades, en el mateix ordre
+     */
+    public LotCoordenades(Collection<Coordenades> coordenades){
+        this();
+        for(Coordenades c : coordenades){
+            afegir(c);
+        }
+    }
+
+    /**
+     * @brief Afegeix unes coordenades
+     * @pre cert
+     * @post \p c és l'últim element del lot
+     */
+    public void afegir(Coordenades c){
+        if(mida==xs.length){
+            xs=Arrays.copyOf(xs, mida*2);
+            ys=Arrays.copyOf(ys, mida*2);
+            zs=Arrays.copyOf(zs, mida*2);
+        }
+        xs[mida]=c.x();
+        ys[mida]=c.y();
+        zs[mida]=c.z();
+        mida++;
+    }
+
+    /**
+     * @brief Nombre de coordenades
+     * @pre cert
+     * @post Retorna el nombre de coordenades del lot
+     */
+    public int mida(){
+        return mida;
+    }
+
+    /**
+     * @brief Distàncies a un punt
+     * @pre cert
+     * @post Retorna un vector amb la distància en km de \p c a cada coordenada del lot, en el mateix ordre
+     */
+    public double[] distancies(Coordenades c){
+        double[] resultat=new double[mida];
+        distancies(c, resultat);
+        return resultat;
+    }
+
+    /**
+     * @brief Distàncies a un punt
+     * @pre resultat.length >= mida()
+     * @post resultat[i] és la distància en km de \p c a la i-èssima coordenada del lot, per a 0 <= i < mida()
+     */
+    public void distancies(Coordenades c, double[] resultat){
+        if(resultat.length<mida){
+            throw new IllegalArgumentException("El vector de resultats és massa petit");
+        }
+        double x=c.x();
+        double y=c.y();
+        double z=c.z();
+        //quadrat de la meitat de la corda, que és el terme a de la fórmula de Haversine
+        for(int i=0; i<mida; i++){
+            double dx=xs[i]-x;
+            double dy=ys[i]-y;
+            double dz=zs[i]-z;
+            resultat[i]=(dx*dx+dy*dy+dz*dz)*0.25;
+        }
+        for(int i=0; i<mida; i++){
+            double a=Math.min(resultat[i], 1);
+            resultat[i]=2*Coordenades.radiTerra*Math.atan2(Math.sqrt(a), Math.sqrt(1-a));
+        }
+    }
+}
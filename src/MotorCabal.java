@@ -0,0 +1,476 @@
+/** @file MotorCabal.java
+    @brief Classe MotorCabal
+*/
+
+/** @class MotorCabal
+    @brief Calcula i guarda la demanda i el cabal teòrics dels nodes i canonades d'una xarxa. Quan la xarxa canvia només es
+           descarten els valors afectats pel canvi, i la següent consulta només recalcula aquesta regió en ordre topològic.
+           El tipus, l'aixeta i el cabal de cada node són sempre els que té ara al graf: un origen que s'ha convertit en
+           connexió en connectar-hi una canonada ja no aporta el seu cabal anterior a les canonades que en surten.
+    @author Miquel Coll Barneto
+*/
+
+import java.util.*;
+
+public class MotorCabal {
+    private final GrafCompacte graf; ///< Graf sobre el qual es fan els càlculs
+    private float[] demandes; ///< Demanda calculada de cada node
+    private float[] cabals; ///< Cabal calculat de cada node
+    private float[] demandesPropagades; ///< Demanda propagada de cada canonada, vàlida si la demanda del seu destí ho és
+    private float[] cabalsCanonades; ///< Cabal de cada canonada, vàlid si el cabal del seu node d'inici ho és
+    private final BitSet demandaCalculada; ///< Nodes amb la demanda calculada
+    private final BitSet cabalCalculat; ///< Nodes amb el cabal calculat
+
+    private int[] regioDemanda; ///< Nodes de la regió on s'està recalculant la demanda (i cua del recorregut)
+    private int[] regioCabal; ///< Nodes de la regió on s'està recalculant el cabal (i cua del recorregut)
+    private int[] marcaDemanda; ///< Època en què cada node s'ha afegit a regioDemanda
+    private int[] marcaCabal; ///< Època en què cada node s'ha afegit a regioCabal
+    private int[] pendents; ///< Veïns de la regió que falten per processar de cada node
+    private int[] preparats; ///< Cua de nodes a punt per calcular
+    private int epoca; ///< Època del recorregut actual
+
+    /**
+     * @brief Crea un motor de càlcul de cabals
+     * @pre \p graf no és null
+     * @post Crea un motor associat a \p graf sense cap valor calculat
+     */
+    public MotorCabal(GrafCompacte graf){
+        this.graf=graf;
+        demandes=new float[0];
+        cabals=new float[0];
+        demandesPropagades=new float[0];
+        cabalsCanonades=new float[0];
+        demandaCalculada=new BitSet();
+        cabalCalculat=new BitSet();
+        regioDemanda=new int[0];
+        regioCabal=new int[0];
+        marcaDemanda=new int[0];
+        marcaCabal=new int[0];
+        pendents=new int[0];
+        preparats=new int[0];
+    }
+
+    /**
+     * @brief Invalida la demanda d'un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post S'han descartat la demanda de \p v i de tots els nodes des d'on s'hi arriba, la demanda propagada de les
+     *       seves entrades, i el cabal de tots aquests nodes i dels nodes on arriben. La resta de valors es conserven.
+     */
+    public void invalidarDemanda(int v){
+        if(resCalculat()){
+            return;
+        }
+        assegurarCapacitat();
+        int n=0;
+        if(demandaCalculada.get(v)){ //si no hi era, tampoc hi és la dels nodes anteriors
+            demandaCalculada.clear(v);
+            regioDemanda[n++]=v;
+        }
+        for(int i=0; i<n; i++){
+            int w=regioDemanda[i];
+            for(int k=0, grau=graf.grauEntrada(w); k<grau; k++){
+                int anterior=graf.font(graf.entrada(w, k));
+                if(demandaCalculada.get(anterior)){
+                    demandaCalculada.clear(anterior);
+                    regioDemanda[n++]=anterior;
+                }
+            }
+        }
+        if(n==0){
+            invalidarCabal(v);
+        }
+        else{
+            invalidarCabals(regioDemanda, n);
+        }
+    }
+
+    /**
+     * @brief Invalida el cabal d'un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post S'ha descartat el cabal de \p v, dels nodes on s'arriba des de \p v i de les seves sortides.
+     *       La resta de valors es conserven.
+     */
+    public void invalidarCabal(int v){
+        if(resCalculat()){
+            return;
+        }
+        assegurarCapacitat();
+        regioCabal[0]=v;
+        invalidarCabals(regioCabal, 1);
+    }
+
+    /**
+     * @brief Diu si no hi ha res calculat
+     * @pre cert
+     * @post Retorna cert si no es guarda cap demanda ni cap cabal, i per tant no cal invalidar res (ni reservar els
+     *       vectors de càlcul, per exemple en una bifurcació que encara no s'ha consultat)
+     */
+    private boolean resCalculat(){
+        return demandaCalculada.isEmpty() && cabalCalculat.isEmpty();
+    }
+
+    /**
+     * @brief Invalida molts nodes de cop
+     * @pre Els primers \p nDemandes elements de \p demandes i els primers \p nCabals de \p cabals són índexs de nodes
+     * @post El mateix que invalidarDemanda per cada node de \p demandes i invalidarCabal per cada node de \p cabals,
+     *       però recorrent cada node afectat com a molt una vegada encara que ho estigui per més d'un canvi
+     */
+    public void invalidar(int[] demandes, int nDemandes, int[] cabals, int nCabals){
+        if(resCalculat()){
+            return;
+        }
+        assegurarCapacitat();
+        int n=0;
+        for(int i=0; i<nDemandes; i++){
+            int v=demandes[i];
+            if(demandaCalculada.get(v)){
+                demandaCalculada.clear(v);
+                regioDemanda[n++]=v;
+            }
+        }
+        for(int i=0; i<n; i++){
+            int w=regioDemanda[i];
+            for(int k=0, grau=graf.grauEntrada(w); k<grau; k++){
+                int anterior=graf.font(graf.entrada(w, k));
+                if(demandaCalculada.get(anterior)){
+                    demandaCalculada.clear(anterior);
+                    regioDemanda[n++]=anterior;
+                }
+            }
+        }
+        //els recorreguts s'aturen als nodes que ja no tenen el cabal calculat, i per tant no es repeteixen
+        invalidarCabals(regioDemanda, n);
+        invalidarCabals(demandes, nDemandes);
+        invalidarCabals(cabals, nCabals);
+    }
+
+    /**
+     * @brief Invalida el cabal d'un conjunt de nodes
+     * @pre Els primers \p n elements de \p llavors són índexs de nodes
+     * @post S'ha descartat el cabal dels nodes de \p llavors i de tots els nodes on s'arriba des d'ells
+     */
+    private void invalidarCabals(int[] llavors, int n){
+        int cua=0;
+        for(int i=0; i<n; i++){
+            int v=llavors[i];
+            if(cabalCalculat.get(v)){ //si no hi era, tampoc hi és el dels nodes següents
+                cabalCalculat.clear(v);
+                preparats[cua++]=v;
+            }
+        }
+        for(int i=0; i<cua; i++){
+            int w=preparats[i];
+            for(int k=0, grau=graf.grauSortida(w); k<grau; k++){
+                int seguent=graf.desti(graf.sortida(w, k));
+                if(cabalCalculat.get(seguent)){
+                    cabalCalculat.clear(seguent);
+                    preparats[cua++]=seguent;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Demanda teòrica d'un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna la demanda teòrica al node \p v segons la configuració actual de la xarxa
+     * @throws IllegalArgumentException si la demanda de \p v depèn d'un cicle
+     */
+    public float demanda(int v){
+        if(!demandaCalculada.get(v)){
+            assegurarCapacitat();
+            regioCabal[0]=v;
+            calcularDemandes(regioCabal, 1);
+            if(!demandaCalculada.get(v)){
+                throw new IllegalArgumentException("La xarxa no hauria de tenir cicles");
+            }
+        }
+        return demandes[v];
+    }
+
+    /**
+     * @brief Cabal teòric d'un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna el cabal teòric al node \p v segons la configuració actual de la xarxa
+     * @throws IllegalArgumentException si el cabal de \p v depèn d'un cicle
+     */
+    public float cabal(int v){
+        if(!cabalCalculat.get(v)){
+            calcularCabals(v);
+            if(!cabalCalculat.get(v)){
+                throw new IllegalArgumentException("La xarxa no hauria de tenir cicles");
+            }
+        }
+        return cabals[v];
+    }
+
+    /**
+     * @brief Demanda ja calculada d'un node
+     * @pre 0 <= \p v
+     * @post Retorna la demanda de \p v si ja està calculada, o NaN si no ho està o \p v encara no té espai als vectors.
+     *       No modifica res, i per tant es pot cridar mentre un altre fil llegeix.
+     */
+    public float demandaGuardada(int v){
+        float[] valors=demandes;
+        return v<valors.length && demandaCalculada.get(v) ? valors[v] : Float.NaN;
+    }
+
+    /**
+     * @brief Cabal ja calculat d'un node
+     * @pre 0 <= \p v
+     * @post Retorna el cabal de \p v si ja està calculat, o NaN si no ho està o \p v encara no té espai als vectors.
+     *       No modifica res, i per tant es pot cridar mentre un altre fil llegeix.
+     */
+    public float cabalGuardat(int v){
+        float[] valors=cabals;
+        return v<valors.length && cabalCalculat.get(v) ? valors[v] : Float.NaN;
+    }
+
+    /**
+     * @brief Cabal teòric d'una canonada
+     * @pre 0 <= \p e < graf.nombreCanonades()
+     * @post Retorna el cabal teòric que circula per la canonada \p e segons la configuració actual de la xarxa
+     * @throws IllegalArgumentException si el cabal de \p e depèn d'un cicle
+     */
+    public float cabalCanonada(int e){
+        cabal(graf.font(e));
+        return cabalsCanonades[e];
+    }
+
+    /**
+     * @brief Amplia els vectors
+     * @pre cert
+     * @post Tots els vectors tenen espai per a tots els nodes i canonades del graf
+     */
+    private void assegurarCapacitat(){
+        int n=graf.nombreNodes();
+        if(demandes.length<n){
+            int mida=Math.max(n, demandes.length*2);
+            demandes=Arrays.copyOf(demandes, mida);
+            cabals=Arrays.copyOf(cabals, mida);
+            regioDemanda=Arrays.copyOf(regioDemanda, mida);
+            regioCabal=Arrays.copyOf(regioCabal, mida);
+            marcaDemanda=Arrays.copyOf(marcaDemanda, mida);
+            marcaCabal=Arrays.copyOf(marcaCabal, mida);
+            pendents=Arrays.copyOf(pendents, mida);
+            preparats=Arrays.copyOf(preparats, mida);
+        }
+        int m=graf.nombreCanonades();
+        if(demandesPropagades.length<m){
+            int mida=Math.max(m, demandesPropagades.length*2);
+            demandesPropagades=Arrays.copyOf(demandesPropagades, mida);
+            cabalsCanonades=Arrays.copyOf(cabalsCanonades, mida);
+        }
+    }
+
+    /**
+     * @brief Calcula les demandes que falten
+     * @pre Els primers \p n elements de \p llavors són índexs de nodes
+     * @post S'ha calculat la demanda de tots els nodes sense demanda als quals s'arriba des de \p llavors, i la demanda
+     *       propagada de les seves entrades, recorrent-los en ordre topològic invers. Els que depenen d'un cicle queden sense calcular.
+     */
+    private void calcularDemandes(int[] llavors, int n){
+        assegurarCapacitat();
+        //Regió a recalcular: els nodes sense demanda que es troben seguint les sortides
+        int marca=++epoca;
+        int mida=0;
+        for(int i=0; i<n; i++){
+            int v=llavors[i];
+            if(!demandaCalculada.get(v) && marcaDemanda[v]!=marca){
+                marcaDemanda[v]=marca;
+                regioDemanda[mida++]=v;
+            }
+        }
+        for(int i=0; i<mida; i++){
+            int v=regioDemanda[i];
+            for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                int seguent=graf.desti(graf.sortida(v, k));
+                if(!demandaCalculada.get(seguent) && marcaDemanda[seguent]!=marca){
+                    marcaDemanda[seguent]=marca;
+                    regioDemanda[mida++]=seguent;
+                }
+            }
+        }
+
+        //Un node es calcula quan ja s'han calculat tots els nodes de la regió on arriben les seves sortides
+        int cua=0;
+        for(int i=0; i<mida; i++){
+            int v=regioDemanda[i];
+            int grau=0;
+            for(int k=0, sortides=graf.grauSortida(v); k<sortides; k++){
+                if(marcaDemanda[graf.desti(graf.sortida(v, k))]==marca){
+                    grau++;
+                }
+            }
+            pendents[v]=grau;
+            if(grau==0){
+                preparats[cua++]=v;
+            }
+        }
+        for(int i=0; i<cua; i++){
+            int v=preparats[i];
+            float demanda=calcularDemanda(v);
+            demandes[v]=demanda;
+            demandaCalculada.set(v);
+            float capacitats=capacitatsEntrades(v);
+            for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+                int e=graf.entrada(v, k);
+                demandesPropagades[e]=demandaPropagada(e, demanda, capacitats);
+                int anterior=graf.font(e);
+                if(marcaDemanda[anterior]==marca && --pendents[anterior]==0){
+                    preparats[cua++]=anterior;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Calcula els cabals que falten
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post S'ha calculat el cabal de \p v i de tots els nodes sense cabal des d'on s'hi arriba, i el de les seves
+     *       sortides, recorrent-los en ordre topològic. Els que depenen d'un cicle queden sense calcular.
+     */
+    private void calcularCabals(int v){
+        assegurarCapacitat();
+        //Regió a recalcular: els nodes sense cabal que es troben seguint les entrades
+        int marca=++epoca;
+        int mida=0;
+        marcaCabal[v]=marca;
+        regioCabal[mida++]=v;
+        for(int i=0; i<mida; i++){
+            int w=regioCabal[i];
+            for(int k=0, grau=graf.grauEntrada(w); k<grau; k++){
+                int anterior=graf.font(graf.entrada(w, k));
+                if(!cabalCalculat.get(anterior) && marcaCabal[anterior]!=marca){
+                    marcaCabal[anterior]=marca;
+                    regioCabal[mida++]=anterior;
+                }
+            }
+        }
+        calcularDemandes(regioCabal, mida);
+
+        //Un node es calcula quan ja s'han calculat tots els nodes de la regió d'on venen les seves entrades
+        int cua=0;
+        for(int i=0; i<mida; i++){
+            int w=regioCabal[i];
+            int grau=0;
+            for(int k=0, entrades=graf.grauEntrada(w); k<entrades; k++){
+                if(marcaCabal[graf.font(graf.entrada(w, k))]==marca){
+                    grau++;
+                }
+            }
+            pendents[w]=grau;
+            if(grau==0){
+                preparats[cua++]=w;
+            }
+        }
+        for(int i=0; i<cua; i++){
+            int w=preparats[i];
+            boolean calculat=calcularCabal(w);
+            for(int k=0, grau=graf.grauSortida(w); k<grau; k++){
+                int e=graf.sortida(w, k);
+                if(calculat){
+                    cabalsCanonades[e]=cabalEntrant(e, cabals[w], demandes[w]);
+                }
+                int seguent=graf.desti(e);
+                if(marcaCabal[seguent]==marca && --pendents[seguent]==0){
+                    preparats[cua++]=seguent;
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Demanda d'un node a partir de les seves sortides
+     * @pre La demanda propagada de totes les sortides del node \p v ja està calculada
+     * @post Retorna la demanda teòrica del node \p v
+     */
+    private float calcularDemanda(int v){
+        if(!graf.aixetaOberta(v)){ //aixeta tancada
+            return 0;
+        }
+        if(graf.tipus(v)==GrafCompacte.TERMINAL){ //es un node terminal
+            return graf.demanda(v);
+        }
+        float demanda=0;
+        for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+            demanda+=demandesPropagades[graf.sortida(v, k)];
+        }
+        return demanda;
+    }
+
+    /**
+     * @brief Cabal d'un node a partir de les seves entrades
+     * @pre S'han processat tots els nodes d'on venen les entrades del node \p v
+     * @post Si la demanda de \p v i el cabal de les seves entrades estan calculats, s'ha calculat el cabal teòric de \p v
+     *       i es retorna cert, altrament es retorna fals
+     */
+    private boolean calcularCabal(int v){
+        if(!demandaCalculada.get(v)){
+            return false;
+        }
+        float cabal;
+        if(!graf.aixetaOberta(v)){ //aixeta tancada
+            cabal=0;
+        }
+        else if(graf.tipus(v)==GrafCompacte.ORIGEN){ //es un node origen
+            // si la demanda es més gran que el cabal retorna el cabal, altrament retorna la demanda
+            cabal=demandes[v];
+            if(cabal>graf.cabalOrigen(v)){
+                cabal=graf.cabalOrigen(v);
+            }
+        }
+        else{
+            cabal=0;
+            for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+                int e=graf.entrada(v, k);
+                if(!cabalCalculat.get(graf.font(e))){
+                    return false;
+                }
+                cabal+=cabalsCanonades[e];
+            }
+        }
+        cabals[v]=cabal;
+        cabalCalculat.set(v);
+        return true;
+    }
+
+    /**
+     * @brief Demanda propagada d'una canonada
+     * @pre \p demanda és la demanda del node destí de la canonada \p e i \p capacitats la suma de les capacitats de les seves entrades
+     * @post Retorna la demanda propagada per la canonada \p e
+     */
+    private float demandaPropagada(int e, float demanda, float capacitats){
+        if(demanda>=capacitats){
+            return graf.capacitat(e);
+        }
+        float proporcio=graf.capacitat(e)/capacitats;
+        return demanda*proporcio;
+    }
+
+    /**
+     * @brief Cabal teòric d'una canonada
+     * @pre \p cabalNode i \p demandaNode són el cabal i la demanda del node d'inici de la canonada \p e
+     * @post Retorna el cabal teòric que circula per la canonada \p e
+     */
+    private float cabalEntrant(int e, float cabalNode, float demandaNode){
+        float demandaPropagada=demandesPropagades[e];
+        if(cabalNode>=demandaNode){
+            return demandaPropagada;
+        }
+        return (demandaPropagada/demandaNode)*cabalNode;
+    }
+
+    /**
+     * @brief Suma de les capacitats de les entrades d'un node
+     * @pre 0 <= \p v < graf.nombreNodes()
+     * @post Retorna la suma de les capacitats de les canonades que entren al node \p v
+     */
+    private float capacitatsEntrades(int v){
+        float capacitats=0;
+        for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+            capacitats+=graf.capacitat(graf.entrada(v, k));
+        }
+        return capacitats;
+    }
+}
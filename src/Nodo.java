@@ -11,7 +11,7 @@ public class Nodo {
 
     private final String id; ///< Identificador del node
     private final Coordenades c;///< Coordenades del node
-    private boolean aixetaOberta;///< Bool indicant si l'aixeta del node és obert (true) o tancat (false), inicialitzat a true
+    private volatile boolean aixetaOberta;///< Bool indicant si l'aixeta del node és obert (true) o tancat (false), inicialitzat a true
 
 
     /**
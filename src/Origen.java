@@ -9,7 +9,7 @@
 
 public class Origen extends Nodo {
     /** @invariant  0 <= cabal */
-    private float cabal; ///< Cabal d'aigua, expressada en litres per segon, inicialitzada a 0
+    private volatile float cabal; ///< Cabal d'aigua, expressada en litres per segon, inicialitzada a 0
     
 
     /**
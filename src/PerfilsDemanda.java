@@ -0,0 +1,119 @@
+/** @file PerfilsDemanda.java
+    @brief Classe PerfilsDemanda
+*/
+
+/** @class PerfilsDemanda
+    @brief Perfils de demanda d'una simulació de període estès. Cada perfil té un multiplicador per pas de temps (per
+           exemple 96 quarts d'hora), i la demanda d'un terminal en un pas és la seva demanda actual pel multiplicador
+           del seu perfil. Un mateix perfil es pot assignar a tants terminals com calgui, un per un; els terminals sense
+           perfil mantenen la demanda actual a tots els passos.
+
+           Els multiplicadors de tots els perfils es guarden seguits en un sol vector de floats, i el perfil de cada
+           node en un vector d'enters indexat com el GrafCompacte.
+    @author Miquel Coll Barneto
+*/
+
+import java.util.*;
+
+public class PerfilsDemanda {
+    private final int nombrePassos; ///< Nombre de passos de temps de cada perfil
+    private float[] multiplicadors; ///< Multiplicador del perfil p al pas t a la posició p*nombrePassos+t
+    private int nombrePerfils; ///< Nombre de perfils
+    private final Map<String, Integer> indexPerfils = new HashMap<>(); ///< Índex de cada perfil segons el seu nom
+    private int[] perfils; ///< Perfil de cada node, o -1 si no en té
+
+    /**
+     * @brief Crea un conjunt de perfils buit
+     * @pre cert
+     * @post Crea un conjunt sense cap perfil, on cada perfil tindrà \p nombrePassos multiplicadors
+     * @throws IllegalArgumentException si \p nombrePassos < 1
+     */
+    public PerfilsDemanda(int nombrePassos){
+        if(nombrePassos<1){
+            throw new IllegalArgumentException("Un perfil ha de tenir com a mínim un pas");
+        }
+        this.nombrePassos=nombrePassos;
+        multiplicadors=new float[nombrePassos*4];
+        perfils=new int[0];
+    }
+
+    /**
+     * @brief Nombre de passos
+     * @pre cert
+     * @post Retorna el nombre de passos de temps de cada perfil
+     */
+    public int nombrePassos(){
+        return nombrePassos;
+    }
+
+    /**
+     * @brief Afegeix un perfil
+     * @pre \p nom no és null
+     * @post S'ha afegit el perfil \p nom amb els multiplicadors donats, i se'n retorna l'índex
+     * @throws IllegalArgumentException si ja hi ha un perfil amb aquest nom, no hi ha un multiplicador per pas o
+     *         algun és negatiu
+     */
+    public int afegir(String nom, float[] multiplicadors){
+        if(indexPerfils.containsKey(nom)){
+            throw new IllegalArgumentException("Ja existeix el perfil " + nom);
+        }
+        if(multiplicadors.length!=nombrePassos){
+            throw new IllegalArgumentException("El perfil " + nom + " ha de tenir " + nombrePassos + " multiplicadors");
+        }
+        for(float m : multiplicadors){
+            if(!(m>=0)){
+                throw new IllegalArgumentException("Multiplicador negatiu al perfil " + nom);
+            }
+        }
+        int p=nombrePerfils++;
+        if(this.multiplicadors.length<nombrePerfils*nombrePassos){
+            this.multiplicadors=Arrays.copyOf(this.multiplicadors, Math.max(nombrePerfils*nombrePassos, this.multiplicadors.length*2));
+        }
+        System.arraycopy(multiplicadors, 0, this.multiplicadors, p*nombrePassos, nombrePassos);
+        indexPerfils.put(nom, p);
+        return p;
+    }
+
+    /**
+     * @brief Índex d'un perfil
+     * @pre cert
+     * @post Retorna l'índex del perfil amb nom \p nom, o -1 si no existeix
+     */
+    public int perfil(String nom){
+        Integer p=indexPerfils.get(nom);
+        return p==null ? -1 : p;
+    }
+
+    /**
+     * @brief Assigna un perfil a un node
+     * @pre \p v >= 0 és l'índex d'un terminal i -1 <= \p perfil < nombre de perfils
+     * @post La demanda del node \p v segueix el perfil \p perfil, o és constant si és -1
+     */
+    public void assignar(int v, int perfil){
+        if(v>=perfils.length){
+            int mida=perfils.length;
+            perfils=Arrays.copyOf(perfils, Math.max(v+1, mida*2));
+            Arrays.fill(perfils, mida, perfils.length, -1);
+        }
+        perfils[v]=perfil;
+    }
+
+    /**
+     * @brief Perfil d'un node
+     * @pre \p v >= 0
+     * @post Retorna l'índex del perfil del node \p v, o -1 si no en té
+     */
+    public int perfilNode(int v){
+        return v<perfils.length ? perfils[v] : -1;
+    }
+
+    /**
+     * @brief Multiplicador de la demanda d'un node
+     * @pre \p v >= 0 i 0 <= \p pas < nombrePassos()
+     * @post Retorna el multiplicador de la demanda del node \p v al pas \p pas, que és 1 si no té perfil
+     */
+    public float multiplicador(int v, int pas){
+        int p=perfilNode(v);
+        return p<0 ? 1 : multiplicadors[p*nombrePassos+pas];
+    }
+}
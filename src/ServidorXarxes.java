@@ -0,0 +1,136 @@
+/** @file ServidorXarxes.java
+    @brief Classe ServidorXarxes
+*/
+
+/** @class ServidorXarxes
+    @brief Servidor local que manté xarxes a memòria i hi executa les opcions dels fitxers d'entrada que li envien els
+           clients per un socket TCP de localhost.
+
+           Cada connexió és una sessió amb el seu fil i el seu SimuladorModeText. La primera línia de la sessió és el
+           nom de la xarxa, que es crea buida si encara no existeix, i les següents són peticions en el mateix format
+           que els fitxers d'entrada, acabades amb una línia buida (vegeu SimuladorModeText::atendre). Totes les
+           sessions d'una mateixa xarxa la comparteixen: les consultes es fan alhora i les modificacions d'una en una.
+           Les opcions desar i carregar només afecten la sessió que les fa.
+    @author Andy Moreno Ramon
+*/
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class ServidorXarxes implements Closeable {
+    private final ServerSocket socket; ///< Socket on s'accepten les connexions
+    private final ExecutorService sessions; ///< Fils de les sessions, un per connexió
+    private final Map<String, Xarxa> xarxes = new ConcurrentHashMap<>(); ///< Xarxes del servidor segons el seu nom
+    private final Set<Socket> clients = ConcurrentHashMap.newKeySet(); ///< Connexions obertes
+
+    /**
+     * @brief Crea un servidor
+     * @pre 0 <= \p port <= 65535
+     * @post El servidor escolta a \p port de localhost (a un port lliure si és 0), encara sense cap xarxa
+     * @throws IOException si no es pot obrir el socket
+     */
+    public ServidorXarxes(int port) throws IOException {
+        socket=new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        sessions=executorSessions();
+    }
+
+    /**
+     * @brief Executor de les sessions
+     * @pre cert
+     * @post Retorna un executor que crea un fil virtual per sessió si la màquina virtual en té, o altrament un fil
+     *       de plataforma per sessió, que es reaprofita quan la sessió acaba
+     */
+    private static ExecutorService executorSessions(){
+        try{
+            Method virtual=Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)virtual.invoke(null);
+        }
+        catch(ReflectiveOperationException e){
+            return Executors.newCachedThreadPool(tasca -> {
+                Thread fil=new Thread(tasca, "sessio");
+                fil.setDaemon(true);
+                return fil;
+            });
+        }
+    }
+
+    /**
+     * @brief Port del servidor
+     * @pre cert
+     * @post Retorna el port de localhost on escolta el servidor
+     */
+    public int port(){
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @brief Afegeix una xarxa
+     * @pre \p nom no és null ni buit i \p xarxa no és null
+     * @post Les sessions que obrin \p nom treballaran sobre \p xarxa
+     */
+    public void afegir(String nom, Xarxa xarxa){
+        xarxes.put(nom, xarxa);
+    }
+
+    /**
+     * @brief Serveix les connexions
+     * @pre cert
+     * @post S'han atès totes les connexions que han arribat fins que s'ha tancat el servidor
+     */
+    public void servir(){
+        while(!socket.isClosed()){
+            try{
+                Socket client=socket.accept();
+                clients.add(client);
+                sessions.execute(() -> atendre(client));
+            }
+            catch(IOException e){
+                if(!socket.isClosed()){
+                    System.out.println("Error acceptant una connexió: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Atén una connexió
+     * @pre \p client és una connexió acceptada
+     * @post S'han executat totes les peticions de la sessió sobre la xarxa que ha demanat, i s'ha tancat la connexió
+     */
+    private void atendre(Socket client){
+        try(client;
+            BufferedReader in=new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+            Writer out=new BufferedWriter(new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8))){
+            String nom=in.readLine();
+            if(nom!=null && !nom.trim().isEmpty()){
+                Xarxa xarxa=xarxes.computeIfAbsent(nom.trim(), k -> new Xarxa());
+                new SimuladorModeText(true, xarxa).atendre(in, out);
+            }
+        }
+        catch(IOException e){
+            //el client ha tancat la connexió: no hi ha on escriure l'error
+        }
+        finally{
+            clients.remove(client);
+        }
+    }
+
+    /**
+     * @brief Tanca el servidor
+     * @pre cert
+     * @post No s'accepten més connexions, s'han tancat les obertes i servir() acaba
+     * @throws IOException si no es pot tancar el socket
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        for(Socket client : clients){
+            client.close();
+        }
+        sessions.shutdown();
+    }
+}
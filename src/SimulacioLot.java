@@ -0,0 +1,237 @@
+/** @file SimulacioLot.java
+    @brief Classe SimulacioLot
+*/
+
+/** @class SimulacioLot
+    @brief Simula molts fitxers d'entrada dins d'una mateixa màquina virtual, amb un nombre acotat de fils.
+
+           Cada parella de fitxers d'entrada i sortida se simula amb el seu propi SimuladorModeText i la seva pròpia
+           Xarxa, i cap simulació no comparteix estat amb les altres. Per tant, cada fitxer de sortida és idèntic al
+           d'una simulació seqüencial, independentment de l'ordre en què acabin. Les parelles es poden donar amb un
+           directori de fitxers d'entrada (cada sortida té el mateix nom en un altre directori) o amb un manifest, un
+           fitxer de text amb una parella "entrada sortida" per línia.
+    @author Andy Moreno Ramon
+*/
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+public class SimulacioLot {
+    /** @brief Resultat de simular una parella de fitxers */
+    public static final class Resultat {
+        private final Path entrada; ///< Fitxer d'entrada
+        private final Path sortida; ///< Fitxer de sortida
+        private final long nanosegons; ///< Temps que ha durat la simulació
+        private final String error; ///< Motiu pel qual ha fallat la simulació, o null si ha anat bé
+
+        /**
+         * @brief Crea un resultat
+         * @pre \p entrada i \p sortida no són null i \p nanosegons >= 0
+         * @post Crea el resultat de simular \p entrada cap a \p sortida
+         */
+        private Resultat(Path entrada, Path sortida, long nanosegons, String error){
+            this.entrada=entrada;
+            this.sortida=sortida;
+            this.nanosegons=nanosegons;
+            this.error=error;
+        }
+
+        /**
+         * @brief Fitxer d'entrada
+         * @pre cert
+         * @post Retorna el fitxer d'entrada simulat
+         */
+        public Path entrada(){
+            return entrada;
+        }
+
+        /**
+         * @brief Fitxer de sortida
+         * @pre cert
+         * @post Retorna el fitxer on s'ha escrit el resultat
+         */
+        public Path sortida(){
+            return sortida;
+        }
+
+        /**
+         * @brief Durada
+         * @pre cert
+         * @post Retorna el temps que ha durat la simulació, en nanosegons
+         */
+        public long nanosegons(){
+            return nanosegons;
+        }
+
+        /**
+         * @brief Error
+         * @pre cert
+         * @post Retorna el motiu pel qual no s'ha pogut fer la simulació, o null si s'ha fet
+         */
+        public String error(){
+            return error;
+        }
+    }
+
+    private final List<Path> entrades; ///< Fitxers d'entrada, en l'ordre del lot
+    private final List<Path> sortides; ///< Fitxer de sortida de cada entrada
+
+    /**
+     * @brief Crea un lot
+     * @pre \p entrades i \p sortides tenen la mateixa mida
+     * @post Crea un lot que simula cada entrades[i] cap a sortides[i]
+     * @throws IllegalArgumentException si dues simulacions escriuen al mateix fitxer de sortida
+     */
+    private SimulacioLot(List<Path> entrades, List<Path> sortides){
+        Set<Path> vistes=new HashSet<>();
+        for(Path sortida : sortides){
+            if(!vistes.add(sortida.toAbsolutePath().normalize())){
+                throw new IllegalArgumentException("Dues simulacions escriuen a " + sortida);
+            }
+        }
+        this.entrades=entrades;
+        this.sortides=sortides;
+    }
+
+    /**
+     * @brief Lot d'un directori
+     * @pre cert
+     * @post Retorna un lot que simula cada fitxer de \p directori, per ordre alfabètic, i n'escriu la sortida al
+     *       fitxer amb el mateix nom de \p directoriSortides, que es crea si no existeix
+     * @throws IOException si no es pot llegir \p directori o crear \p directoriSortides
+     */
+    public static SimulacioLot directori(Path directori, Path directoriSortides) throws IOException {
+        List<Path> entrades=new ArrayList<>();
+        try(DirectoryStream<Path> fitxers=Files.newDirectoryStream(directori)){
+            for(Path fitxer : fitxers){
+                if(Files.isRegularFile(fitxer)){
+                    entrades.add(fitxer);
+                }
+            }
+        }
+        Collections.sort(entrades);
+        Files.createDirectories(directoriSortides);
+        List<Path> sortides=new ArrayList<>(entrades.size());
+        for(Path entrada : entrades){
+            sortides.add(directoriSortides.resolve(entrada.getFileName()));
+        }
+        return new SimulacioLot(entrades, sortides);
+    }
+
+    /**
+     * @brief Lot d'un manifest
+     * @pre Cada línia no buida de \p manifest té el fitxer d'entrada i el de sortida separats per espais o tabuladors;
+     *      els camins relatius ho són respecte del directori del manifest
+     * @post Retorna un lot que simula les parelles de \p manifest en el seu ordre
+     * @throws IOException si no es pot llegir \p manifest
+     * @throws IllegalArgumentException si alguna línia no és vàlida o dues parelles tenen la mateixa sortida
+     */
+    public static SimulacioLot manifest(Path manifest) throws IOException {
+        Path base=manifest.toAbsolutePath().getParent();
+        List<Path> entrades=new ArrayList<>();
+        List<Path> sortides=new ArrayList<>();
+        for(String linea : Files.readAllLines(manifest, StandardCharsets.UTF_8)){
+            linea=linea.trim();
+            if(!linea.isEmpty()){
+                String[] parts=linea.split("\\s+");
+                if(parts.length!=2){
+                    throw new IllegalArgumentException("Línia del manifest errònia - " + linea);
+                }
+                entrades.add(base.resolve(parts[0]));
+                sortides.add(base.resolve(parts[1]));
+            }
+        }
+        return new SimulacioLot(entrades, sortides);
+    }
+
+    /**
+     * @brief Nombre de simulacions
+     * @pre cert
+     * @post Retorna el nombre de parelles del lot
+     */
+    public int mida(){
+        return entrades.size();
+    }
+
+    /**
+     * @brief Simula el lot
+     * @pre \p fils >= 1 i \p simuladors retorna un simulador nou (sense cap xarxa compartida) a cada crida
+     * @post S'han simulat totes les parelles amb com a molt \p fils alhora. Retorna el resultat de cadascuna en
+     *       l'ordre del lot, també si alguna ha fallat.
+     * @throws InterruptedException si s'interromp el fil mentre s'espera que acabin les simulacions
+     */
+    public List<Resultat> simular(int fils, Supplier<SimuladorModeText> simuladors) throws InterruptedException {
+        ExecutorService executor=Executors.newFixedThreadPool(fils);
+        try{
+            List<Callable<Resultat>> tasques=new ArrayList<>(entrades.size());
+            for(int i=0; i<entrades.size(); i++){
+                Path entrada=entrades.get(i);
+                Path sortida=sortides.get(i);
+                tasques.add(() -> simular(simuladors.get(), entrada, sortida));
+            }
+            List<Resultat> resultats=new ArrayList<>(tasques.size());
+            for(Future<Resultat> futur : executor.invokeAll(tasques)){
+                try{
+                    resultats.add(futur.get());
+                }
+                catch(ExecutionException e){ //simular ja recull totes les excepcions
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return resultats;
+        }
+        finally{
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @brief Simula una parella
+     * @pre cert
+     * @post S'ha simulat \p entrada cap a \p sortida amb \p simulador. Retorna el temps que ha durat i, si ha fallat, el
+     *       motiu.
+     */
+    private static Resultat simular(SimuladorModeText simulador, Path entrada, Path sortida){
+        long inici=System.nanoTime();
+        String error=null;
+        try{
+            if(!simulador.simular(entrada.toString(), sortida.toString())){
+                error="no s'ha pogut llegir l'entrada o escriure la sortida";
+            }
+        }
+        catch(RuntimeException e){
+            error=e.toString();
+        }
+        return new Resultat(entrada, sortida, System.nanoTime()-inici, error);
+    }
+
+    /**
+     * @brief Resum d'un lot
+     * @pre \p resultats l'ha retornat simular i \p nanosegons és el temps total que ha durat
+     * @post S'ha escrit a \p out una línia per cada simulació que ha fallat, amb el motiu, i una línia final amb el
+     *       nombre de simulacions, les que han fallat, el temps total, la suma dels temps de totes les simulacions i la
+     *       més lenta
+     */
+    public static void resum(List<Resultat> resultats, long nanosegons, PrintStream out){
+        int errors=0;
+        long suma=0;
+        Resultat mesLenta=null;
+        for(Resultat r : resultats){
+            if(r.error()!=null){
+                errors++;
+                out.println("Error " + r.entrada() + ": " + r.error());
+            }
+            suma+=r.nanosegons();
+            if(mesLenta==null || r.nanosegons()>mesLenta.nanosegons()){
+                mesLenta=r;
+            }
+        }
+        String lenta=mesLenta==null ? "" : ", la més lenta " + mesLenta.entrada() + " " + mesLenta.nanosegons()/1000000 + " ms";
+        out.println(resultats.size() + " simulacions, " + errors + " errors, " + nanosegons/1000000 + " ms en total ("
+                    + suma/1000000 + " ms sumant-les)" + lenta);
+    }
+}
@@ -0,0 +1,246 @@
+/** @file SimulacioPeriode.java
+    @brief Classe SimulacioPeriode
+*/
+
+/** @class SimulacioPeriode
+    @brief Simulació de període estès: calcula la demanda i el cabal de tots els nodes i canonades a cada pas de temps
+           d'uns PerfilsDemanda, amb les mateixes fórmules que MotorCabal.
+
+           La topologia, les aixetes i el cabal dels orígens no canvien durant la simulació, i per tant tota la feina
+           que en depèn es fa un sol cop en crear-la: l'ordre topològic invers per calcular les demandes, l'ordre
+           topològic per calcular els cabals, quins nodes depenen d'un cicle (i no tenen valor, com a MotorCabal) i
+           la suma de capacitats de les entrades de cada node. A cada pas només es recorren aquests dos ordres sobre
+           vectors de floats, sense crear cap objecte.
+    @author Miquel Coll Barneto
+*/
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+public class SimulacioPeriode {
+    private final GrafCompacte graf; ///< Graf que se simula
+    private final PerfilsDemanda perfils; ///< Perfils de demanda dels terminals
+    private final int[] ordreDemanda; ///< Nodes amb demanda calculable, cada un després de tots els seus successors
+    private final int[] ordreCabal; ///< Nodes amb cabal calculable, cada un després de tots els seus predecessors
+    private final float[] capacitatsEntrades; ///< Suma de les capacitats de les entrades de cada node
+    private final float[] demandes; ///< Demanda de cada node al pas actual (NaN si depèn d'un cicle)
+    private final float[] cabals; ///< Cabal de cada node al pas actual (NaN si depèn d'un cicle)
+    private final float[] demandesPropagades; ///< Demanda propagada per cada canonada al pas actual
+    private final float[] cabalsCanonades; ///< Cabal de cada canonada al pas actual (NaN si depèn d'un cicle)
+    private int pas; ///< Pas calculat, o -1 si encara no se n'ha calculat cap
+
+    /**
+     * @brief Prepara una simulació
+     * @pre \p graf i \p perfils no són null
+     * @post S'han calculat els ordres de recorregut de \p graf amb les aixetes actuals, però encara cap pas
+     */
+    public SimulacioPeriode(GrafCompacte graf, PerfilsDemanda perfils){
+        this.graf=graf;
+        this.perfils=perfils;
+        int n=graf.nombreNodes();
+        int m=graf.nombreCanonades();
+        demandes=new float[n];
+        cabals=new float[n];
+        demandesPropagades=new float[m];
+        cabalsCanonades=new float[m];
+        capacitatsEntrades=new float[n];
+        pas=-1;
+
+        //ordre topològic invers (Kahn sobre les sortides): hi falten els nodes des d'on s'arriba a un cicle
+        int[] pendents=new int[n];
+        int[] cua=new int[n];
+        int fi=0;
+        for(int v=0; v<n; v++){
+            pendents[v]=graf.grauSortida(v);
+            if(pendents[v]==0){
+                cua[fi++]=v;
+            }
+        }
+        boolean[] ambDemanda=new boolean[n];
+        for(int i=0; i<fi; i++){
+            int v=cua[i];
+            ambDemanda[v]=true;
+            for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+                int anterior=graf.font(graf.entrada(v, k));
+                if(--pendents[anterior]==0){
+                    cua[fi++]=anterior;
+                }
+            }
+        }
+        ordreDemanda=Arrays.copyOf(cua, fi);
+
+        //ordre topològic (Kahn sobre les entrades): un node té cabal si té demanda i, llevat que sigui un origen o
+        //estigui tancat, totes les seves entrades venen de nodes amb cabal
+        fi=0;
+        for(int v=0; v<n; v++){
+            pendents[v]=graf.grauEntrada(v);
+            if(pendents[v]==0){
+                cua[fi++]=v;
+            }
+        }
+        boolean[] ambCabal=new boolean[n];
+        int nCabal=0;
+        int[] ordre=new int[n];
+        for(int i=0; i<fi; i++){
+            int v=cua[i];
+            boolean calculable=ambDemanda[v];
+            if(calculable && graf.aixetaOberta(v) && graf.tipus(v)!=GrafCompacte.ORIGEN){
+                for(int k=0, grau=graf.grauEntrada(v); k<grau && calculable; k++){
+                    calculable=ambCabal[graf.font(graf.entrada(v, k))];
+                }
+            }
+            if(calculable){
+                ambCabal[v]=true;
+                ordre[nCabal++]=v;
+            }
+            for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                int seguent=graf.desti(graf.sortida(v, k));
+                if(--pendents[seguent]==0){
+                    cua[fi++]=seguent;
+                }
+            }
+        }
+        ordreCabal=Arrays.copyOf(ordre, nCabal);
+
+        for(int v=0; v<n; v++){
+            float capacitats=0;
+            for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+                capacitats+=graf.capacitat(graf.entrada(v, k));
+            }
+            capacitatsEntrades[v]=capacitats;
+            if(!ambDemanda[v]){
+                demandes[v]=Float.NaN;
+            }
+            if(!ambCabal[v]){
+                cabals[v]=Float.NaN;
+            }
+        }
+        for(int e=0; e<m; e++){
+            demandesPropagades[e]=Float.NaN;
+            cabalsCanonades[e]=Float.NaN;
+        }
+    }
+
+    /**
+     * @brief Nombre de passos
+     * @pre cert
+     * @post Retorna el nombre de passos de temps de la simulació
+     */
+    public int nombrePassos(){
+        return perfils.nombrePassos();
+    }
+
+    /**
+     * @brief Pas calculat
+     * @pre cert
+     * @post Retorna el pas dels valors actuals, o -1 si encara no se n'ha calculat cap
+     */
+    public int pas(){
+        return pas;
+    }
+
+    /**
+     * @brief Calcula un pas
+     * @pre 0 <= \p pas < nombrePassos()
+     * @post La demanda i el cabal de tots els nodes i canonades són els del pas \p pas: els mateixos que donaria
+     *       MotorCabal si la demanda de cada terminal fos la seva demanda actual pel multiplicador del seu perfil
+     */
+    public void calcular(int pas){
+        for(int v : ordreDemanda){
+            float demanda;
+            if(!graf.aixetaOberta(v)){
+                demanda=0;
+            }
+            else if(graf.tipus(v)==GrafCompacte.TERMINAL){
+                demanda=graf.demanda(v)*perfils.multiplicador(v, pas);
+            }
+            else{
+                demanda=0;
+                for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                    demanda+=demandesPropagades[graf.sortida(v, k)];
+                }
+            }
+            demandes[v]=demanda;
+            float capacitats=capacitatsEntrades[v];
+            for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+                int e=graf.entrada(v, k);
+                if(demanda>=capacitats){
+                    demandesPropagades[e]=graf.capacitat(e);
+                }
+                else{
+                    demandesPropagades[e]=demanda*(graf.capacitat(e)/capacitats);
+                }
+            }
+        }
+        for(int v : ordreCabal){
+            float cabal;
+            if(!graf.aixetaOberta(v)){
+                cabal=0;
+            }
+            else if(graf.tipus(v)==GrafCompacte.ORIGEN){
+                cabal=demandes[v];
+                if(cabal>graf.cabalOrigen(v)){
+                    cabal=graf.cabalOrigen(v);
+                }
+            }
+            else{
+                cabal=0;
+                for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+                    cabal+=cabalsCanonades[graf.entrada(v, k)];
+                }
+            }
+            cabals[v]=cabal;
+            float demanda=demandes[v];
+            for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                int e=graf.sortida(v, k);
+                if(cabal>=demanda){
+                    cabalsCanonades[e]=demandesPropagades[e];
+                }
+                else{
+                    cabalsCanonades[e]=(demandesPropagades[e]/demanda)*cabal;
+                }
+            }
+        }
+        this.pas=pas;
+    }
+
+    /**
+     * @brief Simula tot el període
+     * @pre \p perPas no és null
+     * @post S'han calculat tots els passos en ordre, i després de cadascun s'ha cridat \p perPas amb el seu número,
+     *       de manera que pot llegir els valors del pas amb demanda, cabal i cabalCanonada
+     */
+    public void simular(IntConsumer perPas){
+        for(int t=0; t<nombrePassos(); t++){
+            calcular(t);
+            perPas.accept(t);
+        }
+    }
+
+    /**
+     * @brief Demanda d'un node al pas actual
+     * @pre 0 <= \p v < graf.nombreNodes() i s'ha calculat algun pas
+     * @post Retorna la demanda del node \p v al pas actual, o NaN si depèn d'un cicle
+     */
+    public float demanda(int v){
+        return demandes[v];
+    }
+
+    /**
+     * @brief Cabal d'un node al pas actual
+     * @pre 0 <= \p v < graf.nombreNodes() i s'ha calculat algun pas
+     * @post Retorna el cabal del node \p v al pas actual, o NaN si depèn d'un cicle
+     */
+    public float cabal(int v){
+        return cabals[v];
+    }
+
+    /**
+     * @brief Cabal d'una canonada al pas actual
+     * @pre 0 <= \p e < graf.nombreCanonades() i s'ha calculat algun pas
+     * @post Retorna el cabal que circula per la canonada \p e al pas actual, o NaN si depèn d'un cicle
+     */
+    public float cabalCanonada(int e){
+        return cabalsCanonades[e];
+    }
+}
@@ -8,11 +8,127 @@
 */
 
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 public class SimuladorModeText {
 
-    private Xarxa xarxa = new Xarxa();///< Xarxa de distribució d'aigua
+    private Xarxa xarxa;///< Xarxa de distribució d'aigua
+    private boolean compartida;///< Cert si la xarxa es comparteix amb simuladors d'altres fils
+    private final boolean senseFinestres;///< Cert si els dibuixos s'escriuen al fitxer de sortida en lloc de mostrar-se en finestres
+    private final Map<String, Ordre> ordres = new HashMap<>();///< Funció que tracta cada opció, segons la paraula clau que la identifica
+    private EscriptorResultats.Buidat buidat = EscriptorResultats.Buidat.TEMPS;///< Política de buidat del fitxer de sortida
+    private String pendent;///< Línia ja llegida que encara s'ha de tractar (l'opció que ha acabat una llista), o null
+    private Path directoriDiari;///< Directori on es registren les modificacions de la xarxa, o null si no se'n registren
+    private Diari.Durabilitat durabilitat = Diari.Durabilitat.SINCRONA;///< Quan es considera que una modificació ja és a disc
+    private int profunditatHistorial;///< Nombre màxim d'operacions que es poden desfer, o 0 per deixar el de la xarxa
+    private PerfilsDemanda perfils;///< Perfils de demanda per a la simulació de període estès, o null si no se n'ha definit cap
+    private static final Set<String> ANALISIS = Set.of("cicles", "arbre", "cabalminim", "excescabal", "sobrecarregues",
+            "situacio", "criticitat", "dibuix", "max-flow");///< Opcions que només consulten la xarxa però treballen directament sobre el graf compacte, i per tant no poden coincidir amb cap modificació
+
+    /** @brief Tractament d'una opció del fitxer d'entrada */
+    private interface Ordre {
+        /**
+         * @brief Llegeix els paràmetres de l'opció i l'executa
+         * @pre La paraula clau de l'opció ja s'ha llegit
+         * @post S'ha executat l'opció i s'han escrit els resultats a \p out
+         */
+        void executar(BufferedReader br, Writer out);
+    }
+
+    /**
+     * @brief Crea un simulador que mostra els dibuixos en finestres
+     * @pre cert
+     * @post El simulador té una xarxa buida
+     */
+    public SimuladorModeText(){
+        this(false);
+    }
+
+    /**
+     * @brief Crea un simulador
+     * @param senseFinestres Cert si les opcions dibuix i max-flow han d'escriure el resultat al fitxer de sortida
+     * en lloc d'obrir finestres, de manera que es pugui simular en una màquina sense pantalla.
+     * @pre cert
+     * @post El simulador té una xarxa buida
+     */
+    public SimuladorModeText(boolean senseFinestres){
+        this(senseFinestres, new Xarxa());
+        compartida=false;
+    }
+
+    /**
+     * @brief Crea un simulador sobre una xarxa existent
+     * @param senseFinestres Cert si les opcions dibuix i max-flow han d'escriure el resultat al fitxer de sortida
+     * en lloc d'obrir finestres
+     * @pre \p xarxa no és null
+     * @post El simulador treballa sobre \p xarxa, que pot compartir amb altres simuladors d'altres fils
+     */
+    public SimuladorModeText(boolean senseFinestres, Xarxa xarxa){
+        this.senseFinestres=senseFinestres;
+        this.xarxa=xarxa;
+        compartida=true;
+        ordres.put("terminal", (br, out) -> altaPunt(br, "terminal"));
+        ordres.put("origen", (br, out) -> altaPunt(br, "origen"));
+        ordres.put("connexio", (br, out) -> altaPunt(br, "connexio"));
+        ordres.put("connectar", (br, out) -> connectar(br));
+        ordres.put("abonar", (br, out) -> abonar(br));
+        ordres.put("abonaments", (br, out) -> abonaments(br));
+        ordres.put("tancar", (br, out) -> tancar(br));
+        ordres.put("obrir", (br, out) -> obrir(br));
+        ordres.put("backtrack", (br, out) -> recular(br));
+        ordres.put("refer", (br, out) -> refer(br));
+        ordres.put("desar", (br, out) -> desar(br));
+        ordres.put("carregar", (br, out) -> carregar(br));
+        ordres.put("cabal", (br, out) -> establirCabal(br));
+        ordres.put("demanda", (br, out) -> establirDemanda(br));
+        ordres.put("cicles", this::cicles);
+        ordres.put("arbre", this::arbre);
+        ordres.put("cabalminim", this::cabalMinim);
+        ordres.put("excescabal", this::excesCabal);
+        ordres.put("sobrecarregues", this::sobrecarregues);
+        ordres.put("situacio", this::situacio);
+        ordres.put("cabalabonat", this::cabalAbonat);
+        ordres.put("criticitat", this::criticitat);
+        ordres.put("perfil", (br, out) -> perfil(br));
+        ordres.put("periode", this::periode);
+        ordres.put("proximitat", this::proximitat);
+        ordres.put("properes", this::properes);
+        ordres.put("radi", this::radi);
+        ordres.put("dibuix", this::dibuixar);
+        ordres.put("max-flow", this::maxFlow);
+    }
+
+    /**
+     * @brief Estableix quan s'escriuen els resultats al fitxer de sortida
+     * @pre cert
+     * @post Les properes simulacions buidaran el fitxer de sortida segons \p buidat (per defecte, cada cert temps)
+     */
+    public void establirBuidat(EscriptorResultats.Buidat buidat){
+        this.buidat=buidat;
+    }
+
+    /**
+     * @brief Estableix on es registren les modificacions de la xarxa
+     * @pre cert
+     * @post Les properes simulacions comencen recuperant la xarxa de \p directori i hi registren totes les
+     *       modificacions amb durabilitat \p durabilitat. Si \p directori és null, no se'n registra cap.
+     */
+    public void establirDiari(Path directori, Diari.Durabilitat durabilitat){
+        this.directoriDiari=directori;
+        this.durabilitat=durabilitat;
+    }
+
+    /**
+     * @brief Estableix quantes operacions es poden desfer
+     * @pre \p profunditat >= 0
+     * @post Les xarxes de les properes simulacions (també les recuperades del diari o carregades d'una instantània)
+     *       permeten desfer com a molt \p profunditat operacions. Si és 0, es manté la profunditat de cada xarxa.
+     */
+    public void establirProfunditatHistorial(int profunditat){
+        this.profunditatHistorial=profunditat;
+    }
 
     /**
      * @brief Simula operacions sobre una xarxa de distribució d'aigua a partir d'un fitxer d'entrada.
@@ -21,9 +137,11 @@ public class SimuladorModeText {
      * @pre fitxer_entrada és el nom d'un fitxer de text que conté una seqüència d'operacions a realitzar sobre una xarxa de distribució d'aigua.
      * @post S'han realitzat les operacions descrites al fitxer d'entrada sobre la xarxa de distribució d'aigua, i el resultat s'ha guardat al fitxer de sortida.
      * Si alguna operació no es pot realitzar, es mostrarà un missatge d'error per la sortida estàndard.
+     * Retorna fals si no s'ha pogut llegir el fitxer d'entrada, escriure el de sortida o fer servir el diari, i cert
+     * altrament (també si alguna opció ha escrit un error al fitxer de sortida).
      * @throws Exception Si hi ha algun error.
      */
-    public void simular(String fitxer_entrada, String fitxer_sortida){
+    public boolean simular(String fitxer_entrada, String fitxer_sortida){
         Boolean seguir=true;
         BufferedReader br=null;
         try{
@@ -35,12 +153,25 @@ public class SimuladorModeText {
         }
         Writer out=null;
         try {
-            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fitxer_sortida), "UTF-8"));
+            out = new EscriptorResultats(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fitxer_sortida), "UTF-8")), buidat);
         }
         catch (Exception e){
             System.out.println("Error amb el fitxer de sortida");
             seguir=false;
         }
+        if(seguir && directoriDiari!=null){
+            try{
+                xarxa=Xarxa.recuperar(directoriDiari, durabilitat);
+                compartida=false;
+            }
+            catch (Exception e){
+                System.out.println("Error amb el diari " + directoriDiari);
+                seguir=false;
+            }
+        }
+        if(seguir && profunditatHistorial>0){
+            xarxa.establirProfunditatHistorial(profunditatHistorial);
+        }
         if(seguir){
             try{
                 String linea;
@@ -48,14 +179,77 @@ public class SimuladorModeText {
                 while ((linea = llegir(br)) != null) {//fitxer no acabat
                     gestionarOpcions(br, out, linea);
                 }
-                out.close();
             }
             catch (Exception e){
                 escriure(out,"Error: " + e.getMessage());
             }
         }
+        try{
+            xarxa.tancarDiari();
+        }
+        catch (IOException e){
+            System.out.println("Error amb el diari " + directoriDiari);
+            seguir=false;
+        }
+        if(out!=null){
+            try{
+                out.close();//escriu tot el que quedi pendent, també després d'un error
+            }
+            catch (IOException e){
+                System.out.println("Error amb el fitxer de sortida");
+                seguir=false;
+            }
+        }
+        if(br!=null){
+            try{
+                br.close();
+            }
+            catch (IOException e){
+                //ja s'ha llegit tot el que calia
+            }
+        }
+        return seguir;
     }
     
+    /**
+     * @brief Atén una sessió interactiva
+     * @param br Entrada de la sessió
+     * @param out Sortida de la sessió
+     * @pre Cap altre fil fa servir aquest simulador
+     * @post S'han executat totes les peticions de \p br fins que s'ha acabat. Cada petició és un tros de fitxer
+     * d'entrada acabat amb una línia buida (o amb el final de l'entrada), i s'executa com si fos un fitxer sencer:
+     * un error s'escriu a \p out i n'atura la resta. La sortida de cada opció s'envia tan bon punt s'ha executat,
+     * i la de cada petició acaba amb una línia buida.
+     * @throws IOException Si no es pot llegir l'entrada o escriure la sortida.
+     */
+    public void atendre(BufferedReader br, Writer out) throws IOException {
+        StringBuilder peticio=new StringBuilder();
+        String linea;
+        do{
+            linea=br.readLine();
+            if(linea!=null && !linea.trim().isEmpty()){
+                peticio.append(linea).append('\n');
+            }
+            else if(peticio.length()>0){ //les opcions que acaben amb una llista en trobaran el final aquí
+                BufferedReader lot=new BufferedReader(new StringReader(peticio.toString()));
+                peticio.setLength(0);
+                pendent=null;
+                try{
+                    String opcio;
+                    while((opcio=llegir(lot))!=null){
+                        gestionarOpcions(lot, out, opcio);
+                        out.flush();
+                    }
+                }
+                catch(RuntimeException e){
+                    escriure(out, "Error: " + e.getMessage());
+                }
+                out.write(System.lineSeparator());
+                out.flush();
+            }
+        }while(linea!=null);
+    }
+
     /**
      * @brief Gestiona les diferents opcions segons la línia llegida del fitxer d'entrada.
      *
@@ -64,58 +258,43 @@ public class SimuladorModeText {
      * @param linea Línia llegida del fitxer d'entrada
      * 
      * @pre El BufferedReader (br) i el Writer (out) no han de ser nuls
-     * @post S'ha gestionat l'opció corresponent a la línia llegida del fitxer d'entrada.
+     * @post S'ha gestionat l'opció corresponent a la línia llegida del fitxer d'entrada. Les opcions que acaben amb una
+     * llista deixen a pendent la línia que l'ha acabada, que es tractarà a la següent volta del bucle de simular.
+     * Cap modificació no coincideix amb una anàlisi. Si la xarxa es comparteix, l'anàlisi es fa sobre una bifurcació,
+     * sense bloquejar la xarxa, de manera que les altres sessions la poden consultar i modificar mentrestant; si no,
+     * es fa amb la xarxa en exclusiva, i el resultat s'escriu un cop alliberada.
      * 
      * @throws IllegalArgumentException Si la línia llegida no correspon a cap opció vàlida.
      */
     private void gestionarOpcions(BufferedReader br, Writer out, String linea){
-        if(linea.equals("terminal") || linea.equals("origen") || linea.equals("connexio")){
-            altaPunt(br, linea);
-        }
-        else if(linea.equals("connectar")){
-            connectar(br);
-        }
-        else if (linea.equals("abonar")) {
-            abonar(br);
-        } else if (linea.equals("tancar")) {
-            tancar(br);
-        } else if (linea.equals("obrir")) {
-            obrir(br);
-        } else if (linea.equals("backtrack")) {
-            recular(br);
-        } else if (linea.equals("cabal")) {
-            establirCabal(br);
-        } else if (linea.equals("demanda")) {
-            establirDemanda(br);
-        } else if (linea.equals("cicles")) {
-            cicles(br, out);
-        } else if (linea.equals("arbre")) {
-            arbre(br, out);
-        } else if (linea.equals("cabalminim")) {
-            cabalMinim(br, out);
-        } else if (linea.equals("excescabal")) {
-            String aux=excesCabal(br, out);
-            if(aux!=null){
-                gestionarOpcions(br, out, aux);
+        Ordre ordre=ordres.get(linea);
+        if(ordre==null){
+            throw new IllegalArgumentException("Opcio no valida");
+        }
+        if(ANALISIS.contains(linea) && compartida){
+            Xarxa original=xarxa;
+            xarxa=original.bifurcar();
+            try{
+                ordre.executar(br, out);
             }
-        } else if (linea.equals("situacio")) {
-            String aux=situacio(br,out);
-            if(aux!=null){
-                gestionarOpcions(br, out, aux);
+            finally{
+                xarxa=original;
             }
-        } else if (linea.equals("cabalabonat")) {
-            cabalAbonat(br, out);
-        } else if (linea.equals("proximitat")) {
-            String aux=proximitat(br,out);
-            if(aux!=null){
-                gestionarOpcions(br, out, aux);
+        }
+        else if(ANALISIS.contains(linea)){
+            StringWriter resultat=new StringWriter();
+            try{
+                xarxa.exclusiu(() -> {
+                    ordre.executar(br, resultat);
+                    return null;
+                });
+            }
+            finally{ //també el que s'hagi escrit abans d'un error
+                escriure(out, resultat);
             }
-        } else if (linea.equals("dibuix")) {
-            dibuixar(br);
-        } else if (linea.equals("max-flow")) {
-            maxFlow(br);
-        } else {
-            throw new IllegalArgumentException("Opcio no valida");
+        }
+        else{
+            ordre.executar(br, out);
         }
     }
 
@@ -127,27 +306,22 @@ public class SimuladorModeText {
      * @pre La línia llegida (línea) no ha de ser nul·la.
      * @post Retorna true si la línia especificada correspon a una opció vàlida, i false en cas contrari.
      */
-    private Boolean esOpcio(String linea){
-        if (linea.equals("terminal") || linea.equals("origen") || linea.equals("connexio") ||
-            linea.equals("connectar") || linea.equals("abonar") || linea.equals("tancar") ||
-            linea.equals("obrir") || linea.equals("backtrack") || linea.equals("cabal") ||
-            linea.equals("demanda") || linea.equals("cicles") || linea.equals("arbre") ||
-            linea.equals("cabalminim") || linea.equals("excescabal") || linea.equals("situacio") ||
-            linea.equals("cabalabonat") || linea.equals("proximitat") || linea.equals("dibuix") ||
-            linea.equals("max-flow")) {
-            return true;
-        } else {
-            return false;
-        }
+    private boolean esOpcio(String linea){
+        return ordres.containsKey(linea);
     }
 
     /**
      * @brief Llegeix una línia del BufferedReader.
      *
      * @pre El BufferedReader (br) no ha de ser nul.
-     * @post Retorna la línia llegida sense espais, o null si s'arriba al final del fitxer.
+     * @post Retorna la línia pendent si n'hi ha, o altrament la línia llegida sense espais, o null si s'arriba al final del fitxer.
      */
     private String llegir(BufferedReader br){
+        if(pendent!=null){
+            String linea=pendent;
+            pendent=null;
+            return linea;
+        }
         String linea="";
         try{
             linea=br.readLine();
@@ -168,7 +342,7 @@ public class SimuladorModeText {
      * @param missatge El missatge que es vol escriure.
      * 
      * @pre \p out && \p missatge no ha de ser nul.
-     * @post El missatge s'ha escrit correctament al fitxer de sortida.
+     * @post El missatge s'ha afegit al fitxer de sortida, que es buida segons la política de buidat.
      * 
      * @throws IOException Si es produeix un error d'entrada/sortida en escriure al Writer.
      */
@@ -176,7 +350,20 @@ public class SimuladorModeText {
         try{
             out.write(missatge);
             out.write(System.lineSeparator());
-            out.flush(); // assegurar que el missatge s'envii correctament
+        }
+        catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @brief Escriu al fitxer de sortida un resultat ja escrit en memòria
+     * @pre cert
+     * @post S'ha escrit a \p out tot el que s'ha escrit a \p resultat, sense cap línia més
+     */
+    private void escriure(Writer out, StringWriter resultat){
+        try{
+            out.write(resultat.toString());
         }
         catch(IOException e) {
             e.printStackTrace();
@@ -299,6 +486,37 @@ public class SimuladorModeText {
         xarxa.abonar(dni, t);
     }
 
+    /**
+     * @brief Abona de cop tots els usuaris d'un fitxer d'abonaments.
+     * @pre Cada línia no buida del fitxer té el DNI de l'usuari i l'identificador d'un terminal de la xarxa,
+     *      separats per espais, tabuladors, comes o punts i comes.
+     * @post Tots els usuaris del fitxer s'abonen al terminal corresponent, llegint el fitxer una sola vegada.
+     * @throws IllegalArgumentException Si el fitxer no es pot llegir o alguna línia no és vàlida.
+     */
+    private void abonaments(BufferedReader br){
+        String fitxer=llegir(br);
+        List<String> dnis=new ArrayList<>();
+        List<String> terminals=new ArrayList<>();
+        try (BufferedReader abonaments=new BufferedReader(new InputStreamReader(new FileInputStream(fitxer), "UTF-8"))){
+            String linea;
+            while((linea=abonaments.readLine())!=null){
+                linea=linea.trim();
+                if(!linea.isEmpty()){
+                    String[] parts=linea.split("[\\s,;]+");
+                    if(parts.length!=2){
+                        throw new IllegalArgumentException("Abonament erroni - " + linea);
+                    }
+                    dnis.add(parts[0]);
+                    terminals.add(parts[1]);
+                }
+            }
+        }
+        catch(IOException e){
+            throw new IllegalArgumentException("Error amb el fitxer d'abonaments " + fitxer);
+        }
+        xarxa.abonar(dnis, terminals);
+    }
+
     /**
      * @brief Obre l'aixeta
      * @pre L'identificador llegit ha de correspondre a un node existent a la xarxa.
@@ -320,7 +538,7 @@ public class SimuladorModeText {
     }
 
     /**
-     * @brief Recula els canvis d'estat de les aixetes
+     * @brief Recula els canvis d'aixetes, demandes i cabals
      * @pre cert
      * @post La xarxa recula el nombre de passos especificat.
      */
@@ -329,6 +547,59 @@ public class SimuladorModeText {
         xarxa.recular(n);
     }
 
+    /**
+     * @brief Torna a fer els canvis reculats
+     * @pre cert
+     * @post La xarxa refà el nombre de passos especificat dels que s'han reculat.
+     */
+    private void refer(BufferedReader br){
+        int n = Integer.parseInt(llegir(br));
+        xarxa.refer(n);
+    }
+
+    /**
+     * @brief Desa la xarxa en una instantània
+     * @pre La línia següent és el nom del fitxer
+     * @post S'ha escrit una instantània binària de la xarxa al fitxer indicat.
+     * @throws IllegalArgumentException si no es pot escriure el fitxer
+     */
+    private void desar(BufferedReader br){
+        String fitxer=llegir(br);
+        try{
+            xarxa.desar(Paths.get(fitxer));
+        }
+        catch(IOException e){
+            throw new IllegalArgumentException("Error amb el fitxer d'instantània " + fitxer);
+        }
+    }
+
+    /**
+     * @brief Carrega la xarxa d'una instantània
+     * @pre La línia següent és el nom del fitxer
+     * @post La xarxa passa a ser la desada al fitxer indicat, amb tot el seu estat. Si es registren les
+     *       modificacions, el diari comença una generació nova amb la xarxa carregada.
+     * @throws IllegalArgumentException si no es pot llegir el fitxer o no és una instantània vàlida
+     */
+    private void carregar(BufferedReader br){
+        String fitxer=llegir(br);
+        try{
+            Xarxa carregada=Xarxa.carregar(Paths.get(fitxer));
+            if(profunditatHistorial>0){
+                carregada.establirProfunditatHistorial(profunditatHistorial);
+            }
+            if(directoriDiari!=null){
+                xarxa.tancarDiari();
+                carregada.adjuntarDiari(directoriDiari, durabilitat);
+            }
+            xarxa=carregada;
+            compartida=false; //la xarxa carregada només és d'aquesta sessió
+            perfils=null; //els perfils s'assignen per índex de node
+        }
+        catch(IOException e){
+            throw new IllegalArgumentException("Error amb el fitxer d'instantània " + fitxer);
+        }
+    }
+
     /**
      * @brief Estableix el cabal d'un origen de la xarxa.
      * @pre cert
@@ -354,12 +625,17 @@ public class SimuladorModeText {
     /**
      * @brief Verifica si una xarxa té cicles
      * @pre cert
-     * @post Escriu si la xarxa té cicles o no.
+     * @post Escriu si la xarxa té cicles o no. Si en té, escriu també els nodes d'un dels cicles.
      */
     private void cicles(BufferedReader br, Writer out){
         Origen o=retornarOrigen(llegir(br));
-        if(GestorXarxes.teCicles(xarxa, o)){
+        List<String> cicle=GestorXarxes.cicle(xarxa, o);
+        if(!cicle.isEmpty()){
             escriure(out, o.id() + " te cicles");
+            escriure(out, "cicle");
+            for(String id : cicle){
+                escriure(out, id);
+            }
         }
         else{
             escriure(out, o.id() + " no te cicles");
@@ -408,7 +684,7 @@ public class SimuladorModeText {
      * @pre Xarxa sense cicles
      * @post Les canonades amb excés de cabal són escrites en el fitxer de sortida.
      */
-    private String excesCabal(BufferedReader br, Writer out){
+    private void excesCabal(BufferedReader br, Writer out){
         Set<Canonada> ctjCanonadas = new HashSet<>();
         String linea=llegir(br);
         while (linea!=null && !esOpcio(linea)) {//mentres no s'hagi acabat el fitxer i no sigui una opcio
@@ -421,7 +697,23 @@ public class SimuladorModeText {
         for (Canonada canonada : exces) {
             escriure(out, canonada.id());
         }
-        return linea;
+        pendent=linea;
+    }
+
+    /**
+     * @brief Canonades sobrecarregades de tota la xarxa
+     * @pre cert
+     * @post Escriu al fitxer de sortida les canonades de les components sense cicles que se sobrepassarien si es satisfés
+     * la demanda de tots els terminals, de més a menys excés, amb el cabal que hi passaria i la seva capacitat.
+     */
+    private void sobrecarregues(BufferedReader br, Writer out){
+        GrafCompacte graf=xarxa.grafCompacte();
+        Sobrecarregues sobrecarregues=Sobrecarregues.escombrar(graf);
+        escriure(out, "sobrecarregues");
+        for(int i=0; i<sobrecarregues.nombre(); i++){
+            int e=sobrecarregues.canonada(i);
+            escriure(out, graf.canonada(e).id() + " " + Float.toString(sobrecarregues.cabal(i)) + " / " + Float.toString(graf.capacitat(e)));
+        }
     }
 
     /**
@@ -430,7 +722,7 @@ public class SimuladorModeText {
      * @post Les aixetes a tancar són escrites en el fitxer de sortida.
      * @throws IllegalArgumentException Si l'entrada del fitxer és incorrecte.
      */
-    private String situacio(BufferedReader br, Writer out){
+    private void situacio(BufferedReader br, Writer out){
         Map<Terminal, Boolean> aiguaArriba = new HashMap<>();
         String linea=llegir(br);
         while (linea!=null && !esOpcio(linea)) {//mentres no s'hagi acabat el fitxer i no sigui una opcio
@@ -452,7 +744,7 @@ public class SimuladorModeText {
         for(Nodo n : tancar){
             escriure(out, n.id());
         }
-        return linea;
+        pendent=linea;
     }
 
     /**
@@ -466,13 +758,88 @@ public class SimuladorModeText {
         escriure(out, Float.toString(cabal));
     }
 
+    /**
+     * @brief Impacte de tancar cada aixeta
+     * @pre cert
+     * @post Escriu al fitxer de sortida, per cada node obert al qual arriba aigua, el seu id, el nombre de terminals i
+     * d'abonats que es quedarien sense aigua tancant-ne l'aixeta i el cabal que es perdria, de més a menys cabal perdut.
+     */
+    private void criticitat(BufferedReader br, Writer out){
+        ImpacteAixetes impacte=xarxa.impacteAixetes();
+        GrafCompacte graf=xarxa.grafCompacte();
+        escriure(out, "criticitat");
+        for(int v : impacte.ordenats()){
+            escriure(out, graf.id(v) + " " + impacte.nombreTerminals(v) + " " + impacte.nombreAbonats(v) + " "
+                     + Float.toString(impacte.cabalPerdut(v)));
+        }
+    }
+
+    /**
+     * @brief Defineix un perfil de demanda
+     * @pre La línia següent és el nom del perfil, la següent els seus multiplicadors separats per comes (un per pas de
+     * temps, tants com els dels perfils anteriors) i les següents, fins a la propera opció, els terminals que el segueixen
+     * @post S'ha afegit el perfil i la demanda dels terminals llistats el segueix a les simulacions de període estès.
+     * @throws IllegalArgumentException Si els multiplicadors no són vàlids o algun node no és un terminal.
+     */
+    private void perfil(BufferedReader br){
+        String nom=llegir(br);
+        String[] valors=llegir(br).split(",");
+        float[] multiplicadors=new float[valors.length];
+        for(int t=0; t<valors.length; t++){
+            multiplicadors[t]=Float.parseFloat(valors[t]);
+        }
+        if(perfils==null){
+            perfils=new PerfilsDemanda(multiplicadors.length);
+        }
+        List<Terminal> terminals=new ArrayList<>();
+        String linea=llegir(br);
+        while (linea!=null && !esOpcio(linea)) {//mentres no s'hagi acabat el fitxer i no sigui una opcio
+            terminals.add(retornarTerminal(linea));
+            linea=llegir(br);
+        }
+        int p=perfils.afegir(nom, multiplicadors);
+        for(Terminal t : terminals){
+            perfils.assignar(xarxa.indexNode(t), p);
+        }
+        pendent=linea;
+    }
+
+    /**
+     * @brief Simulació de període estès
+     * @pre S'ha definit algun perfil
+     * @post Escriu al fitxer de sortida, per cada pas de temps dels perfils, el cabal de cada node i de cada canonada
+     * de la xarxa (NaN si depèn d'un cicle), amb la demanda de cada terminal multiplicada per la del seu perfil. Els
+     * resultats de cada pas s'escriuen tan bon punt s'ha calculat.
+     * Se simula una bifurcació de la xarxa, de manera que la xarxa només es bloqueja per bifurcar-la i les altres
+     * sessions la poden consultar i modificar mentre dura la simulació, sense que els seus canvis hi apareguin.
+     * @throws IllegalArgumentException Si no s'ha definit cap perfil.
+     */
+    private void periode(BufferedReader br, Writer out){
+        if(perfils==null){
+            throw new IllegalArgumentException("No s'ha definit cap perfil");
+        }
+        GrafCompacte graf=xarxa.bifurcar().grafCompacte();
+        SimulacioPeriode simulacio=new SimulacioPeriode(graf, perfils);
+        escriure(out, "periode");
+        simulacio.simular(t -> {
+            escriure(out, "pas " + t);
+            for(int v=0; v<graf.nombreNodes(); v++){
+                escriure(out, graf.id(v) + " " + Float.toString(simulacio.cabal(v)));
+            }
+            for(int e=0; e<graf.nombreCanonades(); e++){
+                //l'identificador sense crear la Canonada, que a la bifurcació també crearia els seus nodes
+                escriure(out, graf.id(graf.font(e)) + "-" + graf.id(graf.desti(e)) + " " + Float.toString(simulacio.cabalCanonada(e)));
+            }
+        });
+    }
+
     /**
      * @brief Llistar les aixetes ordenades segons la distància
      * @pre cert
      * @post Mostrar pel fitxer de sortida les aixetes ordenades segons la seva proximitat a la posició
      * geogràfica donada i, en cas d'empat, alfabèticament.
      */
-    private String proximitat(BufferedReader br, Writer out){
+    private void proximitat(BufferedReader br, Writer out){
         Set<Nodo> ctjNodo = new HashSet<>();
         Coordenades coord=convCoordenades(llegir(br));
         String linea=llegir(br);
@@ -486,37 +853,90 @@ public class SimuladorModeText {
         for (Nodo n : Nodesordenats) {
             escriure(out, n.id());
         }
-        
-        return linea;
+        pendent=linea;
     }
     
     /**
-     * @brief Dibuixar xarxa
-     * @pre cert
-     * @post Mostrar un dibuix de la xarxa per pantalla.
-     * @throws IllegalArgumentException Si l'entrada del fitxer és incorrecte.
-     * 
+     * @brief Nodes més propers a una posició
+     * @pre La línia següent són unes coordenades i la següent un enter k >= 0
+     * @post Mostra pel fitxer de sortida els k nodes de la xarxa més propers a la posició geogràfica donada,
+     * ordenats per distància i, en cas d'empat, alfabèticament.
+     */
+    private void properes(BufferedReader br, Writer out){
+        Coordenades coord=convCoordenades(llegir(br));
+        int k=Integer.parseInt(llegir(br).trim());
+        if(k<0){
+            throw new IllegalArgumentException("El nombre de nodes no pot ser negatiu");
+        }
+        escriure(out, "properes");
+        for (Nodo n : xarxa.nodesMesPropers(coord, k)) {
+            escriure(out, n.id());
+        }
+    }
+
+    /**
+     * @brief Nodes dins d'un radi
+     * @pre La línia següent són unes coordenades i la següent un radi en km >= 0
+     * @post Mostra pel fitxer de sortida els nodes de la xarxa a com a molt el radi donat de la posició geogràfica
+     * donada, ordenats per distància i, en cas d'empat, alfabèticament.
      */
-    private void dibuixar(BufferedReader br){
+    private void radi(BufferedReader br, Writer out){
+        Coordenades coord=convCoordenades(llegir(br));
+        double radi=Double.parseDouble(llegir(br).trim());
+        if(!(radi>=0)){
+            throw new IllegalArgumentException("El radi no pot ser negatiu");
+        }
+        escriure(out, "radi");
+        for (Nodo n : xarxa.nodesDinsRadi(coord, radi)) {
+            escriure(out, n.id());
+        }
+    }
+
+    /**
+     * @brief Dibuixar la xarxa
+     * @pre Xarxa sense cicles
+     * @post Es visualitzarà per pantalla la component connexa de la xarxa. Sense finestres, s'escriu al fitxer de sortida
+     * cada canonada de la component amb el cabal que hi passa i la seva capacitat.
+     * @throws IllegalArgumentException Si la xarxa té cicles.
+     */
+    private void dibuixar(BufferedReader br, Writer out){
         Origen o=retornarOrigen(llegir(br));
         if(GestorXarxes.teCicles(xarxa, o)){
             throw new IllegalArgumentException("opció dibuix - La xarxa no hauria de tenir cicles");
         }
+        else if(senseFinestres){
+            escriure(out, "dibuix");
+            for(Map.Entry<String,String> etiqueta : xarxa.etiquetesCanonades(o).entrySet()){
+                escriure(out, etiqueta.getKey() + " " + etiqueta.getValue());
+            }
+        }
         else{
             xarxa.dibuixar(o);
         }
-        
-        
     }
 
     /**
      * @brief Calcular el flux màxim d'una xarxa
      * @pre cert
-     * @post Es visualitzarà per pantalla el dibuix resultant de calcular el flux màxim de la xarxa.
+     * @post Es visualitzarà per pantalla el dibuix resultant de calcular el flux màxim de la xarxa. Sense finestres, s'escriu
+     * al fitxer de sortida el flux màxim i cada canonada que hi intervé amb el flux que hi passa i la seva capacitat.
      */
-    private void maxFlow(BufferedReader br){
+    private void maxFlow(BufferedReader br, Writer out){
         Origen o=retornarOrigen(llegir(br));
-        GestorXarxes.fluxMaxim(xarxa, o);
+        if(senseFinestres){
+            FluxMaxim flux=GestorXarxes.resultatFluxMaxim(xarxa, o);
+            GrafCompacte graf=xarxa.grafCompacte();
+            escriure(out, "flux maxim");
+            escriure(out, Float.toString(flux.valor()));
+            for(int e=0; e<graf.nombreCanonades(); e++){
+                if(flux.usaCanonada(e)){
+                    escriure(out, graf.canonada(e).id() + " " + Float.toString(flux.flux(e)) + " / " + Float.toString(graf.capacitat(e)));
+                }
+            }
+        }
+        else{
+            GestorXarxes.fluxMaxim(xarxa, o);
+        }
     }
 
 }
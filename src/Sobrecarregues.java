@@ -0,0 +1,336 @@
+/** @file Sobrecarregues.java
+    @brief Classe Sobrecarregues
+*/
+
+/** @class Sobrecarregues
+    @brief Canonades d'una xarxa per on passaria més cabal que la seva capacitat si es satisfés la demanda de tots els
+           terminals, ordenades de més a menys excés i, en cas d'empat, per índex.
+
+           El cabal de cada canonada és el mateix que el càlcul recursiu original de GestorXarxes (la demanda es
+           reparteix entre les entrades de cada node que reben aigua en proporció a la seva capacitat, sense limitar-la
+           a la capacitat, i el cabal de cada node es reparteix entre les sortides en proporció a la demanda), però es
+           calcula per a totes les canonades d'una component connexa en una sola passada: un ordre topològic, la
+           demanda en sentit invers i el cabal en sentit directe. Les components s'avaluen en paral·lel amb fork/join;
+           les que tenen cicles no tenen cabal definit i s'ometen.
+    @author Andy Moreno Ramon
+*/
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+public class Sobrecarregues {
+    private static final int LLINDAR = 1 << 12; ///< Nombre de nodes per sota del qual un grup de components s'avalua en un sol fil
+
+    private final GrafCompacte graf; ///< Graf avaluat
+    private final int[] canonades; ///< Canonades sobrecarregades, de més a menys excés
+    private final float[] cabals; ///< Cabal de cada canonada de canonades
+
+    /**
+     * @brief Crea el resultat a partir de les canonades sobrecarregades
+     * @pre \p canonades i \p cabals tenen els primers \p n elements vàlids i cabals[i] > capacitat de canonades[i]
+     * @post Crea el resultat amb les \p n canonades ordenades de més a menys excés i, en cas d'empat, per índex
+     */
+    private Sobrecarregues(GrafCompacte graf, int[] canonades, float[] cabals, int n){
+        this.graf=graf;
+        Integer[] ordre=new Integer[n];
+        for(int i=0; i<n; i++){
+            ordre[i]=i;
+        }
+        Arrays.sort(ordre, Comparator.<Integer>comparingDouble(i -> graf.capacitat(canonades[i])-cabals[i])
+                                     .thenComparingInt(i -> canonades[i]));
+        this.canonades=new int[n];
+        this.cabals=new float[n];
+        for(int i=0; i<n; i++){
+            this.canonades[i]=canonades[ordre[i]];
+            this.cabals[i]=cabals[ordre[i]];
+        }
+    }
+
+    /**
+     * @brief Canonades sobrecarregades de tota la xarxa
+     * @pre cert
+     * @post Retorna les canonades sobrecarregades de totes les components sense cicles de \p graf
+     */
+    public static Sobrecarregues escombrar(GrafCompacte graf){
+        List<Sobrecarregues> parcials=new ArrayList<>();
+        escombrar(graf, parcials::add);
+        int n=0;
+        for(Sobrecarregues s : parcials){
+            n+=s.nombre();
+        }
+        int[] canonades=new int[n];
+        float[] cabals=new float[n];
+        int i=0;
+        for(Sobrecarregues s : parcials){
+            System.arraycopy(s.canonades, 0, canonades, i, s.nombre());
+            System.arraycopy(s.cabals, 0, cabals, i, s.nombre());
+            i+=s.nombre();
+        }
+        return new Sobrecarregues(graf, canonades, cabals, n);
+    }
+
+    /**
+     * @brief Canonades sobrecarregades de tota la xarxa, a mesura que es troben
+     * @pre \p perComponent no modifica \p graf
+     * @post S'ha cridat \p perComponent, des d'un dels fils de l'anàlisi i mai dues vegades alhora, amb les canonades
+     *       sobrecarregades de cada component sense cicles que en té alguna, tan bon punt s'ha avaluat la component
+     */
+    public static void escombrar(GrafCompacte graf, Consumer<Sobrecarregues> perComponent){
+        int n=graf.nombreNodes();
+        //components i nodes de cadascuna, agrupats
+        int nComponents=0;
+        int[] representants=new int[n];
+        for(int v=0; v<n; v++){
+            if(graf.component(v)==v){
+                representants[nComponents++]=v;
+            }
+        }
+        int[] inicis=new int[nComponents+1];
+        int[] membres=new int[n];
+        for(int c=0; c<nComponents; c++){
+            int v=representants[c];
+            inicis[c+1]=inicis[c]+graf.midaComponent(v);
+            for(int i=inicis[c]; i<inicis[c+1]; i++, v=graf.seguentMembre(v)){
+                membres[i]=v;
+            }
+        }
+        int[] locals=new int[n]; //índex de cada node dins la seva component
+        ForkJoinPool.commonPool().invoke(new Escombrat(graf, inicis, membres, locals, 0, nComponents, perComponent));
+    }
+
+    /**
+     * @brief Canonades sobrecarregades d'una component
+     * @pre 0 <= \p node < graf.nombreNodes()
+     * @post Retorna les canonades sobrecarregades de la component connexa de \p node
+     * @throws IllegalArgumentException si la component té cicles
+     */
+    public static Sobrecarregues component(GrafCompacte graf, int node){
+        int mida=graf.midaComponent(node);
+        int[] membres=new int[mida];
+        for(int i=0; i<mida; i++, node=graf.seguentMembre(node)){
+            membres[i]=node;
+        }
+        Sobrecarregues resultat=avaluar(graf, membres, 0, mida, new int[graf.nombreNodes()]);
+        if(resultat==null){
+            throw new IllegalArgumentException("La xarxa no hauria de tenir cicles");
+        }
+        return resultat;
+    }
+
+    /** @brief Avaluació d'un interval de components, que es divideix mentre sigui prou gran */
+    private static class Escombrat extends RecursiveAction {
+        private static final long serialVersionUID = 1L; ///< RecursiveAction és serialitzable, però la tasca no se serialitza mai
+        private final GrafCompacte graf; ///< Graf avaluat
+        private final int[] inicis; ///< Posició de membres on comença cada component
+        private final int[] membres; ///< Nodes de cada component, agrupats
+        private final int[] locals; ///< Espai per a l'índex local de cada node, compartit (cada tasca toca nodes diferents)
+        private final int primera; ///< Primera component de l'interval
+        private final int ultima; ///< Component següent a l'última de l'interval
+        private final Consumer<Sobrecarregues> perComponent; ///< Receptor dels resultats de cada component
+
+        /**
+         * @brief Crea l'avaluació d'un interval de components
+         * @pre 0 <= \p primera < \p ultima < inicis.length
+         * @post Crea una tasca que avalua les components de \p primera a \p ultima - 1
+         */
+        Escombrat(GrafCompacte graf, int[] inicis, int[] membres, int[] locals, int primera, int ultima,
+                  Consumer<Sobrecarregues> perComponent){
+            this.graf=graf;
+            this.inicis=inicis;
+            this.membres=membres;
+            this.locals=locals;
+            this.primera=primera;
+            this.ultima=ultima;
+            this.perComponent=perComponent;
+        }
+
+        @Override
+        protected void compute(){
+            if(ultima-primera>1 && inicis[ultima]-inicis[primera]>LLINDAR){
+                //partim per la meitat dels nodes, no de les components
+                int mig=Arrays.binarySearch(inicis, primera, ultima, (inicis[primera]+inicis[ultima])>>>1);
+                mig=Math.min(ultima-1, Math.max(primera+1, mig<0 ? -mig-1 : mig));
+                invokeAll(new Escombrat(graf, inicis, membres, locals, primera, mig, perComponent),
+                          new Escombrat(graf, inicis, membres, locals, mig, ultima, perComponent));
+                return;
+            }
+            for(int c=primera; c<ultima; c++){
+                Sobrecarregues resultat=avaluar(graf, membres, inicis[c], inicis[c+1], locals);
+                if(resultat!=null && resultat.nombre()>0){
+                    synchronized(perComponent){
+                        perComponent.accept(resultat);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @brief Avalua una component
+     * @pre membres[\p inici .. \p fi - 1] són tots els nodes d'una component i locals té espai per a tots els nodes
+     * @post Retorna les canonades sobrecarregades de la component, o null si té cicles
+     */
+    private static Sobrecarregues avaluar(GrafCompacte graf, int[] membres, int inici, int fi, int[] locals){
+        int mida=fi-inici;
+        for(int i=0; i<mida; i++){
+            locals[membres[inici+i]]=i;
+        }
+
+        //ordre topològic (índexs locals)
+        int[] ordre=new int[mida];
+        int[] pendents=new int[mida];
+        int n=0;
+        for(int i=0; i<mida; i++){
+            pendents[i]=graf.grauEntrada(membres[inici+i]);
+            if(pendents[i]==0){
+                ordre[n++]=i;
+            }
+        }
+        for(int i=0; i<n; i++){
+            int v=membres[inici+ordre[i]];
+            for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                int j=locals[graf.desti(graf.sortida(v, k))];
+                if(--pendents[j]==0){
+                    ordre[n++]=j;
+                }
+            }
+        }
+        if(n<mida){
+            return null;
+        }
+
+        //nodes on arriba aigua i suma de les capacitats de les entrades que en reben
+        boolean[] arriba=new boolean[mida];
+        float[] capacitats=new float[mida];
+        for(int i=0; i<mida; i++){
+            int l=ordre[i];
+            int v=membres[inici+l];
+            boolean obert=graf.aixetaOberta(v);
+            arriba[l]=obert && graf.tipus(v)==GrafCompacte.ORIGEN;
+            float suma=0;
+            for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+                int e=graf.entrada(v, k);
+                if(arriba[locals[graf.font(e)]]){
+                    arriba[l]|=obert;
+                    suma+=graf.capacitat(e);
+                }
+            }
+            capacitats[l]=suma;
+        }
+
+        //demanda, de les sortides cap a les entrades
+        float[] demandes=new float[mida];
+        for(int i=mida-1; i>=0; i--){
+            int l=ordre[i];
+            int v=membres[inici+l];
+            float demanda=0;
+            if(!graf.aixetaOberta(v)){
+                demanda=0;
+            }
+            else if(graf.tipus(v)==GrafCompacte.TERMINAL){
+                demanda=graf.demanda(v);
+            }
+            else{
+                for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                    demanda+=demandaPropagada(graf, graf.sortida(v, k), demandes, capacitats, locals);
+                }
+            }
+            demandes[l]=demanda;
+        }
+
+        //cabal, de les entrades cap a les sortides, i canonades que se sobrecarreguen
+        float[] cabalsNodes=new float[mida];
+        int[] canonades=new int[0];
+        float[] cabals=new float[0];
+        int nSobrecarregues=0;
+        for(int i=0; i<mida; i++){
+            int l=ordre[i];
+            int v=membres[inici+l];
+            float cabal=0;
+            if(!graf.aixetaOberta(v)){
+                cabal=0;
+            }
+            else if(graf.tipus(v)==GrafCompacte.ORIGEN){
+                cabal=demandes[l]>graf.cabalOrigen(v) ? graf.cabalOrigen(v) : demandes[l];
+            }
+            else{
+                for(int k=0, grau=graf.grauEntrada(v); k<grau; k++){
+                    cabal+=cabalEntrant(graf, graf.entrada(v, k), demandes, capacitats, cabalsNodes, locals);
+                }
+            }
+            cabalsNodes[l]=cabal;
+            for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                int e=graf.sortida(v, k);
+                float cabalCanonada=cabalEntrant(graf, e, demandes, capacitats, cabalsNodes, locals);
+                if(cabalCanonada>graf.capacitat(e)){
+                    if(nSobrecarregues==canonades.length){
+                        canonades=Arrays.copyOf(canonades, Math.max(8, nSobrecarregues*2));
+                        cabals=Arrays.copyOf(cabals, canonades.length);
+                    }
+                    canonades[nSobrecarregues]=e;
+                    cabals[nSobrecarregues++]=cabalCanonada;
+                }
+            }
+        }
+        return new Sobrecarregues(graf, canonades, cabals, nSobrecarregues);
+    }
+
+    /**
+     * @brief Demanda propagada d'una canonada
+     * @pre La demanda del destí de \p e i la suma de capacitats de les seves entrades que reben aigua estan calculades
+     * @post Retorna la part de la demanda del destí de \p e que li arriba per \p e, en proporció a la seva capacitat
+     */
+    private static float demandaPropagada(GrafCompacte graf, int e, float[] demandes, float[] capacitats, int[] locals){
+        int d=locals[graf.desti(e)];
+        float proporcio=graf.capacitat(e)/capacitats[d];
+        return demandes[d]*proporcio;
+    }
+
+    /**
+     * @brief Cabal d'una canonada
+     * @pre El cabal i la demanda del node d'inici de \p e estan calculats
+     * @post Retorna la part del cabal del node d'inici de \p e que hi circula, en proporció a la seva demanda propagada
+     */
+    private static float cabalEntrant(GrafCompacte graf, int e, float[] demandes, float[] capacitats, float[] cabals, int[] locals){
+        int f=locals[graf.font(e)];
+        float demandaPropagada=demandaPropagada(graf, e, demandes, capacitats, locals);
+        return (demandaPropagada/demandes[f])*cabals[f];
+    }
+
+    /**
+     * @brief Nombre de canonades sobrecarregades
+     * @pre cert
+     * @post Retorna el nombre de canonades sobrecarregades
+     */
+    public int nombre(){
+        return canonades.length;
+    }
+
+    /**
+     * @brief Canonada sobrecarregada
+     * @pre 0 <= \p i < nombre()
+     * @post Retorna l'índex de la \p i-èssima canonada amb més excés de cabal
+     */
+    public int canonada(int i){
+        return canonades[i];
+    }
+
+    /**
+     * @brief Cabal d'una canonada sobrecarregada
+     * @pre 0 <= \p i < nombre()
+     * @post Retorna el cabal que passaria per la \p i-èssima canonada
+     */
+    public float cabal(int i){
+        return cabals[i];
+    }
+
+    /**
+     * @brief Excés de cabal d'una canonada sobrecarregada
+     * @pre 0 <= \p i < nombre()
+     * @post Retorna quant supera el cabal de la \p i-èssima canonada la seva capacitat
+     */
+    public float exces(int i){
+        return cabals[i]-graf.capacitat(canonades[i]);
+    }
+}
@@ -15,7 +15,7 @@ public class Terminal extends Nodo {
     private final float demandaPunta; ///< Demanda punta d'aigua, expressada en litres per segon, en funció del nombre i tipus d'abonats que s'hagi previst connectar-hi.
 
     /** @invariant  0 <= demandaActual <= demandaPunta */
-    private float demandaActual; ///< Demanda d'aigua actual, expressada en litres per segon, inicialitzada a 0
+    private volatile float demandaActual; ///< Demanda d'aigua actual, expressada en litres per segon, inicialitzada a 0
     private Set<String> llistaAbonats; ///< Conjunt d'abonats del punt terminal
 
 
@@ -84,4 +84,13 @@ public class Terminal extends Nodo {
     public void nouAbonat(String idClient){
         llistaAbonats.add(idClient);
     }
+
+    /**
+     * @brief Abonats del punt terminal
+     * @pre cert
+     * @post Retorna els identificadors dels clients abonats, sense que es puguin modificar
+     */
+    public Set<String> abonats(){
+        return Collections.unmodifiableSet(llistaAbonats);
+    }
 }
@@ -4,11 +4,24 @@
 
 /** @class Xarxa
     @brief Xarxa de distribució d'aigua, no necessàriament connexa (graf dirigit de Node)
+
+           Es pot consultar des de molts fils mentre un altre la modifica. Les modificacions s'executen d'una en una
+           amb el bloqueig d'escriptura d'un StampedLock. Les consultes de valors ja calculats (cabal, demanda,
+           cabalAbonat, arribaAigua, node...) es fan amb una lectura optimista, sense bloquejar: llegeixen l'estat i
+           només el donen per bo si cap modificació ha començat mentrestant. Si alguna cosa ha canviat, o si cal calcular
+           un valor que encara no és a memòria, la consulta es repeteix amb el bloqueig d'escriptura, que també
+           protegeix les memòries (motor, arbre de dominadors, abast, índex espacial, graph). Els iteradors de
+           sortides i entrades, i els algorismes que treballen directament sobre grafCompacte(), només es poden fer
+           servir dins d'exclusiu(...) o mentre no es modifiqui la xarxa.
     @author Miquel Coll Barneto
 */
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
 
 import org.graphstream.graph.*;
 import org.graphstream.graph.implementations.*;
@@ -16,8 +29,20 @@ import org.graphstream.ui.graphicGraph.stylesheet.StyleConstants.Units;
 import org.graphstream.ui.spriteManager.*;
 
 public class Xarxa {
-    private Graph graph; ///< Graph de graphstream en el qual guardarem tota la informació referent a la xarxa de distribució d'aigua.
-    private Stack<String> listOperacions;///< Pila on guardem les operacions de tancar i obrir aixetes
+    private GrafCompacte graf; ///< Graf compacte on guardem tota la informació referent a la xarxa de distribució d'aigua, i sobre el qual es fan els càlculs.
+    private Graph graph; ///< Graph de graphstream amb la mateixa xarxa, que només es construeix quan es demana
+    private int versioGraph; ///< Versió de graf a partir de la qual s'ha construït graph
+    private ArbreDominadors arbre; ///< Arbre de dominadors de tota la topologia, que només es construeix quan es demana
+    private int versioArbre; ///< Versió de graf a partir de la qual s'ha construït arbre
+    private Abast abast; ///< Nodes on arriba aigua, que es calculen quan es demanen i després s'actualitzen
+    private Historial historial;///< Operacions sobre aixetes, demandes i cabals que es poden desfer i refer
+    private MotorCabal motor; ///< Motor que calcula i guarda la demanda i el cabal de cada node i canonada
+    private Map<String,Integer> abonats; ///< Índex del terminal de cada abonat (el de menor índex si n'hi ha més d'un)
+    private boolean abonatsCompartits; ///< Cert si abonats es comparteix amb una bifurcació, i s'ha de copiar abans de modificar-lo
+    private IndexEspacial index; ///< Índex espacial dels nodes, que es construeix el primer cop que es consulta i després segueix els nodes afegits
+    private Diari diari; ///< Diari on es registren les modificacions, o null si no se'n registren
+    private final StampedLock bloqueig=new StampedLock(); ///< Bloqueig de les modificacions i de les consultes que no poden ser optimistes
+    private volatile Thread propietari; ///< Fil que executa una operació exclusiva (i ja té el bloqueig d'escriptura), o null
     private static final String atributNode = "node"; ///< Atribut que tenen els nodes del graph, on guardarem un Nodo
     private static final String atributCanonada = "canonada"; ///< Atribut que tenen els edges del graph, on guardarem una Canonada
     private static final String atributGraficOrigen = "gorigen"; ///< Atribut que fem servir en el graph per tal de mostrar els orígens amb unes característiques especials per tal de diferenciar-lo dels altres nodes.
@@ -29,23 +54,448 @@ public class Xarxa {
     /**
      * @brief Crea una xarxa de distribució d'aigua buida
      * @pre cert
-     * @post Crea un graph de Graphstream i inicialitza listOperacions a una pila buida.
+     * @post Crea un graf compacte buit, inicialitza l'historial buit amb la profunditat per defecte i crea el motor de
+     *       càlcul de cabals.
      */
     public Xarxa(){
+        this(new GrafCompacte(), new HashMap<>(), new Historial(Historial.PROFUNDITAT));
+    }
+
+    /**
+     * @brief Crea una xarxa a partir del seu estat
+     * @pre \p abonats associa cada client al terminal de menor índex de \p graf al qual està abonat, i les operacions
+     *      de \p historial són sobre nodes de \p graf
+     * @post Crea una xarxa amb el graf, els abonats i l'historial donats, que passen a ser seus
+     */
+    Xarxa(GrafCompacte graf, Map<String,Integer> abonats, Historial historial){
+        this.graf=graf;
+        this.historial=historial;
+        motor=new MotorCabal(graf);
+        this.abonats=abonats;
+        index=new IndexEspacial(graf);
+    }
+
+    /**
+     * @brief Desa la xarxa
+     * @pre cert
+     * @post S'ha escrit a \p fitxer una instantània binària amb tot l'estat de la xarxa, que es pot tornar a carregar
+     *       amb carregar(fitxer)
+     * @throws IOException si no es pot escriure el fitxer
+     */
+    public void desar(Path fitxer) throws IOException {
+        long segell=bloquejar();
+        try{
+            desarInstantania(fitxer);
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Desa la xarxa sense bloquejar-la
+     * @pre Qui crida té el bloqueig d'escriptura o és l'únic fil que fa servir la xarxa
+     * @post El mateix que desar(fitxer)
+     * @throws IOException si no es pot escriure el fitxer
+     */
+    void desarInstantania(Path fitxer) throws IOException {
+        Instantania.desar(graf, historial, fitxer);
+    }
+
+    /**
+     * @brief Consulta que pot aprofitar els valors ja calculats
+     * @pre \p optimista només llegeix l'estat de la xarxa i retorna null si li cal calcular alguna cosa; \p exclusiva
+     *      fa la mateixa consulta i pot calcular i guardar els valors que falten
+     * @post Retorna el resultat d'\p optimista, sense bloquejar, si cap modificació ha començat mentre llegia; si no,
+     *       o si ha retornat null, retorna el d'\p exclusiva executada amb el bloqueig d'escriptura
+     */
+    private <T> T consultar(Supplier<T> optimista, Supplier<T> exclusiva){
+        long segell=bloqueig.tryOptimisticRead();
+        if(segell!=0){
+            try{
+                T resultat=optimista.get();
+                if(resultat!=null && bloqueig.validate(segell)){
+                    return resultat;
+                }
+            }
+            catch(RuntimeException e){
+                if(bloqueig.validate(segell)){ //l'error és de la consulta, no d'haver llegit un estat a mitges
+                    throw e;
+                }
+            }
+        }
+        return modificar(exclusiva);
+    }
+
+    /**
+     * @brief Consulta de només lectura
+     * @pre \p consulta només llegeix l'estat de la xarxa, tot i que pot comprimir els camins de les components
+     * @post Retorna el resultat de \p consulta, primer amb una lectura optimista i, si alguna modificació hi ha
+     *       coincidit, amb el bloqueig de lectura
+     */
+    <T> T consultar(Supplier<T> consulta){
+        if(propietari==Thread.currentThread()){
+            return consulta.get();
+        }
+        long segell=bloqueig.tryOptimisticRead();
+        if(segell!=0){
+            try{
+                T resultat=consulta.get();
+                if(bloqueig.validate(segell)){
+                    return resultat;
+                }
+            }
+            catch(RuntimeException e){
+                if(bloqueig.validate(segell)){
+                    throw e;
+                }
+            }
+        }
+        segell=bloqueig.readLock();
+        try{
+            return consulta.get();
+        }
+        finally{
+            bloqueig.unlockRead(segell);
+        }
+    }
+
+    /**
+     * @brief Executa una operació amb el bloqueig d'escriptura
+     * @pre \p operacio no fa servir cap altre mètode públic de la xarxa
+     * @post Retorna el resultat d'\p operacio, que s'ha executat sense cap altra modificació ni consulta alhora
+     */
+    private <T> T modificar(Supplier<T> operacio){
+        long segell=bloquejar();
+        try{
+            return operacio.get();
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Operació exclusiva
+     * @pre cert
+     * @post Retorna el resultat d'\p operacio, que s'ha executat amb el bloqueig d'escriptura: cap altre fil ha
+     *       modificat ni consultat la xarxa mentrestant. Dins d'\p operacio es poden fer servir tots els mètodes de la
+     *       xarxa i els algorismes que treballen directament sobre grafCompacte().
+     */
+    public <T> T exclusiu(Supplier<T> operacio){
+        long segell=bloquejar();
+        if(segell==0){ //ja som dins d'una operació exclusiva
+            return operacio.get();
+        }
+        propietari=Thread.currentThread();
+        try{
+            return operacio.get();
+        }
+        finally{
+            propietari=null;
+            bloqueig.unlockWrite(segell);
+        }
+    }
+
+    /**
+     * @brief Pren el bloqueig d'escriptura
+     * @pre cert
+     * @post Retorna el segell del bloqueig d'escriptura, ja pres, o 0 si aquest fil ja el tenia per una operació
+     *       exclusiva
+     */
+    private long bloquejar(){
+        return propietari==Thread.currentThread() ? 0 : bloqueig.writeLock();
+    }
+
+    /**
+     * @brief Allibera el bloqueig d'escriptura
+     * @pre \p segell l'ha retornat bloquejar()
+     * @post S'ha alliberat el bloqueig si bloquejar() l'havia pres
+     */
+    private void desbloquejar(long segell){
+        if(segell!=0){
+            bloqueig.unlockWrite(segell);
+        }
+    }
+
+    /**
+     * @brief Índex d'un node de la xarxa
+     * @pre \p node no és null
+     * @post Retorna l'índex de \p node al graf
+     * @throws NoSuchElementException si \p node no pertany a la xarxa
+     */
+    private int index(Nodo node){
+        int v=graf.indexNode(node.id());
+        if(v < 0){//No pertany a la xarxa
+            throw new NoSuchElementException("No pertany a la xarxa " + node.id());
+        }
+        return v;
+    }
+
+    /**
+     * @brief Índex d'un node al graf compacte
+     * @pre \p node no és null
+     * @post Retorna l'índex de \p node a grafCompacte(), que no canvia mentre el node és a la xarxa
+     * @throws NoSuchElementException si \p node no pertany a la xarxa
+     */
+    public int indexNode(Nodo node){
+        return consultar(() -> index(node));
+    }
+
+    /**
+     * @brief Valor guardat
+     * @pre cert
+     * @post Retorna \p valor, o null si és NaN (no calculat)
+     */
+    private static Float guardat(float valor){
+        return Float.isNaN(valor) ? null : valor;
+    }
+
+    /**
+     * @brief Carrega una xarxa
+     * @pre \p fitxer és una instantània escrita amb desar
+     * @post Retorna una xarxa amb el mateix estat que la que es va desar a \p fitxer
+     * @throws IOException si no es pot llegir el fitxer
+     * @throws IllegalArgumentException si el fitxer no és una instantània o n'és d'una versió no suportada
+     */
+    public static Xarxa carregar(Path fitxer) throws IOException {
+        return Instantania.carregar(fitxer);
+    }
+
+    /**
+     * @brief Bifurca la xarxa
+     * @pre cert
+     * @post Retorna una xarxa amb la mateixa topologia, abonats i estat, per analitzar escenaris amb totes les
+     *       operacions de consulta i de GestorXarxes. Comparteix els vectors del graf amb aquesta xarxa i només guarda
+     *       les aixetes, demandes i cabals que canviï. Els canvis posteriors de cadascuna no afecten l'altra. La
+     *       bifurcació comença amb l'historial buit, no té diari i no pot afegir nodes, canonades ni abonats.
+     */
+    public Xarxa bifurcar(){
+        long segell=bloquejar();
+        try{
+            Xarxa bifurcacio=new Xarxa(graf.bifurcar(), abonats, new Historial(historial.profunditat()));
+            abonatsCompartits=true;
+            if(abast!=null){
+                bifurcacio.abast=new Abast(abast, bifurcacio.graf);
+            }
+            return bifurcacio;
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Comprova que es pot canviar la topologia
+     * @pre cert
+     * @post Retorna si la xarxa no és una bifurcació
+     * @throws UnsupportedOperationException si la xarxa és una bifurcació
+     */
+    private void comprovarTopologia(){
+        if(graf.esBifurcacio()){
+            throw new UnsupportedOperationException("Una bifurcació només pot canviar aixetes, demandes i cabals");
+        }
+    }
+
+    /**
+     * @brief Recupera una xarxa del seu diari
+     * @pre cert
+     * @post Retorna la xarxa amb totes les modificacions registrades a \p directori (buida si és un directori nou),
+     *       carregant l'última instantània i reproduint només el diari posterior. La xarxa continua registrant les
+     *       modificacions al mateix directori amb durabilitat \p durabilitat.
+     * @throws IOException si no es poden llegir o escriure els fitxers
+     * @throws IllegalStateException si el diari no es pot reproduir
+     */
+    public static Xarxa recuperar(Path directori, Diari.Durabilitat durabilitat) throws IOException {
+        return Diari.recuperar(directori, durabilitat);
+    }
+
+    /**
+     * @brief Comença a registrar les modificacions
+     * @pre La xarxa no té diari
+     * @post Es desa l'estat actual de la xarxa a \p directori i a partir d'ara s'hi registren totes les modificacions
+     *       amb durabilitat \p durabilitat. Les generacions que hi hagués al directori s'esborren.
+     * @throws IOException si no es poden escriure els fitxers
+     * @throws IllegalStateException si la xarxa ja té diari
+     * @throws UnsupportedOperationException si la xarxa és una bifurcació
+     */
+    public void adjuntarDiari(Path directori, Diari.Durabilitat durabilitat) throws IOException {
+        long segell=bloquejar();
+        try{
+            if(diari!=null){
+                throw new IllegalStateException("La xarxa ja té diari");
+            }
+            comprovarTopologia();
+            diari=Diari.adjuntar(this, directori, durabilitat);
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Assigna el diari
+     * @pre \p diari registra aquesta xarxa i ja conté el seu estat actual
+     * @post Les modificacions de la xarxa es registren a \p diari
+     */
+    void establirDiari(Diari diari){
+        this.diari=diari;
+    }
+
+    /**
+     * @brief Punt de control
+     * @pre La xarxa té diari
+     * @post S'ha desat l'estat actual de la xarxa i el diari torna a començar buit, de manera que la recuperació no
+     *       haurà de reproduir les modificacions anteriors
+     * @throws IOException si no es poden escriure els fitxers
+     * @throws IllegalStateException si la xarxa no té diari
+     */
+    public void puntDeControl() throws IOException {
+        long segell=bloquejar();
+        try{
+            if(diari==null){
+                throw new IllegalStateException("La xarxa no té diari");
+            }
+            diari.puntDeControl(this);
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Deixa de registrar les modificacions
+     * @pre cert
+     * @post Totes les modificacions registrades són a disc i la xarxa ja no té diari
+     * @throws IOException si no s'han pogut escriure les modificacions pendents
+     */
+    public void tancarDiari() throws IOException {
+        long segell=bloquejar();
+        try{
+            if(diari!=null){
+                Diari d=diari;
+                diari=null;
+                d.tancar();
+            }
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Acaba de registrar una modificació
+     * @pre S'acaba d'afegir un registre al diari
+     * @post Si el diari ha arribat a Diari.MIDA_PUNT_CONTROL bytes s'ha fet un punt de control
+     * @throws UncheckedIOException si no es pot fer el punt de control
+     */
+    private void registrat(){
+        if(diari.mida()>=Diari.MIDA_PUNT_CONTROL){
+            try{
+                diari.puntDeControl(this);
+            }
+            catch(IOException e){
+                throw new UncheckedIOException("No es pot fer el punt de control", e);
+            }
+        }
+    }
+
+    /**
+     * @brief Prepara graphstream per mostrar finestres
+     * @pre cert
+     * @post Els dibuixos de graphstream es mostraran amb swing. Només cal cridar-la abans de mostrar una finestra,
+     *       de manera que si no es dibuixa res no es carrega cap classe d'interfície gràfica.
+     */
+    static void prepararPantalla(){
         System.setProperty("org.graphstream.ui", "swing");
 		System.setProperty("org.graphstream.debug", "true"); // Recomenable per excepcions imprevistes
-        graph=new SingleGraph("Xarxa");
-        graph.setStrict(true);
-        listOperacions=new Stack<>();
+    }
+
+    /**
+     * @brief Retorna el graf compacte
+     * @pre cert
+     * @post Retorna el graf compacte de la xarxa, sobre el qual treballen els algorismes
+     */
+    public GrafCompacte grafCompacte(){
+        return graf;
     }
 
     /**
      * @brief Retorna l'atribut graph
      * @pre cert
-     * @post Retorna l'atribut graph
+     * @post Retorna un Graph de graphstream amb tota la xarxa. Només es torna a construir si la xarxa ha canviat des de l'última crida.
      */
     public Graph grafic(){
-        return graph;
+        long segell=bloquejar();
+        try{
+            if(graph==null || versioGraph!=graf.versio()){
+                graph=new SingleGraph("Xarxa");
+                graph.setStrict(true);
+                for(int v=0; v<graf.nombreNodes(); v++){
+                    afegirNode(graph, graf.node(v));
+                }
+                for(int e=0; e<graf.nombreCanonades(); e++){
+                    afegirAresta(graph, graf.canonada(e));
+                }
+                versioGraph=graf.versio();
+            }
+            return graph;
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Arbre de dominadors de la topologia
+     * @pre cert
+     * @post Retorna l'arbre de dominadors de tota la xarxa, independentment de les aixetes, des dels orígens i els nodes
+     *       sense entrades. Com que no depèn de les aixetes, només es torna a construir si han canviat els nodes o les
+     *       canonades des de l'última crida.
+     */
+    public ArbreDominadors arbreDominadors(){
+        return consultar(() -> arbre!=null && versioArbre==graf.versio() ? arbre : null, () -> {
+            if(arbre==null || versioArbre!=graf.versio()){
+                arbre=new ArbreDominadors(graf, false);
+                versioArbre=graf.versio();
+            }
+            return arbre;
+        });
+    }
+
+    /**
+     * @brief Diu si arriba aigua a un node
+     * @pre \p node no és null
+     * @post Retorna cert si s'arriba a \p node des d'algun origen obert passant només per nodes oberts
+     * @throws NoSuchElementException si \p node no pertany a la xarxa
+     */
+    public boolean arribaAigua(Nodo node){
+        return consultar(() -> abast==null ? null : abast.arriba(index(node)), () -> arribaAigua(index(node)));
+    }
+
+    /**
+     * @brief Diu si arriba aigua a un node
+     * @pre 0 <= \p v < grafCompacte().nombreNodes()
+     * @post Retorna cert si s'arriba al node \p v des d'algun origen obert passant només per nodes oberts. El primer
+     *       cop es recorre tota la xarxa; després només es recorre la part afectada per cada canvi. No bloqueja la
+     *       xarxa.
+     */
+    boolean arribaAigua(int v){
+        if(abast==null){
+            abast=new Abast(graf);
+        }
+        return abast.arriba(v);
+    }
+
+    /**
+     * @brief Actualitza els nodes on arriba aigua
+     * @pre Només han canviat l'aixeta o el tipus de \p v, o les seves entrades
+     * @post Si ja s'havien calculat, els nodes on arriba aigua tornen a estar al dia
+     */
+    private void actualitzarAbast(int v){
+        if(abast!=null){
+            abast.actualitzar(v);
+        }
     }
 
     /**
@@ -54,12 +504,17 @@ public class Xarxa {
      * @post Retorna el node de la xarxa amb identificador id si existeix, altrament retorna null
      */
     public Nodo node(String id){
-        Node nodeGraph = graph.getNode(id);
-        if(nodeGraph!=null){
-            Nodo nodo = (Nodo)nodeGraph.getAttribute(atributNode);
-            return nodo;
-        }
-        return null;
+        //els nodes que no existeixen o no s'han creat encara es busquen amb el bloqueig
+        return consultar(() -> {
+            int v=graf.indexNode(id);
+            return v>=0 ? graf.nodeCreat(v) : null;
+        }, () -> {
+            int v=graf.indexNode(id);
+            if(v>=0){
+                return graf.node(v);
+            }
+            return null;
+        });
     }
 
     /**
@@ -68,12 +523,14 @@ public class Xarxa {
      * @post Retorna la canonada de la xarxa amb identificador \p id si existeix, altrament retorna null
      */
     public Canonada canonada(String id){
-        Edge edgeGraph = graph.getEdge(id);
-        if(edgeGraph!=null){
-            Canonada can = (Canonada)edgeGraph.getAttribute(atributCanonada);
-            return can;
-        }
-        return null;
+        //l'índex de canonades s'omple a mesura que es consulta
+        return modificar(() -> {
+            int e=graf.indexCanonada(id);
+            if(e>=0){
+                return graf.canonada(e);
+            }
+            return null;
+        });
     }
 
     /**
@@ -82,11 +539,20 @@ public class Xarxa {
      * @post Si el node existeix a la xarxa retorna un iterador que permet recórrer totes les canonades que surten del node, altrament null
      */
     public Iterator<Canonada> sortides(Nodo node){
-        Node nodeGraph = graph.getNode(node.id());
-        if(nodeGraph!=null){
-            Stream<Edge> edgeStream = nodeGraph.leavingEdges();
-            Stream<Canonada> canonadaStream = edgeStream.map(edge -> edge.getAttribute(atributCanonada, Canonada.class));
-            return canonadaStream.iterator();
+        int v=graf.indexNode(node.id());
+        if(v>=0){
+            return new Iterator<Canonada>(){
+                private int k=0;
+                public boolean hasNext(){
+                    return k<graf.grauSortida(v);
+                }
+                public Canonada next(){
+                    if(!hasNext()){
+                        throw new NoSuchElementException();
+                    }
+                    return graf.canonada(graf.sortida(v, k++));
+                }
+            };
         }
         return null;
     }
@@ -97,11 +563,20 @@ public class Xarxa {
      * @post Si el node existeix a la xarxa retorna un iterador que permet recórrer totes les canonades que entren al node, altrament null
      */
     public Iterator<Canonada> entrades(Nodo node){
-        Node nodeGraph = graph.getNode(node.id());
-        if(nodeGraph!=null){
-            Stream<Edge> edgeStream = nodeGraph.enteringEdges();
-            Stream<Canonada> canonadaStream = edgeStream.map(edge -> edge.getAttribute(atributCanonada, Canonada.class));
-            return canonadaStream.iterator();
+        int v=graf.indexNode(node.id());
+        if(v>=0){
+            return new Iterator<Canonada>(){
+                private int k=0;
+                public boolean hasNext(){
+                    return k<graf.grauEntrada(v);
+                }
+                public Canonada next(){
+                    if(!hasNext()){
+                        throw new NoSuchElementException();
+                    }
+                    return graf.canonada(graf.entrada(v, k++));
+                }
+            };
         }
         return null;
     }
@@ -111,14 +586,26 @@ public class Xarxa {
      * @pre No existeix cap node amb el mateix id que \p nodeOrigen a la xarxa
      * @post S'ha afegit \p nodeOrigen a la xarxa
      * @throws IllegalArgumentException si ja existeix un node amb aquest id
+     * @throws UnsupportedOperationException si la xarxa és una bifurcació
      */
     public void afegir(Origen nodeOrigen){
-        if(graph.getNode(nodeOrigen.id()) != null){//Ja existeix un node amb aquest id
-            throw new IllegalArgumentException("ja existeix a les xarxes una aixeta amb nom " + nodeOrigen.id() + ".");
+        long segell=bloquejar();
+        try{
+            comprovarTopologia();
+            if(graf.indexNode(nodeOrigen.id()) >= 0){//Ja existeix un node amb aquest id
+                throw new IllegalArgumentException("ja existeix a les xarxes una aixeta amb nom " + nodeOrigen.id() + ".");
+            }
+            //No existeix un node amb aquest id
+            actualitzarAbast(graf.afegirNode(nodeOrigen));
+            index.afegits();
+            if(diari!=null){
+                diari.afegir(nodeOrigen);
+                registrat();
+            }
+        }
+        finally{
+            desbloquejar(segell);
         }
-        //No existeix un node amb aquest id
-        Node n=graph.addNode(nodeOrigen.id());
-        n.setAttribute(atributNode, nodeOrigen);
     }
 
     /**
@@ -126,14 +613,26 @@ public class Xarxa {
      * @pre No existeix cap node amb el mateix id que \p nodeTerminal a la xarxa
      * @post S'ha afegit \p nodeTerminal a la xarxa
      * @throws IllegalArgumentException si ja existeix un node amb aquest id
+     * @throws UnsupportedOperationException si la xarxa és una bifurcació
      */
     public void afegir(Terminal nodeTerminal){
-        if(graph.getNode(nodeTerminal.id()) != null){//Ja existeix un node amb aquest id
-            throw new IllegalArgumentException("ja existeix a les xarxes una aixeta amb nom " + nodeTerminal.id() + ".");
+        long segell=bloquejar();
+        try{
+            comprovarTopologia();
+            if(graf.indexNode(nodeTerminal.id()) >= 0){//Ja existeix un node amb aquest id
+                throw new IllegalArgumentException("ja existeix a les xarxes una aixeta amb nom " + nodeTerminal.id() + ".");
+            }
+            //No existeix un node amb aquest id
+            actualitzarAbast(graf.afegirNode(nodeTerminal));
+            index.afegits();
+            if(diari!=null){
+                diari.afegir(nodeTerminal);
+                registrat();
+            }
+        }
+        finally{
+            desbloquejar(segell);
         }
-        //No existeix un node amb aquest id
-        Node n = graph.addNode(nodeTerminal.id());
-        n.setAttribute(atributNode, nodeTerminal);
     }
 
     /**
@@ -141,14 +640,26 @@ public class Xarxa {
      * @pre No existeix cap node amb el mateix id que \p nodeConnexio a la xarxa
      * @post S'ha afegit \p nodeConnexio a la xarxa
      * @throws IllegalArgumentException si ja existeix un node amb aquest id
+     * @throws UnsupportedOperationException si la xarxa és una bifurcació
      */
     public void afegir(Connexio nodeConnexio){
-        if(graph.getNode(nodeConnexio.id()) != null){//Ja existeix un node amb aquest id
-            throw new IllegalArgumentException("ja existeix a les xarxes una aixeta amb nom " + nodeConnexio.id() + ".");
+        long segell=bloquejar();
+        try{
+            comprovarTopologia();
+            if(graf.indexNode(nodeConnexio.id()) >= 0){//Ja existeix un node amb aquest id
+                throw new IllegalArgumentException("ja existeix a les xarxes una aixeta amb nom " + nodeConnexio.id() + ".");
+            }
+            //No existeix un node amb aquest id
+            actualitzarAbast(graf.afegirNode(nodeConnexio));
+            index.afegits();
+            if(diari!=null){
+                diari.afegir(nodeConnexio);
+                registrat();
+            }
+        }
+        finally{
+            desbloquejar(segell);
         }
-        //No existeix un node amb aquest id
-        Node n = graph.addNode(nodeConnexio.id());
-        n.setAttribute(atributNode, nodeConnexio);
     }
 
     /**
@@ -157,32 +668,51 @@ public class Xarxa {
      * @post S'han connectat els nodes amb una canonada de capacitat c, amb sentit de l'aigua de \p node1 a \p node2. Si el \p node2 és un Origen es converteix en una Connexio.
      * @throws NoSuchElementException si \p node1 o \p node2 no pertanyen a la xarxa
      * @throws IllegalArgumentException si els nodes ja estan connectats o \p node1 és un node terminal.
+     * @throws UnsupportedOperationException si la xarxa és una bifurcació
      */
     public void connectarAmbCanonada(Nodo node1, Nodo node2, float c){
-        if(node1==null || graph.getNode(node1.id())==null){
-            throw new NoSuchElementException("El primer node no pertany a la xarxa");
-        }
-        if(node2== null  || graph.getNode(node2.id())==null){//algun node no pertany a la xarxa
-            throw new NoSuchElementException("El segon node no pertany a la xarxa");
-        }
-        if(node1 instanceof Terminal){
-            throw new IllegalArgumentException("El primer node es un punt terminal");
-        }
-        Node nodeGraph1 = graph.getNode(node1.id());
-        Node nodeGraph2 = graph.getNode(node2.id());
-        if(nodeGraph1.getEdgeBetween(nodeGraph2)!=null){
-            throw new IllegalArgumentException("Ja estan connectats");
+        long segell=bloquejar();
+        try{
+            comprovarTopologia();
+            int v1 = node1==null ? -1 : graf.indexNode(node1.id());
+            int v2 = node2==null ? -1 : graf.indexNode(node2.id());
+            if(v1<0){
+                throw new NoSuchElementException("El primer node no pertany a la xarxa");
+            }
+            if(v2<0){//algun node no pertany a la xarxa
+                throw new NoSuchElementException("El segon node no pertany a la xarxa");
+            }
+            if(node1 instanceof Terminal){
+                throw new IllegalArgumentException("El primer node es un punt terminal");
+            }
+            if(graf.connectats(v1, v2)){
+                throw new IllegalArgumentException("Ja estan connectats");
+            }
+            String nom=node1.id()+"-"+node2.id();
+            if(graf.indexCanonada(nom)>=0){
+                throw new IllegalArgumentException("Ja existeix una canonada amb nom " + nom);
+            }
+            Nodo desti = graf.node(v2);
+            Canonada canonada = new Canonada(graf.node(v1), desti, c);
+            //canviar primer a connexio
+            if(desti instanceof Origen){ //si el node2 és un Origen es converteix en una Connexió
+                desti = new Connexio(desti.id(), desti.coordenades());
+                graf.substituirNode(v2, desti);//substituim el node anterior.
+                canonada = new Canonada(graf.node(v1), desti, c);
+            }
+            graf.afegirCanonada(v1, v2, canonada);
+            actualitzarAbast(v2);
+            //canvia la demanda propagada de totes les entrades de node2, i node1 passa a dependre de node2
+            motor.invalidarDemanda(v2);
+            motor.invalidarDemanda(v1);
+            if(diari!=null){
+                diari.connectar(node1.id(), node2.id(), c);
+                registrat();
+            }
         }
-        //canviar primer a connexio
-        if(node2 instanceof Origen){ //si el node2 és un Origen es converteix en una Connexió
-            Connexio con = new Connexio(node2.id(), node2.coordenades());
-            nodeGraph2.setAttribute(atributNode, con);//substituim l'atribut anterior.
+        finally{
+            desbloquejar(segell);
         }
-        node2=node(node2.id());//Si s'ha convertit amb una connexio ara node2 és una Connexió
-        Canonada canonada = new Canonada(node1, node2, c);
-        String nom=node1.id()+"-"+node2.id();
-        Edge aresta=graph.addEdge(nom, node1.id(), node2.id(), true);
-        aresta.setAttribute(atributCanonada, canonada);
     }
 
     /**
@@ -190,17 +720,98 @@ public class Xarxa {
      * @pre \p nodeTerminal pertany a la xarxa
      * @post El client identificat amb \p idClient queda abonat al node terminal. Si ja ho estava retorna true, altrament false.
      * @throws NoSuchElementException si nodeTerminal no pertany a la xarxa
+     * @throws UnsupportedOperationException si la xarxa és una bifurcació
      */
     public boolean abonar(String idClient, Terminal nodeTerminal){
-        if(graph.getNode(nodeTerminal.id()) == null){//No pertany a la xarxa
-            throw new NoSuchElementException("No pertany a la xarxa " + nodeTerminal.id());
+        long segell=bloquejar();
+        try{
+            comprovarTopologia();
+            int v=graf.indexNode(nodeTerminal.id());
+            if(v < 0){//No pertany a la xarxa
+                throw new NoSuchElementException("No pertany a la xarxa " + nodeTerminal.id());
+            }
+            boolean existeix=true;
+            if(!nodeTerminal.teAbonat(idClient)){//nou abonat
+                existeix=false;
+                graf.abonar(v, idClient);
+                registrarAbonat(idClient, v);
+                if(diari!=null){
+                    diari.abonar(List.of(idClient), List.of(nodeTerminal.id()));
+                    registrat();
+                }
+            }
+            return existeix;
         }
-        boolean existeix=true;
-        if(!nodeTerminal.teAbonat(idClient)){//nou abonat
-            existeix=false;
-            nodeTerminal.nouAbonat(idClient);
+        finally{
+            desbloquejar(segell);
         }
-        return existeix;
+    }
+
+    /**
+     * @brief Abonar molts clients de cop
+     * @pre \p idsClients i \p idsTerminals tenen la mateixa mida
+     * @post Cada client idsClients[i] queda abonat al terminal idsTerminals[i]. Retorna quants abonaments són nous.
+     *       Si algun identificador de terminal no és vàlid no s'abona cap client.
+     * @throws IllegalArgumentException si les llistes no tenen la mateixa mida o algun identificador no és d'un terminal
+     * @throws NoSuchElementException si algun terminal no pertany a la xarxa
+     * @throws UnsupportedOperationException si la xarxa és una bifurcació
+     */
+    public int abonar(List<String> idsClients, List<String> idsTerminals){
+        long segell=bloquejar();
+        try{
+            comprovarTopologia();
+            if(idsClients.size()!=idsTerminals.size()){
+                throw new IllegalArgumentException("Hi ha d'haver un terminal per cada abonat");
+            }
+            int[] terminals=new int[idsTerminals.size()];
+            for(int i=0; i<terminals.length; i++){
+                String id=idsTerminals.get(i);
+                int v=graf.indexNode(id);
+                if(v < 0){
+                    throw new NoSuchElementException("No pertany a la xarxa " + id);
+                }
+                if(graf.tipus(v)!=GrafCompacte.TERMINAL){
+                    throw new IllegalArgumentException(id + " no és un terminal");
+                }
+                terminals[i]=v;
+            }
+            if(abonats.isEmpty()){//evitem redimensionar la taula mentre s'omple
+                abonats=new HashMap<>(terminals.length*4/3+1);
+                abonatsCompartits=false;
+            }
+            int nous=0;
+            for(int i=0; i<terminals.length; i++){
+                Terminal t=(Terminal)graf.node(terminals[i]);
+                String idClient=idsClients.get(i);
+                if(!t.teAbonat(idClient)){
+                    graf.abonar(terminals[i], idClient);
+                    registrarAbonat(idClient, terminals[i]);
+                    nous++;
+                }
+            }
+            if(diari!=null && nous>0){
+                diari.abonar(idsClients, idsTerminals);
+                registrat();
+            }
+            return nous;
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Afegeix un abonament a l'índex d'abonats
+     * @pre El node d'índex \p v és un terminal al qual està abonat \p idClient
+     * @post L'índex d'abonats associa \p idClient al terminal de menor índex al qual està abonat, igual que si es
+     *       recorreguessin tots els nodes en l'ordre en què s'han afegit.
+     */
+    private void registrarAbonat(String idClient, int v){
+        if(abonatsCompartits){ //les bifurcacions el llegeixen sense el nostre bloqueig
+            abonats=new HashMap<>(abonats);
+            abonatsCompartits=false;
+        }
+        abonats.merge(idClient, v, Math::min);
     }
 
     /**
@@ -210,124 +821,397 @@ public class Xarxa {
      * @throws NoSuchElementException si no existeix un client identificat amb \p idClient a la xarxa
      */
     public float cabalAbonat(String idClient){
-        Boolean seguir=true;
-        Terminal t = null;
-        Stream<Node> nodes=graph.nodes();
-        Iterator<Node> it=nodes.iterator();
-        while (it.hasNext() && seguir) {
-            Node nodeGraph = it.next();
-            Nodo nodo=node(nodeGraph.getId());
-            if(nodo instanceof Terminal){
-                t=(Terminal)nodo;
-                if(t.teAbonat(idClient)){
-                    seguir=false;
+        return consultar(() -> guardat(motor.cabalGuardat(terminalAbonat(idClient))),
+                         () -> motor.cabal(terminalAbonat(idClient)));
+    }
+
+    /**
+     * @brief Terminal d'un abonat
+     * @pre cert
+     * @post Retorna l'índex del terminal al qual està abonat el client identificat amb \p idClient
+     * @throws NoSuchElementException si no existeix un client identificat amb \p idClient a la xarxa
+     */
+    private int terminalAbonat(String idClient){
+        Integer v=abonats.get(idClient);
+        if(v==null){//no s'ha trobat el client identificiat amb idClient
+            throw new NoSuchElementException("Aquest client no existeix a la xarxa");
+        }
+        return v;
+    }
+
+    /**
+     * @brief Impacte de tancar cada aixeta
+     * @pre cert
+     * @post Retorna, per cada node obert al qual arriba aigua, els terminals, els abonats i el cabal que es perdrien
+     *       tancant-ne l'aixeta, calculats amb la configuració actual de la xarxa
+     */
+    public ImpacteAixetes impacteAixetes(){
+        long segell=bloquejar();
+        try{
+            int[] abonatsNode=new int[graf.nombreNodes()];
+            for(int v=0; v<abonatsNode.length; v++){
+                abonatsNode[v]=graf.nombreAbonats(v);
+            }
+            return new ImpacteAixetes(graf, motor, abonatsNode);
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Nodes més propers
+     * @pre \p k >= 0
+     * @post Retorna els \p k nodes de la xarxa més propers a \p c (o tots si n'hi ha menys), ordenats per distància
+     *       i, en cas d'empat, alfabèticament
+     */
+    public List<Nodo> nodesMesPropers(Coordenades c, int k){
+        return cercarNodes(() -> index.mesPropers(c, k));
+    }
+
+    /**
+     * @brief Nodes dins d'un radi
+     * @pre \p radi >= 0
+     * @post Retorna els nodes de la xarxa a com a molt \p radi km de \p c, ordenats per distància i, en cas d'empat,
+     *       alfabèticament
+     */
+    public List<Nodo> nodesDinsRadi(Coordenades c, double radi){
+        return cercarNodes(() -> index.dinsRadi(c, radi));
+    }
+
+    /**
+     * @brief Cerca a l'índex espacial
+     * @pre \p cerca consulta index i retorna índexs de nodes de graf
+     * @post Retorna els nodes corresponents al resultat de \p cerca, en el mateix ordre. L'índex es posa al dia amb el
+     *       bloqueig de lectura (només cal el primer cop, perquè després les modificacions el mantenen al dia), i la
+     *       cerca es fa amb una lectura optimista; només es bloqueja la xarxa en exclusiva si cal crear algun node
+     *       carregat en bloc.
+     */
+    private List<Nodo> cercarNodes(Supplier<int[]> cerca){
+        if(!index.alDia()){
+            if(propietari==Thread.currentThread()){
+                index.actualitzar();
+            }
+            else{
+                long segell=bloqueig.readLock();
+                try{
+                    index.actualitzar();
+                }
+                finally{
+                    bloqueig.unlockRead(segell);
                 }
             }
         }
-        if(seguir){//no s'ha trobat el client identificiat amb idClient
-            throw new NoSuchElementException("Aquest client no existeix a la xarxa");
+        return consultar(() -> index.alDia() ? nodesCreats(cerca.get()) : null, () -> {
+            index.actualitzar();
+            List<Nodo> nodes=new ArrayList<>();
+            for(int v : cerca.get()){
+                nodes.add(graf.node(v));
+            }
+            return nodes;
+        });
+    }
+
+    /**
+     * @brief Nodes ja creats a partir dels seus índexs
+     * @pre Els elements de \p indexs són índexs de nodes de graf
+     * @post Retorna els nodes corresponents a \p indexs, en el mateix ordre, o null si algun encara no s'ha creat
+     */
+    private List<Nodo> nodesCreats(int[] indexs){
+        List<Nodo> nodes=new ArrayList<>(indexs.length);
+        for(int v : indexs){
+            Nodo n=graf.nodeCreat(v);
+            if(n==null){
+                return null;
+            }
+            nodes.add(n);
         }
-        return cabal(t);
+        return nodes;
     }
 
     /**
      * @brief Obrir aixeta
      * @pre node pertany a la xarxa
-     * @post L'aixeta del node està oberta, i s'ha afegit un nou element a la listOperacions
+     * @post L'aixeta del node està oberta, i s'ha afegit l'operació a l'historial
      * @throws NoSuchElementException si node no pertany a la xarxa
      */
     public void obrirAixeta(Nodo node){
-        if(graph.getNode(node.id()) == null){//No pertany a la xarxa
-            throw new NoSuchElementException("No pertany a la xarxa " + node.id());
-        }
-        //tenir en compte la pila
-        if(node.aixetaOberta()){
-            listOperacions.push(null);
+        long segell=bloquejar();
+        try{
+            int v=graf.indexNode(node.id());
+            if(v < 0){//No pertany a la xarxa
+                throw new NoSuchElementException("No pertany a la xarxa " + node.id());
+            }
+            node=graf.node(v);
+            //tenir en compte l'historial
+            if(node.aixetaOberta()){
+                historial.afegir(Historial.BUIT, v, 0);
+            }
+            else{
+                node.obrirAixeta();
+                graf.establirAixeta(v, true);
+                historial.afegir(Historial.AIXETA, v, 0);
+                motor.invalidarDemanda(v);
+                actualitzarAbast(v);
+            }
+            if(diari!=null){
+                diari.aixeta(node.id(), true);
+                registrat();
+            }
         }
-        else{
-            node.obrirAixeta();
-            listOperacions.push(node.id());
+        finally{
+            desbloquejar(segell);
         }
-        
     }
 
     /**
      * @brief Tancar aixeta
      * @pre node pertany a la xarxa
-     * @post L'aixeta del node està tancada, i s'ha afegit un nou element a la listOperacions
+     * @post L'aixeta del node està tancada, i s'ha afegit l'operació a l'historial
      * @throws NoSuchElementException si node no pertany a la xarxa
      */
     public void tancarAixeta(Nodo node){
-        if(graph.getNode(node.id()) == null){//No pertany a la xarxa
-            throw new NoSuchElementException("No pertany a la xarxa " + node.id());
-        }
-        //tenir en compte la pila
-        if(node.aixetaOberta()){
-            node.tancarAixeta();
-            listOperacions.push(node.id());
+        long segell=bloquejar();
+        try{
+            int v=graf.indexNode(node.id());
+            if(v < 0){//No pertany a la xarxa
+                throw new NoSuchElementException("No pertany a la xarxa " + node.id());
+            }
+            node=graf.node(v);
+            //tenir en compte l'historial
+            if(node.aixetaOberta()){
+                node.tancarAixeta();
+                graf.establirAixeta(v, false);
+                historial.afegir(Historial.AIXETA, v, 0);
+                motor.invalidarDemanda(v);
+                actualitzarAbast(v);
+            }
+            else{
+                historial.afegir(Historial.BUIT, v, 0);
+            }
+            if(diari!=null){
+                diari.aixeta(node.id(), false);
+                registrat();
+            }
         }
-        else{
-            listOperacions.push(null);
+        finally{
+            desbloquejar(segell);
         }
     }
 
     /**
-     * @brief Recular operacions realitzades en les aixetes
+     * @brief Recular operacions
      * @pre \p nPassos >= 1
-     * @post S'ha reculat \p nPassos passos en la seqüència d'operacions realitzades d'obrir i tancar aixetes
+     * @post S'han desfet les \p nPassos últimes operacions de l'historial (obrir i tancar aixetes, establir demandes i
+     *       establir cabals), o totes si n'hi ha menys, i es poden refer
      * @throws IllegalArgumentException si \p nPassos és negatiu o zero
      */
     public void recular(int nPassos){
-        if(nPassos<=0){
-            throw new IllegalArgumentException("nPassos més petit o igual a 0");
-        }
-        while(nPassos>0 && !listOperacions.empty()){
-            String elemSuperior=listOperacions.pop();
-            if(elemSuperior!=null){
-                Nodo n = node(elemSuperior);;
-                if(n.aixetaOberta()){
-                    n.tancarAixeta();
+        long segell=bloquejar();
+        try{
+            if(nPassos<=0){
+                throw new IllegalArgumentException("nPassos més petit o igual a 0");
+            }
+            moure(nPassos, false);
+            if(diari!=null){
+                diari.recular(nPassos);
+                registrat();
+            }
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Refer operacions
+     * @pre \p nPassos >= 1
+     * @post S'han tornat a fer les \p nPassos últimes operacions desfetes amb recular, o totes si n'hi ha menys
+     * @throws IllegalArgumentException si \p nPassos és negatiu o zero
+     */
+    public void refer(int nPassos){
+        long segell=bloquejar();
+        try{
+            if(nPassos<=0){
+                throw new IllegalArgumentException("nPassos més petit o igual a 0");
+            }
+            moure(nPassos, true);
+            if(diari!=null){
+                diari.refer(nPassos);
+                registrat();
+            }
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
+    /**
+     * @brief Desfà o refà operacions de l'historial
+     * @pre \p nPassos >= 1
+     * @post S'han refet (si \p endavant) o desfet com a molt \p nPassos operacions. Els valors calculats pel motor
+     *       s'invaliden un sol cop per a tots els nodes afectats.
+     */
+    private void moure(int nPassos, boolean endavant){
+        int maxim=Math.min(nPassos, endavant ? historial.nombreRefer() : historial.mida());
+        int[] demandes=new int[maxim];
+        int[] cabals=new int[maxim];
+        int nDemandes=0;
+        int nCabals=0;
+        for(int p=0; p<maxim; p++){
+            int i=endavant ? historial.refer() : historial.desfer();
+            int v=historial.node(i);
+            switch(historial.tipus(i)){
+                case Historial.AIXETA:{
+                    boolean oberta=!graf.aixetaOberta(v);
+                    graf.establirAixeta(v, oberta);
+                    actualitzarAbast(v);
+                    Nodo n=graf.nodeCreat(v); //si encara no s'ha creat, en crear-lo es llegirà l'estat del graf
+                    if(n!=null){
+                        if(oberta){
+                            n.obrirAixeta();
+                        }
+                        else{
+                            n.tancarAixeta();
+                        }
+                    }
+                    demandes[nDemandes++]=v;
+                    break;
+                }
+                case Historial.DEMANDA:{
+                    float demanda=Float.intBitsToFloat(historial.valor(i));
+                    historial.establirValor(i, Float.floatToIntBits(graf.demanda(v)));
+                    graf.establirDemanda(v, demanda);
+                    Nodo n=graf.nodeCreat(v);
+                    if(n instanceof Terminal){
+                        ((Terminal)n).establirDemandaActual(demanda);
+                    }
+                    demandes[nDemandes++]=v;
+                    break;
                 }
-                else{
-                    n.obrirAixeta();
+                case Historial.CABAL:{
+                    float cabal=Float.intBitsToFloat(historial.valor(i));
+                    historial.establirValor(i, Float.floatToIntBits(graf.cabalOrigen(v)));
+                    graf.establirCabalOrigen(v, cabal);
+                    Nodo n=graf.nodeCreat(v);
+                    if(n instanceof Origen){
+                        ((Origen)n).establirCabal(cabal);
+                    }
+                    cabals[nCabals++]=v;
+                    break;
                 }
+                default: //l'operació no va canviar res
             }
-            nPassos--;
+        }
+        motor.invalidar(demandes, nDemandes, cabals, nCabals);
+    }
+
+    /**
+     * @brief Profunditat de l'historial
+     * @pre cert
+     * @post Retorna el nombre màxim d'operacions que es poden desfer
+     */
+    public int profunditatHistorial(){
+        return consultar(historial::profunditat);
+    }
+
+    /**
+     * @brief Canvia la profunditat de l'historial
+     * @pre \p profunditat >= 1
+     * @post Es poden desfer com a molt les \p profunditat últimes operacions. Si se'n guardaven més, s'han descartat les
+     *       més antigues.
+     * @throws IllegalArgumentException si \p profunditat és més petita que 1
+     */
+    public void establirProfunditatHistorial(int profunditat){
+        long segell=bloquejar();
+        try{
+            if(profunditat!=historial.profunditat()){
+                historial.establirProfunditat(profunditat);
+                if(diari!=null){
+                    diari.profunditat(profunditat);
+                    registrat();
+                }
+            }
+        }
+        finally{
+            desbloquejar(segell);
         }
     }
 
     /**
      * @brief Establir cabal a un node Origen
      * @pre \p nodeOrigen pertany a la xarxa i \p cabal >= 0
-     * @post El cabal de \p nodeOrigen és \p cabal
+     * @post El cabal de \p nodeOrigen és \p cabal, i s'ha afegit l'operació a l'historial
      * @throws NoSuchElementException si \p nodeOrigen no pertany a la xarxa
-     * @throws IllegalArgumentException si \p cabal és negatiu
+     * @throws IllegalArgumentException si \p cabal és negatiu o el node de la xarxa amb l'identificador de
+     *         \p nodeOrigen ja no és un origen (per exemple, perquè se li ha connectat una entrada)
      */
     public void establirCabal(Origen nodeOrigen, float cabal){
-        if(graph.getNode(nodeOrigen.id()) == null){//No pertany a la xarxa
-            throw new NoSuchElementException("No pertany a la xarxa " + nodeOrigen.id());
+        long segell=bloquejar();
+        try{
+            int v=graf.indexNode(nodeOrigen.id());
+            if(v < 0){//No pertany a la xarxa
+                throw new NoSuchElementException("No pertany a la xarxa " + nodeOrigen.id());
+            }
+            if(graf.tipus(v)!=GrafCompacte.ORIGEN){
+                throw new IllegalArgumentException(nodeOrigen.id() + " no és un origen");
+            }
+            if(cabal<0){
+                throw new IllegalArgumentException("Cabal negatiu");
+            }
+            historial.afegir(Historial.CABAL, v, Float.floatToIntBits(graf.cabalOrigen(v)));
+            graf.establirCabalOrigen(v, cabal);
+            Nodo n=graf.nodeCreat(v); //el de la xarxa, que en una bifurcació no és el de l'original
+            if(n instanceof Origen){
+                ((Origen)n).establirCabal(cabal);
+            }
+            motor.invalidarCabal(v);
+            if(diari!=null){
+                diari.valor(nodeOrigen.id(), true, cabal);
+                registrat();
+            }
         }
-        if(cabal<0){
-            throw new IllegalArgumentException("Cabal negatiu");
+        finally{
+            desbloquejar(segell);
         }
-        nodeOrigen.establirCabal(cabal);
     }
 
     /**
      * @brief Establir demanda a un node Terminal
      * @pre \p nodeTerminal pertany a la xarxa i \p demanda >= 0
-     * @post La demanda de \p nodeTerminal és \p demanda
+     * @post La demanda de \p nodeTerminal és \p demanda, i s'ha afegit l'operació a l'historial
      * @throws NoSuchElementException si \p nodeTerminal no pertany a la xarxa
-     * @throws IllegalArgumentException si \p demanda és negatiu
+     * @throws IllegalArgumentException si \p demanda és negatiu o el node de la xarxa amb l'identificador de
+     *         \p nodeTerminal no és un terminal
      */
     public void establirDemanda(Terminal nodeTerminal, float demanda){
-        if(graph.getNode(nodeTerminal.id()) == null){//No pertany a la xarxa
-            throw new NoSuchElementException("No pertany a la xarxa " + nodeTerminal.id());
+        long segell=bloquejar();
+        try{
+            int v=graf.indexNode(nodeTerminal.id());
+            if(v < 0){//No pertany a la xarxa
+                throw new NoSuchElementException("No pertany a la xarxa " + nodeTerminal.id());
+            }
+            if(graf.tipus(v)!=GrafCompacte.TERMINAL){
+                throw new IllegalArgumentException(nodeTerminal.id() + " no és un terminal");
+            }
+            if(demanda<0){
+                throw new IllegalArgumentException("Demanda negativa");
+            }
+            historial.afegir(Historial.DEMANDA, v, Float.floatToIntBits(graf.demanda(v)));
+            graf.establirDemanda(v, demanda);
+            Nodo n=graf.nodeCreat(v); //el de la xarxa, que en una bifurcació no és el de l'original
+            if(n instanceof Terminal){
+                ((Terminal)n).establirDemandaActual(demanda);
+            }
+            motor.invalidarDemanda(v);
+            if(diari!=null){
+                diari.valor(nodeTerminal.id(), false, demanda);
+                registrat();
+            }
         }
-        if(demanda<0){
-            throw new IllegalArgumentException("Demanda negativa");
+        finally{
+            desbloquejar(segell);
         }
-        nodeTerminal.establirDemandaActual(demanda);
     }
 
     /**
@@ -335,48 +1219,10 @@ public class Xarxa {
      * @pre \p nodo pertany a la xarxa
      * @post Retorna el cabal teòric al \p nodo segons la configuració actual de la xarxa
      * @throws NoSuchElementException si \p nodo no pertany a la xarxa
+     * @throws IllegalArgumentException si el valor depèn d'un cicle de la xarxa
      */
     public float cabal(Nodo nodo){
-        if(graph.getNode(nodo.id()) == null){//No pertany a la xarxa
-            throw new NoSuchElementException("No pertany a la xarxa " + nodo.id());
-        }
-        if (!nodo.aixetaOberta()) { //aixeta tancada
-            return 0;
-        }
-        if(nodo instanceof Origen){ //es un node origen
-            // si la demanda es més gran que el cabal retorna el cabal, altrament retorna la demanda
-            Origen o = (Origen)nodo;
-            float demanda = demanda(nodo);
-            if(demanda>o.cabal()){
-                return o.cabal();
-            }
-            return demanda;
-        }
-        //no es un origen
-        Iterator<Canonada> itEntrades=entrades(nodo);
-        float cabal=0;
-        while (itEntrades.hasNext()) {
-            cabal+=cabalEntrant(itEntrades.next());
-        }
-        return cabal;
-    }
-
-    /**
-     * @brief Cabal teòric d'una canonada
-     * @pre \p edge pertany a la xarxa
-     * @post Retorna el cabal teòric de \p edge segons la configuració actual de la xarxa
-     */
-    private float cabalEntrant(Canonada edge){
-        Nodo nodo=edge.node1();
-        float cabalNode=cabal(nodo);
-        float demandaNode=demanda(nodo);
-        float demandaPropagada=demandaPropagada(edge);
-        if(cabalNode>=demandaNode){
-            return demandaPropagada;
-        }
-        else{
-            return (demandaPropagada/demandaNode)*cabalNode;
-        }
+        return consultar(() -> guardat(motor.cabalGuardat(index(nodo))), () -> motor.cabal(index(nodo)));
     }
 
     /**
@@ -384,55 +1230,10 @@ public class Xarxa {
      * @pre \p nodo pertany a la xarxa
      * @post Retorna la demanda teòrica al \p nodo segons la configuració actual de la xarxa
      * @throws NoSuchElementException si \p nodo no pertany a la xarxa
+     * @throws IllegalArgumentException si el valor depèn d'un cicle de la xarxa
      */
     public float demanda(Nodo nodo){
-        if(graph.getNode(nodo.id()) == null){//No pertany a la xarxa
-            throw new NoSuchElementException("No pertany a la xarxa " + nodo.id());
-        }
-        if (!nodo.aixetaOberta()) { //aixeta tancada
-            return 0;
-        }
-        if(nodo instanceof Terminal){ //es un node terminal
-            return ((Terminal)nodo).demandaActual();
-        }
-        // no es un node terminal
-        Iterator<Canonada> itSortides=sortides(nodo);
-        float demanda=0;
-        while(itSortides.hasNext()){
-            demanda+=demandaPropagada(itSortides.next());
-        }
-        return demanda;
-    }
-
-    /**
-     * @brief Demanda propagada d'una canonada
-     * @pre \p edge pertany a la xarxa
-     * @post Retorna la demanda propagada del \p edge segons la configuració actual de la xarxa
-     */
-    private float demandaPropagada(Canonada edge){
-        Nodo nodo=edge.node2();
-        float demanda=demanda(nodo);
-        float capacitatsCanonades=capacitatsCanonades(entrades(nodo));
-        if(demanda>=capacitatsCanonades){
-            return edge.capacitat();
-        }
-        else{
-            float proporcio=edge.capacitat()/capacitatsCanonades;
-            return demanda*proporcio;
-        }
-    }
-
-    /**
-     * @brief Suma de les capacitats d'un conjunt de canonades
-     * @pre cert
-     * @post Retorna la suma de les capacitats d'un conjunt de canonades
-     */
-    private float capacitatsCanonades(Iterator<Canonada> itEntrades){
-        float capacitats=0;
-        while(itEntrades.hasNext()){
-            capacitats+=itEntrades.next().capacitat();
-        }
-        return capacitats;
+        return consultar(() -> guardat(motor.demandaGuardada(index(nodo))), () -> motor.demanda(index(nodo)));
     }
 
     /**
@@ -441,6 +1242,8 @@ public class Xarxa {
      * @post Dibuixa la xarxa de distribució d'aigua de la qual \p nodeOrigen pertany
      */
     public void dibuixar(Origen nodeOrigen){
+        prepararPantalla();
+        Map<String,String> etiquetes = etiquetesCanonades(nodeOrigen);
         Graph subGraph = componentConexa(nodeOrigen); //creo un subGraph amb només la xarxa corresponent
         SpriteManager sman = new SpriteManager(subGraph);//utilitzat per poder mostrar més informació en el dibuix
         for (Node nodeGraph : subGraph){
@@ -474,9 +1277,7 @@ public class Xarxa {
             nodeGraph.setAttribute("ui.class", propietatsClass);
 
             for(Edge edge : nodeGraph){
-                Canonada c = canonada(edge.getId());
-                float cabal=cabalEntrant(c);
-                edge.setAttribute("ui.label", Float.toString(cabal)+ " / " + Float.toString(c.capacitat()));
+                edge.setAttribute("ui.label", etiquetes.get(edge.getId()));
             }
         }
         subGraph.setAttribute("ui.stylesheet", "url('recursos\\estil1.css')");//associar a un stylesheet
@@ -484,6 +1285,31 @@ public class Xarxa {
         //subGraph.display();
     }
 
+    /**
+     * @brief Etiquetes de les canonades
+     * @pre \p nodeOrigen pertany a la xarxa
+     * @post Retorna, per cada canonada de la component connexa de \p nodeOrigen, el cabal que hi passa i la seva capacitat
+     *       amb el format "cabal / capacitat" que es mostra al dibuix, indexat per l'identificador de la canonada
+     */
+    public Map<String,String> etiquetesCanonades(Origen nodeOrigen){
+        long segell=bloquejar();
+        try{
+            Map<String,String> etiquetes = new LinkedHashMap<>();
+            int v=graf.indexNode(nodeOrigen.id());
+            for(int i=graf.midaComponent(v); i>0; i--, v=graf.seguentMembre(v)){
+                for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                    int e=graf.sortida(v, k);
+                    float cabal=motor.cabalCanonada(e);
+                    etiquetes.put(graf.canonada(e).id(), Float.toString(cabal)+ " / " + Float.toString(graf.capacitat(e)));
+                }
+            }
+            return etiquetes;
+        }
+        finally{
+            desbloquejar(segell);
+        }
+    }
+
     /**
      * @brief Dibuixar coordenades
      * @pre cert
@@ -516,10 +1342,25 @@ public class Xarxa {
      * @post Retorna un Graph amb la component connexa de la xarxa, de la qual pertany el node Origen \p nodeOrigen
      */
     public Graph componentConexa(Origen nodeOrigen){
-        Graph subGraph = new SingleGraph("SubGraph");
-        afegirNode(subGraph, nodeOrigen);
-        posarCanonades(subGraph, sortides(nodeOrigen));
-        return subGraph;
+        long segell=bloquejar();
+        try{
+            Graph subGraph = new SingleGraph("SubGraph");
+            int origen=graf.indexNode(nodeOrigen.id());
+            int mida=graf.midaComponent(origen);
+            int v=origen;
+            for(int i=0; i<mida; i++, v=graf.seguentMembre(v)){
+                afegirNode(subGraph, graf.node(v));
+            }
+            for(int i=0; i<mida; i++, v=graf.seguentMembre(v)){
+                for(int k=0, grau=graf.grauSortida(v); k<grau; k++){
+                    afegirAresta(subGraph, graf.canonada(graf.sortida(v, k)));
+                }
+            }
+            return subGraph;
+        }
+        finally{
+            desbloquejar(segell);
+        }
     }
 
     /**
@@ -529,15 +1370,7 @@ public class Xarxa {
      */
     private void afegirNode(Graph subGraph, Nodo node){
         Node nodeSub=subGraph.addNode(node.id());
-        if(node instanceof Origen){
-            nodeSub.setAttribute(atributNode, (Origen)node);
-        }
-        else if(node instanceof Terminal){
-            nodeSub.setAttribute(atributNode, (Terminal)node);
-        }
-        else{
-            nodeSub.setAttribute(atributNode, (Connexio)node);
-        }
+        nodeSub.setAttribute(atributNode, node);
     }
 
     /**
@@ -549,31 +1382,4 @@ public class Xarxa {
         Edge aresta=subGraph.addEdge(c.id(), c.node1().id(), c.node2().id(), true);
         aresta.setAttribute(atributCanonada, c);
     }
-
-    /**
-     * @brief Metode recursiu que va recorrent el graph i crear un sub-graph
-     * @pre cert
-     * @post Va fent un recorregut per \p it i va afegint les canonades i els nodes corresponents al sub-graph, cada cop que afegeix un node
-     *       es crida recursivament amb les entrades i sortides d'aquell node.
-     */ 
-    private void posarCanonades(Graph subGraph, Iterator<Canonada> it){
-        while(it.hasNext()){
-            Canonada c=it.next();
-            Nodo n1=c.node1();
-            Nodo n2=c.node2();
-            if(subGraph.getNode(n1.id())==null){//no pertany a la xarxa
-                afegirNode(subGraph, n1);
-                posarCanonades(subGraph, entrades(n1));
-                posarCanonades(subGraph, sortides(n1));
-            }
-            if(subGraph.getNode(n2.id())==null){//no pertany a la xarxa
-                afegirNode(subGraph, n2);
-                posarCanonades(subGraph, entrades(n2));
-                posarCanonades(subGraph, sortides(n2));
-            }
-            if(subGraph.getEdge(c.id())==null){//no pertany a la xarxa
-                afegirAresta(subGraph, c);
-            }
-        }
-    }
-}
\ No newline at end of file
+}